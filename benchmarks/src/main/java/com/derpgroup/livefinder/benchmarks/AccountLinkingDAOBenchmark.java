@@ -0,0 +1,86 @@
+package com.derpgroup.livefinder.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.dao.impl.AccountLinkingDAOFactory;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+
+/**
+ * Token issuance, token validation, link lookup and link upsert against each store and decorator stack the
+ * factory can build, at several table sizes.
+ *
+ * Stacks:
+ * - INMEMORY, H2, SHARDED_H2 (four shards): the bare stores
+ * - H2_CACHED: H2 behind the token filter and the read cache
+ * - H2_SIGNED: H2_CACHED behind signed tokens, so issuance and validation never reach the store
+ *
+ * Keys are drawn uniformly from the whole population, which is the worst case for the caches. Issuance adds a
+ * token row per call, so tables grow by the iteration's operation count; upserts replace an existing user's
+ * link and leave the row count unchanged. JMH runs each stack and size in its own fork, so stores are never
+ * shared or reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(8)
+public class AccountLinkingDAOBenchmark {
+
+  @Param({"INMEMORY", "H2", "SHARDED_H2", "H2_CACHED", "H2_SIGNED"})
+  public String stack;
+
+  @Param({"1000", "100000", "1000000"})
+  public int rows;
+
+  private AccountLinkingDAO dao;
+  private String[] tokens;
+
+  @Setup
+  public void setup(){
+    dao = AccountLinkingDAOFactory.getDAO(Fixtures.config(stack, 4), new MetricRegistry());
+    tokens = Fixtures.populate(dao, rows);
+  }
+
+  private int randomUser(){
+    return ThreadLocalRandom.current().nextInt(rows);
+  }
+
+  @Benchmark
+  public String issueAuthToken(){
+    return dao.generateAuthToken(Fixtures.userId(randomUser()));
+  }
+
+  @Benchmark
+  public String validateAuthToken(){
+    return dao.getUserIdByAuthToken(tokens[randomUser()]);
+  }
+
+  @Benchmark
+  public ExternalAccountLink lookupLink(){
+    return dao.getAccountLinkByExternalUserIdAndExternalSystemName(Fixtures.externalUserId(randomUser()), Fixtures.EXTERNAL_SYSTEM_NAME);
+  }
+
+  @Benchmark
+  public ExternalAccountLink upsertLink(){
+    int user = randomUser();
+    return dao.createAccountLink(Fixtures.link(Fixtures.userId(user), Fixtures.externalUserId(user)));
+  }
+}
@@ -0,0 +1,78 @@
+package com.derpgroup.livefinder.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Lines up two JMH JSON result files, typically from two commits, and prints the change in each score.
+ *
+ * Usage: CompareResults base.json candidate.json
+ *
+ * Changes larger than the two runs' combined error are marked with '*'; runs with too few iterations for JMH to
+ * estimate an error are never marked. The sign is the raw change in score, so read it against the unit: higher
+ * is better for ops/time, lower is better for time/op.
+ */
+public class CompareResults {
+
+  public static void main(String[] args) throws IOException{
+    if(args.length != 2){
+      System.err.println("Usage: CompareResults base.json candidate.json");
+      System.exit(1);
+    }
+    Map<String, JsonNode> base = load(new File(args[0]));
+    Map<String, JsonNode> candidate = load(new File(args[1]));
+
+    System.out.println(String.format("%-90s %14s %14s %9s  %s", "Benchmark", "Base", "Candidate", "Change", "Unit"));
+    for(Map.Entry<String, JsonNode> entry : base.entrySet()){
+      JsonNode before = entry.getValue().get("primaryMetric");
+      JsonNode after = candidate.containsKey(entry.getKey()) ? candidate.get(entry.getKey()).get("primaryMetric") : null;
+      if(after == null){
+        System.out.println(String.format("%-90s %14.3f %14s %9s  %s", entry.getKey(), before.get("score").asDouble(), "-", "-",
+            before.get("scoreUnit").asText()));
+        continue;
+      }
+      double baseScore = before.get("score").asDouble();
+      double candidateScore = after.get("score").asDouble();
+      //NaN errors make this false
+      boolean significant = Math.abs(candidateScore - baseScore) > before.get("scoreError").asDouble() + after.get("scoreError").asDouble();
+      System.out.println(String.format("%-90s %14.3f %14.3f %+8.1f%%%s %s", entry.getKey(), baseScore, candidateScore,
+          (candidateScore - baseScore) / baseScore * 100, significant ? "*" : " ", after.get("scoreUnit").asText()));
+    }
+    for(String key : candidate.keySet()){
+      if(!base.containsKey(key)){
+        JsonNode after = candidate.get(key).get("primaryMetric");
+        System.out.println(String.format("%-90s %14s %14.3f %9s  %s", key, "-", after.get("score").asDouble(), "new",
+            after.get("scoreUnit").asText()));
+      }
+    }
+  }
+
+  /**
+   * @return Each result keyed by benchmark name, mode and parameters, in file order
+   */
+  private static Map<String, JsonNode> load(File file) throws IOException{
+    Map<String, JsonNode> results = new LinkedHashMap<String, JsonNode>();
+    for(JsonNode result : new ObjectMapper().readTree(file)){
+      StringBuilder key = new StringBuilder(result.get("benchmark").asText().replace(CompareResults.class.getPackage().getName() + ".", ""));
+      key.append(" ").append(result.get("mode").asText());
+      if(result.has("params")){
+        Map<String, String> params = new TreeMap<String, String>();
+        Iterator<Map.Entry<String, JsonNode>> fields = result.get("params").fields();
+        while(fields.hasNext()){
+          Map.Entry<String, JsonNode> field = fields.next();
+          params.put(field.getKey(), field.getValue().asText());
+        }
+        key.append(" ").append(params);
+      }
+      results.put(key.toString(), result);
+    }
+    return results;
+  }
+}
@@ -0,0 +1,108 @@
+package com.derpgroup.livefinder.benchmarks;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.util.ExternalAccountLinkBiMap;
+
+/**
+ * The concurrent ExternalAccountLinkBiMap against the HashMap-based original.
+ *
+ * Reads run on several threads, which the original only tolerates because nothing writes during them; the
+ * original has no external-user index, so its external lookup scans the values as its callers had to. Writes
+ * run on one thread, since concurrent writes would corrupt the original.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExternalAccountLinkBiMapBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  public int rows;
+
+  private LegacyExternalAccountLinkBiMap<String, ExternalAccountLink> legacy;
+  private ExternalAccountLinkBiMap<String, ExternalAccountLink> concurrent;
+
+  @Setup
+  public void setup(){
+    legacy = new LegacyExternalAccountLinkBiMap<String, ExternalAccountLink>();
+    concurrent = new ExternalAccountLinkBiMap<String, ExternalAccountLink>();
+    for(int i = 0; i < rows; i++){
+      ExternalAccountLink link = Fixtures.link(Fixtures.userId(i), Fixtures.externalUserId(i));
+      legacy.put(key(i), link);
+      concurrent.put(key(i), link);
+    }
+  }
+
+  private static String key(int i){
+    return Fixtures.userId(i) + ":" + Fixtures.EXTERNAL_SYSTEM_NAME;
+  }
+
+  private int randomRow(){
+    return ThreadLocalRandom.current().nextInt(rows);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Set<ExternalAccountLink> legacyGetByUserId(){
+    return legacy.getKeysByUserId(Fixtures.userId(randomRow()));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Collection<ExternalAccountLink> concurrentGetByUserId(){
+    return concurrent.getByUserId(Fixtures.userId(randomRow()));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public ExternalAccountLink legacyGetByExternalUserId(){
+    String externalUserId = Fixtures.externalUserId(randomRow());
+    for(ExternalAccountLink link : legacy.values()){
+      if(externalUserId.equals(link.getExternalUserId()) && Fixtures.EXTERNAL_SYSTEM_NAME.equals(link.getExternalSystemName())){
+        return link;
+      }
+    }
+    return null;
+  }
+
+  @Benchmark
+  @Threads(8)
+  public ExternalAccountLink concurrentGetByExternalUserId(){
+    return concurrent.getByExternalUserIdAndExternalSystemName(Fixtures.externalUserId(randomRow()), Fixtures.EXTERNAL_SYSTEM_NAME);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public ExternalAccountLink legacyReplace(){
+    int i = randomRow();
+    legacy.remove(key(i));
+    return legacy.put(key(i), Fixtures.link(Fixtures.userId(i), Fixtures.externalUserId(i)));
+  }
+
+  @Benchmark
+  @Threads(1)
+  public ExternalAccountLink concurrentReplace(){
+    int i = randomRow();
+    return concurrent.put(key(i), Fixtures.link(Fixtures.userId(i), Fixtures.externalUserId(i)));
+  }
+}
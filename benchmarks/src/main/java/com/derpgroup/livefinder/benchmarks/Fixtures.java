@@ -0,0 +1,133 @@
+package com.derpgroup.livefinder.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.ConnectionPoolConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+
+/**
+ * Store configurations and data shared by the benchmarks.
+ *
+ * Every user gets one STEAM link and one auth token, so a row count is the number of users, links and tokens.
+ */
+public class Fixtures {
+
+  public static final String EXTERNAL_SYSTEM_NAME = "STEAM";
+
+  private static final int BATCH_SIZE = 1000;
+  private static final String SECRET = "benchmark-secret-that-is-at-least-32-bytes";
+
+  /**
+   * @param stack One of the stacks named in AccountLinkingDAOBenchmark
+   * @param shards Number of H2 shards, used by SHARDED_H2 only
+   */
+  public static AccountLinkingDAOConfig config(String stack, int shards){
+    AccountLinkingDAOConfig config = new AccountLinkingDAOConfig();
+    config.getInstrumentation().setEnabled(false);
+    config.setPool(pool());
+    switch(stack){
+    case "INMEMORY":
+      config.setType("INMEMORY");
+      config.setProperties(new HashMap<String,Object>());
+      break;
+    case "H2":
+      config.setType("H2");
+      config.setProperties(h2Properties(null));
+      break;
+    case "SHARDED_H2":
+      config.setType("SHARDED_H2");
+      List<Map<String,Object>> shardProperties = new ArrayList<Map<String,Object>>();
+      for(int i = 0; i < shards; i++){
+        shardProperties.add(h2Properties("shard" + i));
+      }
+      config.getSharding().setShards(shardProperties);
+      break;
+    case "H2_CACHED":
+      config.setType("H2");
+      config.setProperties(h2Properties(null));
+      config.getTokenFilter().setEnabled(true);
+      config.getCache().setEnabled(true);
+      break;
+    case "H2_SIGNED":
+      config.setType("H2");
+      config.setProperties(h2Properties(null));
+      config.getTokenFilter().setEnabled(true);
+      config.getCache().setEnabled(true);
+      config.getSignedTokens().setEnabled(true);
+      config.getSignedTokens().setSecret(SECRET);
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown stack '" + stack + "'.");
+    }
+    return config;
+  }
+
+  /**
+   * A private in-memory database per store; the DAO names it so its whole pool shares it.
+   */
+  private static Map<String,Object> h2Properties(String name){
+    Map<String,Object> properties = new HashMap<String,Object>();
+    if(name != null){
+      properties.put("name", name);
+    }
+    properties.put("url", "jdbc:h2:mem:");
+    properties.put("user", "sa");
+    properties.put("password", "");
+    return properties;
+  }
+
+  /**
+   * Large enough that benchmark threads never wait on a checkout, so the numbers measure the store.
+   */
+  private static ConnectionPoolConfig pool(){
+    ConnectionPoolConfig pool = new ConnectionPoolConfig();
+    pool.setMaxSize(32);
+    pool.setTestOnBorrow(false);
+    return pool;
+  }
+
+  public static String userId(int i){
+    return "user" + i;
+  }
+
+  public static String externalUserId(int i){
+    return "7656119" + i;
+  }
+
+  public static ExternalAccountLink link(String userId, String externalUserId){
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId(userId);
+    link.setExternalUserId(externalUserId);
+    link.setExternalSystemName(EXTERNAL_SYSTEM_NAME);
+    link.setAuthToken("steamToken");
+    return link;
+  }
+
+  /**
+   * Links every user in batches and issues each one an auth token.
+   *
+   * @return The auth tokens, indexed by user
+   */
+  public static String[] populate(AccountLinkingDAO dao, int rows){
+    List<ExternalAccountLink> batch = new ArrayList<ExternalAccountLink>(BATCH_SIZE);
+    for(int i = 0; i < rows; i++){
+      batch.add(link(userId(i), externalUserId(i)));
+      if(batch.size() == BATCH_SIZE || i == rows - 1){
+        if(dao.createAccountLinks(batch) == null){
+          throw new IllegalStateException("Could not populate account links.");
+        }
+        batch.clear();
+      }
+    }
+    String[] tokens = new String[rows];
+    for(int i = 0; i < rows; i++){
+      tokens[i] = dao.generateAuthToken(userId(i));
+    }
+    return tokens;
+  }
+}
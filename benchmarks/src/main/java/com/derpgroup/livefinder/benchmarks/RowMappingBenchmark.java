@@ -0,0 +1,125 @@
+package com.derpgroup.livefinder.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.derpgroup.livefinder.dao.impl.H2EmbeddedAccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+
+/**
+ * getAccountLinksByUserId's query mapped through a CachedRowSet copy, as the H2 DAO used to, and mapped
+ * straight off the open ResultSet, as it does now. Run with -prof gc to compare allocation per call as well.
+ * Each benchmark thread queries the shared in-memory database over its own connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RowMappingBenchmark {
+
+  private static final int USERS = 1000;
+  private static final String URL = "jdbc:h2:mem:rowMapping;DB_CLOSE_DELAY=-1";
+  private static final String SELECT_LINKS = "SELECT userId, externalUserId, externalSystemName, externalSystemToken, externalSystemRefreshToken"
+      + " FROM AccountLink WHERE userId = ?";
+
+  @Param({"1", "5", "50"})
+  public int linksPerUser;
+
+  private Connection conn;
+
+  @State(Scope.Thread)
+  public static class Session{
+
+    private Connection conn;
+    private PreparedStatement select;
+
+    /**
+     * Takes the benchmark state only so JMH creates the tables first.
+     */
+    @Setup
+    public void setup(RowMappingBenchmark benchmark) throws SQLException{
+      conn = DriverManager.getConnection(URL, "sa", "");
+      select = conn.prepareStatement(SELECT_LINKS);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException{
+      conn.close();
+    }
+
+    private PreparedStatement bindRandomUser() throws SQLException{
+      select.setString(1, Fixtures.userId(ThreadLocalRandom.current().nextInt(USERS)));
+      return select;
+    }
+  }
+
+  @Setup
+  public void setup() throws SQLException{
+    conn = DriverManager.getConnection(URL, "sa", "");
+    try(Statement statement = conn.createStatement()){
+      statement.execute("CREATE TABLE AccountLink(userId varchar(255) NOT NULL, externalUserId varchar(255) NULL,"
+          + " externalSystemName varchar(64) NOT NULL, externalSystemToken varchar(255) NULL, externalSystemRefreshToken varchar(255) NULL,"
+          + " UNIQUE(userId, externalSystemName))");
+      statement.execute("INSERT INTO AccountLink SELECT 'user' || u.X, '7656119' || u.X, 'SYSTEM' || s.X, 'token', 'refreshToken'"
+          + " FROM SYSTEM_RANGE(0, " + (USERS - 1) + ") u, SYSTEM_RANGE(1, " + linksPerUser + ") s");
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws SQLException{
+    try(Statement statement = conn.createStatement()){
+      statement.execute("SHUTDOWN");
+    }
+  }
+
+  @Benchmark
+  public List<ExternalAccountLink> cachedRowSet(Session session) throws SQLException{
+    CachedRowSet crs = RowSetProvider.newFactory().createCachedRowSet();
+    try(ResultSet rs = session.bindRandomUser().executeQuery()){
+      crs.populate(rs);
+    }
+    List<ExternalAccountLink> links = new ArrayList<ExternalAccountLink>();
+    while(crs.next()){
+      links.add(H2EmbeddedAccountLinkingDAO.buildAccountLink(crs));
+    }
+    crs.close();
+    return links;
+  }
+
+  @Benchmark
+  public List<ExternalAccountLink> rowMapper(Session session) throws SQLException{
+    List<ExternalAccountLink> links = new ArrayList<ExternalAccountLink>();
+    try(ResultSet rs = session.bindRandomUser().executeQuery()){
+      while(rs.next()){
+        links.add(H2EmbeddedAccountLinkingDAO.buildAccountLink(rs));
+      }
+    }
+    return links;
+  }
+}
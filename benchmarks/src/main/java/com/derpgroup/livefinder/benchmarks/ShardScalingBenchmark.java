@@ -0,0 +1,79 @@
+package com.derpgroup.livefinder.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.dao.impl.AccountLinkingDAOFactory;
+import com.derpgroup.livefinder.dao.impl.ShardedAccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+
+/**
+ * Throughput of the sharded store as shards are added, under the Alexa request mix: 14 threads loading user
+ * contexts by auth token against 2 threads relinking accounts.
+ *
+ * Shards share one JVM, so this shows lock and pool contention relief rather than extra hardware; compare the
+ * read and write scores per shard count on a host with at least as many cores as threads.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ShardScalingBenchmark {
+
+  @Param({"1", "2", "4", "8"})
+  public int shards;
+
+  @Param({"100000"})
+  public int rows;
+
+  private ShardedAccountLinkingDAO dao;
+  private String[] tokens;
+
+  @Setup
+  public void setup(){
+    AccountLinkingDAOConfig config = Fixtures.config("SHARDED_H2", shards);
+    MetricRegistry metricRegistry = new MetricRegistry();
+    dao = new ShardedAccountLinkingDAO(AccountLinkingDAOFactory.getH2Shards(config, metricRegistry), config.getSharding(), metricRegistry);
+    tokens = Fixtures.populate(dao, rows);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception{
+    dao.stop();
+  }
+
+  @Benchmark
+  @Group("alexaMix")
+  @GroupThreads(14)
+  public UserAccount loadUserContext(){
+    return dao.loadUserContextByAuthToken(tokens[ThreadLocalRandom.current().nextInt(rows)]);
+  }
+
+  @Benchmark
+  @Group("alexaMix")
+  @GroupThreads(2)
+  public ExternalAccountLink relink(){
+    int user = ThreadLocalRandom.current().nextInt(rows);
+    return dao.createAccountLink(Fixtures.link(Fixtures.userId(user), Fixtures.externalUserId(user)));
+  }
+}
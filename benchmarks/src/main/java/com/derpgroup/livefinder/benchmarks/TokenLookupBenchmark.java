@@ -0,0 +1,120 @@
+package com.derpgroup.livefinder.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Auth token lookup before and after schema migration 2 keyed the Authorization table on token.
+ *
+ * The unkeyed table and TOP 1 ... ORDER BY query are the original schema and query, so the unkeyed score is a
+ * full scan and sort per lookup and grows with the table. Both tables live in one named in-memory database that
+ * each benchmark thread queries over its own connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TokenLookupBenchmark {
+
+  private static final int SAMPLE_SIZE = 1024;
+  private static final String URL = "jdbc:h2:mem:tokenLookup;DB_CLOSE_DELAY=-1";
+
+  @Param({"1000", "100000", "1000000"})
+  public int rows;
+
+  private Connection conn;
+  private UUID[] tokens;
+
+  @State(Scope.Thread)
+  public static class Session{
+
+    private Connection conn;
+    private PreparedStatement unkeyedLookup;
+    private PreparedStatement keyedLookup;
+
+    /**
+     * Takes the benchmark state only so JMH creates the tables first.
+     */
+    @Setup
+    public void setup(TokenLookupBenchmark benchmark) throws SQLException{
+      conn = DriverManager.getConnection(URL, "sa", "");
+      unkeyedLookup = conn.prepareStatement("SELECT TOP 1 userId FROM UnkeyedAuthorization WHERE token = ? ORDER BY dateCreated DESC");
+      keyedLookup = conn.prepareStatement("SELECT userId FROM KeyedAuthorization WHERE token = ?");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException{
+      conn.close();
+    }
+  }
+
+  @Setup
+  public void setup() throws SQLException{
+    conn = DriverManager.getConnection(URL, "sa", "");
+    try(Statement statement = conn.createStatement()){
+      statement.execute("CREATE TABLE UnkeyedAuthorization(token UUID NOT NULL DEFAULT(RANDOM_UUID()),"
+          + " userId varchar(255) NOT NULL, dateCreated TIMESTAMP NOT NULL DEFAULT(NOW()))");
+      statement.execute("CREATE TABLE KeyedAuthorization(token UUID NOT NULL DEFAULT(RANDOM_UUID()) PRIMARY KEY,"
+          + " userId varchar(255) NOT NULL, dateCreated TIMESTAMP NOT NULL DEFAULT(NOW()))");
+      statement.execute("INSERT INTO KeyedAuthorization(userId) SELECT 'user' || X FROM SYSTEM_RANGE(1, " + rows + ")");
+      statement.execute("INSERT INTO UnkeyedAuthorization SELECT * FROM KeyedAuthorization");
+    }
+
+    List<UUID> sample = new ArrayList<UUID>(SAMPLE_SIZE);
+    try(Statement statement = conn.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT token FROM KeyedAuthorization ORDER BY RAND() LIMIT " + SAMPLE_SIZE)){
+      while(rs.next()){
+        sample.add((UUID) rs.getObject(1));
+      }
+    }
+    tokens = sample.toArray(new UUID[sample.size()]);
+  }
+
+  @TearDown
+  public void tearDown() throws SQLException{
+    try(Statement statement = conn.createStatement()){
+      statement.execute("SHUTDOWN");
+    }
+  }
+
+  private String lookup(PreparedStatement statement) throws SQLException{
+    statement.setObject(1, tokens[ThreadLocalRandom.current().nextInt(tokens.length)]);
+    try(ResultSet rs = statement.executeQuery()){
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+
+  @Benchmark
+  public String unkeyed(Session session) throws SQLException{
+    return lookup(session.unkeyedLookup);
+  }
+
+  @Benchmark
+  public String keyed(Session session) throws SQLException{
+    return lookup(session.keyedLookup);
+  }
+}
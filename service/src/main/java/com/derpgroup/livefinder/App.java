@@ -27,14 +27,19 @@ import io.dropwizard.setup.Environment;
 
 import java.io.IOException;
 
+import com.derpgroup.livefinder.command.AccountStoreServerCommand;
+import com.derpgroup.livefinder.command.RebalanceShardsCommand;
 import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
 import com.derpgroup.livefinder.configuration.MainConfig;
 import com.derpgroup.livefinder.configuration.TwitchAccountLinkingConfig;
 import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.dao.impl.AccountLinkWriteBehindQueue;
 import com.derpgroup.livefinder.dao.impl.AccountLinkingDAOFactory;
 import com.derpgroup.livefinder.dao.impl.H2EmbeddedAccountLinkingDAO;
 import com.derpgroup.livefinder.dao.impl.InMemoryAccountLinkingDAO;
+import com.derpgroup.livefinder.dao.impl.TokenSweeper;
 import com.derpgroup.livefinder.health.BasicHealthCheck;
+import com.derpgroup.livefinder.health.SteamRateLimitHealthCheck;
 import com.derpgroup.livefinder.model.SteamClientWrapper;
 import com.derpgroup.livefinder.model.TwitchClientWrapper;
 import com.derpgroup.livefinder.resource.AuthResource;
@@ -58,6 +63,8 @@ public class App extends Application<MainConfig> {
   public void initialize(Bootstrap<MainConfig> bootstrap) {
     
     bootstrap.addBundle(new AssetsBundle("/accountLinking", "/livefinder/accountLinking", "accountLinking.html"));
+    bootstrap.addCommand(new RebalanceShardsCommand());
+    bootstrap.addCommand(new AccountStoreServerCommand());
   }
 
   @Override
@@ -73,19 +80,25 @@ public class App extends Application<MainConfig> {
     AccountLinkingDAOConfig accountLinkingDAOConfig = config.getDaoConfig().getAccountLinking();
     
     // DAO
-    AccountLinkingDAO accountLinkingDAO = AccountLinkingDAOFactory.getDAO(accountLinkingDAOConfig);
+    AccountLinkingDAO accountLinkingDAO = AccountLinkingDAOFactory.getDAO(accountLinkingDAOConfig, environment.metrics(), environment.lifecycle());
+    environment.lifecycle().manage(new TokenSweeper(accountLinkingDAO, accountLinkingDAOConfig.getTokenExpiry(), environment.metrics()));
+    AccountLinkWriteBehindQueue accountLinkWriter = new AccountLinkWriteBehindQueue(accountLinkingDAO, accountLinkingDAOConfig.getWriteBehind(), environment.metrics());
+    environment.lifecycle().manage(accountLinkWriter);
     
     SteamClientWrapper wrapper = SteamClientWrapper.getInstance();
-    wrapper.init(config.getLiveFinderConfig().getApiKey());
+    wrapper.init(config.getLiveFinderConfig().getApiKey(), config.getLiveFinderConfig().getSteamApi(), environment.metrics());
+    environment.lifecycle().manage(wrapper.getClient());
+    environment.healthChecks().register("steamRateLimit", new SteamRateLimitHealthCheck(wrapper.getClient().getRateLimiter()));
     TwitchClientWrapper twitchWrapper = TwitchClientWrapper.getInstance();
     TwitchAccountLinkingConfig twitchConfig = config.getLiveFinderConfig().getTwitchAccountLinkingConfig();
     twitchWrapper.init(twitchConfig.getTwitchApiRootUri()
         ,twitchConfig.getClientId()
         ,twitchConfig.getClientSecret()
-        ,twitchConfig.getRedirectUri());
+        ,twitchConfig.getRedirectUri()
+        ,environment.metrics());
     
     // Resources
-    environment.jersey().register(new LiveFinderAlexaResource(config, environment, accountLinkingDAO));
-    environment.jersey().register(new AuthResource(config, environment,accountLinkingDAO));
+    environment.jersey().register(new LiveFinderAlexaResource(config, environment, accountLinkingDAO, accountLinkWriter));
+    environment.jersey().register(new AuthResource(config, environment, accountLinkingDAO));
   }
 }
@@ -0,0 +1,39 @@
+package com.derpgroup.livefinder.command;
+
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.setup.Bootstrap;
+
+import java.util.concurrent.CountDownLatch;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import com.derpgroup.livefinder.configuration.MainConfig;
+import com.derpgroup.livefinder.dao.impl.H2TcpServer;
+
+/**
+ * Runs only the account store's H2 TCP server, using the accountLinking server settings, for deployments where
+ * every LiveFinder node is a client. Runs until the process is stopped.
+ */
+public class AccountStoreServerCommand extends ConfiguredCommand<MainConfig> {
+
+  public AccountStoreServerCommand(){
+    super("account-store-server", "Serves the account linking database over TCP to LiveFinder nodes.");
+  }
+
+  @Override
+  protected void run(Bootstrap<MainConfig> bootstrap, Namespace namespace, MainConfig config) throws Exception {
+    H2TcpServer server = new H2TcpServer(config.getDaoConfig().getAccountLinking().getServer());
+    CountDownLatch stopped = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try{
+        server.stop();
+      }catch(Exception e){
+        System.err.println("Could not stop the account store server cleanly: " + e.getMessage());
+      }finally{
+        stopped.countDown();
+      }
+    }));
+    server.start();
+    stopped.await();
+  }
+}
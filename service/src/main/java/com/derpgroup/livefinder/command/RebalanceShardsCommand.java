@@ -0,0 +1,54 @@
+package com.derpgroup.livefinder.command;
+
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.setup.Bootstrap;
+
+import java.util.Map;
+
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.MainConfig;
+import com.derpgroup.livefinder.dao.impl.AccountLinkingDAOFactory;
+import com.derpgroup.livefinder.dao.impl.H2EmbeddedAccountLinkingDAO;
+import com.derpgroup.livefinder.dao.impl.ShardRebalancer;
+
+/**
+ * Moves users onto the shard the configured hash ring assigns them to. Run it with the service stopped, after
+ * adding shards to the configuration.
+ */
+public class RebalanceShardsCommand extends ConfiguredCommand<MainConfig> {
+
+  public RebalanceShardsCommand(){
+    super("rebalance-shards", "Moves account linking users to the shards the hash ring assigns them to and rebuilds the external link index.");
+  }
+
+  @Override
+  public void configure(Subparser subparser) {
+    super.configure(subparser);
+    subparser.addArgument("--dry-run")
+        .dest("dryRun")
+        .action(Arguments.storeTrue())
+        .help("Only report how many users would move");
+  }
+
+  @Override
+  protected void run(Bootstrap<MainConfig> bootstrap, Namespace namespace, MainConfig config) throws Exception {
+    AccountLinkingDAOConfig accountLinkingDAOConfig = config.getDaoConfig().getAccountLinking();
+    Map<String, H2EmbeddedAccountLinkingDAO> shards = AccountLinkingDAOFactory.getH2Shards(accountLinkingDAOConfig, new MetricRegistry());
+    boolean dryRun = namespace.getBoolean("dryRun");
+    try{
+      Map<String, Integer> moved = new ShardRebalancer(shards, accountLinkingDAOConfig.getSharding().getVirtualNodesPerShard()).rebalance(dryRun);
+      for(Map.Entry<String, Integer> shard : moved.entrySet()){
+        System.out.println(shard.getKey() + ": " + shard.getValue() + (dryRun ? " users would move" : " users moved"));
+      }
+    }finally{
+      for(H2EmbeddedAccountLinkingDAO shard : shards.values()){
+        shard.stop();
+      }
+    }
+  }
+}
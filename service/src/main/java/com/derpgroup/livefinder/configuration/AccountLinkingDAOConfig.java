@@ -2,15 +2,52 @@ package com.derpgroup.livefinder.configuration;
 
 import java.util.Map;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 public class AccountLinkingDAOConfig {
 
   @NotNull
   private String type;
-  
+
   private Map<String,Object> properties;
 
+  @Min(1)
+  private Integer cacheSizeKb;
+
+  @Valid
+  @NotNull
+  private ConnectionPoolConfig pool = new ConnectionPoolConfig();
+
+  @Valid
+  @NotNull
+  private CacheConfig cache = new CacheConfig();
+
+  @Valid
+  @NotNull
+  private TokenExpiryConfig tokenExpiry = new TokenExpiryConfig();
+
+  @Valid
+  @NotNull
+  private SignedTokenConfig signedTokens = new SignedTokenConfig();
+
+  @Valid
+  @NotNull
+  private TokenFilterConfig tokenFilter = new TokenFilterConfig();
+  @Valid
+  @NotNull
+  private WriteBehindConfig writeBehind = new WriteBehindConfig();
+  @Valid
+  @NotNull
+  private ShardingConfig sharding = new ShardingConfig();
+  @Valid
+  @NotNull
+  private InstrumentationConfig instrumentation = new InstrumentationConfig();
+  @Valid
+  @NotNull
+  private H2ServerConfig server = new H2ServerConfig();
+
   public String getType() {
     return type;
   }
@@ -26,4 +63,87 @@ public class AccountLinkingDAOConfig {
   public void setProperties(Map<String, Object> properties) {
     this.properties = properties;
   }
+
+  /**
+   * Page cache for file-backed H2 stores, in KB; null keeps H2's default.
+   */
+  public Integer getCacheSizeKb() {
+    return cacheSizeKb;
+  }
+
+  public void setCacheSizeKb(Integer cacheSizeKb) {
+    this.cacheSizeKb = cacheSizeKb;
+  }
+
+  public ConnectionPoolConfig getPool() {
+    return pool;
+  }
+
+  public void setPool(ConnectionPoolConfig pool) {
+    this.pool = pool;
+  }
+
+  public CacheConfig getCache() {
+    return cache;
+  }
+
+  public void setCache(CacheConfig cache) {
+    this.cache = cache;
+  }
+
+  public TokenExpiryConfig getTokenExpiry() {
+    return tokenExpiry;
+  }
+
+  public void setTokenExpiry(TokenExpiryConfig tokenExpiry) {
+    this.tokenExpiry = tokenExpiry;
+  }
+
+  public SignedTokenConfig getSignedTokens() {
+    return signedTokens;
+  }
+
+  public void setSignedTokens(SignedTokenConfig signedTokens) {
+    this.signedTokens = signedTokens;
+  }
+
+  public TokenFilterConfig getTokenFilter() {
+    return tokenFilter;
+  }
+
+  public void setTokenFilter(TokenFilterConfig tokenFilter) {
+    this.tokenFilter = tokenFilter;
+  }
+
+  public WriteBehindConfig getWriteBehind() {
+    return writeBehind;
+  }
+
+  public void setWriteBehind(WriteBehindConfig writeBehind) {
+    this.writeBehind = writeBehind;
+  }
+
+  public ShardingConfig getSharding() {
+    return sharding;
+  }
+
+  public void setSharding(ShardingConfig sharding) {
+    this.sharding = sharding;
+  }
+
+  public InstrumentationConfig getInstrumentation() {
+    return instrumentation;
+  }
+
+  public void setInstrumentation(InstrumentationConfig instrumentation) {
+    this.instrumentation = instrumentation;
+  }
+
+  public H2ServerConfig getServer() {
+    return server;
+  }
+
+  public void setServer(H2ServerConfig server) {
+    this.server = server;
+  }
 }
@@ -0,0 +1,44 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class CacheConfig {
+
+  private boolean enabled = false;
+  @Min(1)
+  private long maximumSize = 10000;
+  @Min(1)
+  private long ttlSeconds = 300;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @JsonProperty
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  @JsonProperty
+  public void setMaximumSize(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  @JsonProperty
+  public long getTtlSeconds() {
+    return ttlSeconds;
+  }
+
+  @JsonProperty
+  public void setTtlSeconds(long ttlSeconds) {
+    this.ttlSeconds = ttlSeconds;
+  }
+}
@@ -0,0 +1,79 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ConnectionPoolConfig {
+
+  @Min(1)
+  private int maxSize = 16;
+  @Min(0)
+  private int minIdle = 2;
+  @Min(0)
+  private long checkoutTimeoutMillis = 5000;
+  private String validationQuery = "SELECT 1";
+  private boolean testOnBorrow = true;
+  @Min(0)
+  private long validationIntervalMillis = 30000;
+
+  @JsonProperty
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  @JsonProperty
+  public void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  @JsonProperty
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  @JsonProperty
+  public void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  @JsonProperty
+  public long getCheckoutTimeoutMillis() {
+    return checkoutTimeoutMillis;
+  }
+
+  @JsonProperty
+  public void setCheckoutTimeoutMillis(long checkoutTimeoutMillis) {
+    this.checkoutTimeoutMillis = checkoutTimeoutMillis;
+  }
+
+  @JsonProperty
+  public String getValidationQuery() {
+    return validationQuery;
+  }
+
+  @JsonProperty
+  public void setValidationQuery(String validationQuery) {
+    this.validationQuery = validationQuery;
+  }
+
+  @JsonProperty
+  public boolean isTestOnBorrow() {
+    return testOnBorrow;
+  }
+
+  @JsonProperty
+  public void setTestOnBorrow(boolean testOnBorrow) {
+    this.testOnBorrow = testOnBorrow;
+  }
+
+  @JsonProperty
+  public long getValidationIntervalMillis() {
+    return validationIntervalMillis;
+  }
+
+  @JsonProperty
+  public void setValidationIntervalMillis(long validationIntervalMillis) {
+    this.validationIntervalMillis = validationIntervalMillis;
+  }
+}
@@ -0,0 +1,58 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class H2ServerConfig {
+
+  private boolean enabled = false;
+  @Min(1)
+  @Max(65535)
+  private int port = 9092;
+  @NotNull
+  private String baseDir = "/var/lib/livefinder";
+  private boolean allowOthers = false;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @JsonProperty
+  public int getPort() {
+    return port;
+  }
+
+  @JsonProperty
+  public void setPort(int port) {
+    this.port = port;
+  }
+
+  @JsonProperty
+  public String getBaseDir() {
+    return baseDir;
+  }
+
+  @JsonProperty
+  public void setBaseDir(String baseDir) {
+    this.baseDir = baseDir;
+  }
+
+  @JsonProperty
+  public boolean isAllowOthers() {
+    return allowOthers;
+  }
+
+  @JsonProperty
+  public void setAllowOthers(boolean allowOthers) {
+    this.allowOthers = allowOthers;
+  }
+}
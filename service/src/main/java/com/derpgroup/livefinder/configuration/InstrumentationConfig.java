@@ -0,0 +1,32 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class InstrumentationConfig {
+
+  private boolean enabled = true;
+  @Min(0)
+  private long slowCallThresholdMillis = 100;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @JsonProperty
+  public long getSlowCallThresholdMillis() {
+    return slowCallThresholdMillis;
+  }
+
+  @JsonProperty
+  public void setSlowCallThresholdMillis(long slowCallThresholdMillis) {
+    this.slowCallThresholdMillis = slowCallThresholdMillis;
+  }
+}
@@ -1,5 +1,6 @@
 package com.derpgroup.livefinder.configuration;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -14,6 +15,9 @@ public class LiveFinderConfig {
   private TwitchAccountLinkingConfig twitchAccountLinkingConfig;
   @NotNull
   private String apiKey;
+  @Valid
+  @NotNull
+  private SteamApiConfig steamApi = new SteamApiConfig();
 
   @JsonProperty
   public String getApiKey() {
@@ -57,4 +61,14 @@ public class LiveFinderConfig {
       TwitchAccountLinkingConfig twitchAccountLinkingConfig) {
     this.twitchAccountLinkingConfig = twitchAccountLinkingConfig;
   }
+
+  @JsonProperty
+  public SteamApiConfig getSteamApi() {
+    return steamApi;
+  }
+
+  @JsonProperty
+  public void setSteamApi(SteamApiConfig steamApi) {
+    this.steamApi = steamApi;
+  }
 }
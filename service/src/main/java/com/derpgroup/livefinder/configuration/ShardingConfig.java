@@ -0,0 +1,58 @@
+package com.derpgroup.livefinder.configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ShardingConfig {
+
+  /**
+   * Connection properties for each shard: url, user, password and an optional name. A shard's name places it on
+   * the hash ring, so it must stay the same for as long as the shard holds data; it defaults to "shard" plus the
+   * shard's position in this list.
+   */
+  @NotNull
+  private List<Map<String,Object>> shards = new ArrayList<Map<String,Object>>();
+  @Min(1)
+  private int virtualNodesPerShard = 160;
+  /**
+   * Bounds the in-memory cache of confirmed external link index entries; the index itself is stored on the shards.
+   */
+  @Min(1)
+  private long indexMaximumSize = 1000000;
+
+  @JsonProperty
+  public List<Map<String, Object>> getShards() {
+    return shards;
+  }
+
+  @JsonProperty
+  public void setShards(List<Map<String, Object>> shards) {
+    this.shards = shards;
+  }
+
+  @JsonProperty
+  public int getVirtualNodesPerShard() {
+    return virtualNodesPerShard;
+  }
+
+  @JsonProperty
+  public void setVirtualNodesPerShard(int virtualNodesPerShard) {
+    this.virtualNodesPerShard = virtualNodesPerShard;
+  }
+
+  @JsonProperty
+  public long getIndexMaximumSize() {
+    return indexMaximumSize;
+  }
+
+  @JsonProperty
+  public void setIndexMaximumSize(long indexMaximumSize) {
+    this.indexMaximumSize = indexMaximumSize;
+  }
+}
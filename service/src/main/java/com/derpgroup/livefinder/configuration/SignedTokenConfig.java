@@ -0,0 +1,43 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class SignedTokenConfig {
+
+  private boolean enabled = false;
+  private String secret;
+  @Min(1)
+  private long revocationRefreshSeconds = 60;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @JsonProperty
+  public String getSecret() {
+    return secret;
+  }
+
+  @JsonProperty
+  public void setSecret(String secret) {
+    this.secret = secret;
+  }
+
+  @JsonProperty
+  public long getRevocationRefreshSeconds() {
+    return revocationRefreshSeconds;
+  }
+
+  @JsonProperty
+  public void setRevocationRefreshSeconds(long revocationRefreshSeconds) {
+    this.revocationRefreshSeconds = revocationRefreshSeconds;
+  }
+}
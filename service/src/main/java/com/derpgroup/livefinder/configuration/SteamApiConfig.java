@@ -0,0 +1,99 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class SteamApiConfig {
+
+  @Min(1)
+  private long presenceTtlSeconds = 30;
+  @Min(1)
+  private long presenceCacheMaximumSize = 100000;
+  @Min(1)
+  private long friendListTtlSeconds = 3600;
+  @Min(1)
+  private long friendListCacheMaximumSize = 10000;
+  /**
+   * Threads fetching 100-id chunks of large friend lists; the calling thread always fetches the first chunk itself.
+   */
+  @Min(1)
+  private int playerSummaryThreads = 8;
+  @Min(1)
+  private int playerSummaryQueueCapacity = 100;
+  @Valid
+  @NotNull
+  private SteamRateLimitConfig rateLimit = new SteamRateLimitConfig();
+
+  @JsonProperty
+  public long getPresenceTtlSeconds() {
+    return presenceTtlSeconds;
+  }
+
+  @JsonProperty
+  public void setPresenceTtlSeconds(long presenceTtlSeconds) {
+    this.presenceTtlSeconds = presenceTtlSeconds;
+  }
+
+  @JsonProperty
+  public long getPresenceCacheMaximumSize() {
+    return presenceCacheMaximumSize;
+  }
+
+  @JsonProperty
+  public void setPresenceCacheMaximumSize(long presenceCacheMaximumSize) {
+    this.presenceCacheMaximumSize = presenceCacheMaximumSize;
+  }
+
+  @JsonProperty
+  public long getFriendListTtlSeconds() {
+    return friendListTtlSeconds;
+  }
+
+  @JsonProperty
+  public void setFriendListTtlSeconds(long friendListTtlSeconds) {
+    this.friendListTtlSeconds = friendListTtlSeconds;
+  }
+
+  @JsonProperty
+  public long getFriendListCacheMaximumSize() {
+    return friendListCacheMaximumSize;
+  }
+
+  @JsonProperty
+  public void setFriendListCacheMaximumSize(long friendListCacheMaximumSize) {
+    this.friendListCacheMaximumSize = friendListCacheMaximumSize;
+  }
+
+  @JsonProperty
+  public int getPlayerSummaryThreads() {
+    return playerSummaryThreads;
+  }
+
+  @JsonProperty
+  public void setPlayerSummaryThreads(int playerSummaryThreads) {
+    this.playerSummaryThreads = playerSummaryThreads;
+  }
+
+  @JsonProperty
+  public int getPlayerSummaryQueueCapacity() {
+    return playerSummaryQueueCapacity;
+  }
+
+  @JsonProperty
+  public void setPlayerSummaryQueueCapacity(int playerSummaryQueueCapacity) {
+    this.playerSummaryQueueCapacity = playerSummaryQueueCapacity;
+  }
+
+  @JsonProperty
+  public SteamRateLimitConfig getRateLimit() {
+    return rateLimit;
+  }
+
+  @JsonProperty
+  public void setRateLimit(SteamRateLimitConfig rateLimit) {
+    this.rateLimit = rateLimit;
+  }
+}
@@ -0,0 +1,144 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class SteamRateLimitConfig {
+
+  private boolean enabled = true;
+  /**
+   * Sustained rate for the whole API key. Steam allows 100,000 calls a day per key, about 69 a minute, so keep
+   * this below that across every node sharing the key.
+   */
+  @Min(1)
+  private int requestsPerMinute = 60;
+  @Min(1)
+  private int burstCapacity = 30;
+  /**
+   * Tokens only interactive requests may spend; background work waits while the bucket is at or below this.
+   */
+  @Min(0)
+  private int interactiveReserve = 10;
+  @Min(0)
+  private long interactiveMaxWaitMillis = 2000;
+  @Min(0)
+  private long backgroundMaxWaitMillis = 30000;
+  @Min(1)
+  private long initialBackoffMillis = 1000;
+  @Min(1)
+  private long maxBackoffMillis = 60000;
+  /**
+   * Calls this node may make per UTC day. Steam's 100,000 a day is for the whole key, so when several nodes share
+   * the key give each its share.
+   */
+  @Min(1)
+  private long dailyQuota = 100000;
+  /**
+   * The health check fails once this share of the daily quota is used.
+   */
+  @Min(1)
+  @Max(100)
+  private int dailyQuotaUnhealthyPercent = 90;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @JsonProperty
+  public int getRequestsPerMinute() {
+    return requestsPerMinute;
+  }
+
+  @JsonProperty
+  public void setRequestsPerMinute(int requestsPerMinute) {
+    this.requestsPerMinute = requestsPerMinute;
+  }
+
+  @JsonProperty
+  public int getBurstCapacity() {
+    return burstCapacity;
+  }
+
+  @JsonProperty
+  public void setBurstCapacity(int burstCapacity) {
+    this.burstCapacity = burstCapacity;
+  }
+
+  @JsonProperty
+  public int getInteractiveReserve() {
+    return interactiveReserve;
+  }
+
+  @JsonProperty
+  public void setInteractiveReserve(int interactiveReserve) {
+    this.interactiveReserve = interactiveReserve;
+  }
+
+  @JsonProperty
+  public long getInteractiveMaxWaitMillis() {
+    return interactiveMaxWaitMillis;
+  }
+
+  @JsonProperty
+  public void setInteractiveMaxWaitMillis(long interactiveMaxWaitMillis) {
+    this.interactiveMaxWaitMillis = interactiveMaxWaitMillis;
+  }
+
+  @JsonProperty
+  public long getBackgroundMaxWaitMillis() {
+    return backgroundMaxWaitMillis;
+  }
+
+  @JsonProperty
+  public void setBackgroundMaxWaitMillis(long backgroundMaxWaitMillis) {
+    this.backgroundMaxWaitMillis = backgroundMaxWaitMillis;
+  }
+
+  @JsonProperty
+  public long getInitialBackoffMillis() {
+    return initialBackoffMillis;
+  }
+
+  @JsonProperty
+  public void setInitialBackoffMillis(long initialBackoffMillis) {
+    this.initialBackoffMillis = initialBackoffMillis;
+  }
+
+  @JsonProperty
+  public long getMaxBackoffMillis() {
+    return maxBackoffMillis;
+  }
+
+  @JsonProperty
+  public void setMaxBackoffMillis(long maxBackoffMillis) {
+    this.maxBackoffMillis = maxBackoffMillis;
+  }
+
+  @JsonProperty
+  public long getDailyQuota() {
+    return dailyQuota;
+  }
+
+  @JsonProperty
+  public void setDailyQuota(long dailyQuota) {
+    this.dailyQuota = dailyQuota;
+  }
+
+  @JsonProperty
+  public int getDailyQuotaUnhealthyPercent() {
+    return dailyQuotaUnhealthyPercent;
+  }
+
+  @JsonProperty
+  public void setDailyQuotaUnhealthyPercent(int dailyQuotaUnhealthyPercent) {
+    this.dailyQuotaUnhealthyPercent = dailyQuotaUnhealthyPercent;
+  }
+}
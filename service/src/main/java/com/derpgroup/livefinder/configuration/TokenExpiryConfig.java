@@ -0,0 +1,61 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class TokenExpiryConfig {
+
+  @Min(1)
+  private long mappingTokenTtlSeconds = 3600;
+  /**
+   * 0 disables auth token expiry. Alexa holds the token it was given at linking time and has no way to refresh
+   * it, so an expiring token silently unlinks the user; only set this when users are expected to relink.
+   */
+  @Min(0)
+  private long authTokenTtlSeconds = 0;
+  @Min(1)
+  private long sweepIntervalSeconds = 300;
+  @Min(1)
+  private int sweepBatchSize = 1000;
+
+  @JsonProperty
+  public long getMappingTokenTtlSeconds() {
+    return mappingTokenTtlSeconds;
+  }
+
+  @JsonProperty
+  public void setMappingTokenTtlSeconds(long mappingTokenTtlSeconds) {
+    this.mappingTokenTtlSeconds = mappingTokenTtlSeconds;
+  }
+
+  @JsonProperty
+  public long getAuthTokenTtlSeconds() {
+    return authTokenTtlSeconds;
+  }
+
+  @JsonProperty
+  public void setAuthTokenTtlSeconds(long authTokenTtlSeconds) {
+    this.authTokenTtlSeconds = authTokenTtlSeconds;
+  }
+
+  @JsonProperty
+  public long getSweepIntervalSeconds() {
+    return sweepIntervalSeconds;
+  }
+
+  @JsonProperty
+  public void setSweepIntervalSeconds(long sweepIntervalSeconds) {
+    this.sweepIntervalSeconds = sweepIntervalSeconds;
+  }
+
+  @JsonProperty
+  public int getSweepBatchSize() {
+    return sweepBatchSize;
+  }
+
+  @JsonProperty
+  public void setSweepBatchSize(int sweepBatchSize) {
+    this.sweepBatchSize = sweepBatchSize;
+  }
+}
@@ -0,0 +1,59 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class TokenFilterConfig {
+
+  private boolean enabled = false;
+  @Min(1)
+  private int expectedInsertions = 1000000;
+  @DecimalMin("0.0001")
+  @DecimalMax("0.5")
+  private double falsePositiveProbability = 0.01;
+  @Min(1)
+  private long rebuildIntervalSeconds = 3600;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @JsonProperty
+  public int getExpectedInsertions() {
+    return expectedInsertions;
+  }
+
+  @JsonProperty
+  public void setExpectedInsertions(int expectedInsertions) {
+    this.expectedInsertions = expectedInsertions;
+  }
+
+  @JsonProperty
+  public double getFalsePositiveProbability() {
+    return falsePositiveProbability;
+  }
+
+  @JsonProperty
+  public void setFalsePositiveProbability(double falsePositiveProbability) {
+    this.falsePositiveProbability = falsePositiveProbability;
+  }
+
+  @JsonProperty
+  public long getRebuildIntervalSeconds() {
+    return rebuildIntervalSeconds;
+  }
+
+  @JsonProperty
+  public void setRebuildIntervalSeconds(long rebuildIntervalSeconds) {
+    this.rebuildIntervalSeconds = rebuildIntervalSeconds;
+  }
+}
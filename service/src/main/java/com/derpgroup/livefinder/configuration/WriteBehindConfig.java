@@ -0,0 +1,57 @@
+package com.derpgroup.livefinder.configuration;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class WriteBehindConfig {
+
+  @Min(1)
+  private int queueCapacity = 10000;
+  @Min(1)
+  private int batchSize = 100;
+  @Min(1)
+  private long flushIntervalMillis = 200;
+  @Min(1)
+  private long knownLinksMaximumSize = 100000;
+
+  @JsonProperty
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  @JsonProperty
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  @JsonProperty
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  @JsonProperty
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  @JsonProperty
+  public long getFlushIntervalMillis() {
+    return flushIntervalMillis;
+  }
+
+  @JsonProperty
+  public void setFlushIntervalMillis(long flushIntervalMillis) {
+    this.flushIntervalMillis = flushIntervalMillis;
+  }
+
+  @JsonProperty
+  public long getKnownLinksMaximumSize() {
+    return knownLinksMaximumSize;
+  }
+
+  @JsonProperty
+  public void setKnownLinksMaximumSize(long knownLinksMaximumSize) {
+    this.knownLinksMaximumSize = knownLinksMaximumSize;
+  }
+}
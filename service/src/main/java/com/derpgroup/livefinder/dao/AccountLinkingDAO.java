@@ -1,6 +1,9 @@
 package com.derpgroup.livefinder.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
 import com.derpgroup.livefinder.model.accountlinking.UserAccount;
@@ -13,18 +16,103 @@ public interface AccountLinkingDAO {
   
   public String generateMappingTokenForUserId(String userId);
   
+  /**
+   * @return The token's user, or null if the token is unknown or older than the mapping token TTL
+   */
   public String getUserIdByMappingToken(String token);
   
   public void expireMappingToken(String token);
   
   public String generateAuthToken(String userId);
   
+  /**
+   * @return The token's user, or null if the token is unknown or older than the auth token TTL
+   */
   public String getUserIdByAuthToken(String token);
   
   public void expireGrantedToken(String token);
 
+  /**
+   * Deletes at most limit mapping tokens older than the configured mapping token TTL.
+   * 
+   * @return The number of tokens deleted, or -1 if the delete failed
+   */
+  public int purgeExpiredMappingTokens(int limit);
+
+  /**
+   * Deletes at most limit auth tokens older than the configured auth token TTL.
+   * 
+   * @return The number of tokens deleted, or -1 if the delete failed
+   */
+  public int purgeExpiredAuthTokens(int limit);
+
+  /**
+   * Streams every mapping token that has not yet expired, without holding them all in memory.
+   * 
+   * @return false if the scan failed part way through
+   */
+  public boolean forEachLiveMappingToken(Consumer<String> consumer);
+
+  /**
+   * Streams every stored auth token that has not yet expired, without holding them all in memory.
+   * 
+   * @return false if the scan failed part way through
+   */
+  public boolean forEachLiveAuthToken(Consumer<String> consumer);
+
+  /**
+   * @return The number of stored mapping tokens, expired or not, or -1 if they could not be counted
+   */
+  public long countMappingTokens();
+
+  /**
+   * @return The number of stored auth tokens, expired or not, or -1 if they could not be counted
+   */
+  public long countAuthTokens();
+
+  /**
+   * Resolves an auth token to its user, with that user's account links keyed by externalSystemName.
+   * 
+   * @return The user, with a non-null (possibly empty) link map, or null if the token is unknown or expired
+   */
+  public UserAccount loadUserContextByAuthToken(String token);
+
+  /**
+   * Loads a user with that user's account links keyed by externalSystemName.
+   * 
+   * @return The user, with a non-null (possibly empty) link map, or null if the user is unknown
+   */
+  public UserAccount loadUserContextByUserId(String userId);
+
+  /**
+   * Records that a self-describing auth token must no longer be accepted. The record only needs to outlive
+   * the token itself.
+   * 
+   * @return true if the revocation was stored
+   */
+  public boolean revokeAuthToken(String tokenId, long expiresAtMillis);
+
+  /**
+   * @return The ids of all revoked tokens that have not yet expired, or null if they could not be read
+   */
+  public Set<String> getRevokedAuthTokenIds();
+
+  /**
+   * Deletes at most limit revocations whose tokens have expired.
+   * 
+   * @return The number of revocations deleted, or -1 if the delete failed
+   */
+  public int purgeExpiredRevocations(int limit);
+
   public ExternalAccountLink createAccountLink(ExternalAccountLink link);
 
+  /**
+   * Creates or replaces several account links as a single unit of work.
+   * 
+   * @return The links as written, or null if none of them could be written
+   */
+  public List<ExternalAccountLink> createAccountLinks(Collection<ExternalAccountLink> links);
+
   public ExternalAccountLink getAccountLinkByUserIdAndExternalSystemName(String userId, String externalSystemName);
 
   public ExternalAccountLink getAccountLinkByExternalUserIdAndExternalSystemName(String externalUserId, String externalSystemName);
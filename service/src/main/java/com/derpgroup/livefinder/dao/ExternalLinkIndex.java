@@ -0,0 +1,25 @@
+package com.derpgroup.livefinder.dao;
+
+/**
+ * Persistent index from an external account to the user linked to it. ShardedAccountLinkingDAO keeps each entry
+ * on the shard the external account hashes to, so a lookup by external id reads one shard's index and then the
+ * owning user's shard, rather than asking every shard.
+ *
+ * Entries are hints that the owning shard must confirm: a user who relinks leaves the old entry behind, and a
+ * lookup that finds it unconfirmed just answers null. Lookups never delete entries, since an entry that looks
+ * stale may belong to a link still being written; ShardRebalancer removes the ones no link confirms.
+ */
+public interface ExternalLinkIndex {
+
+  /**
+   * @return The user last indexed for the external account, or null if there is none or it could not be read
+   */
+  public String getIndexedUserId(String externalUserId, String externalSystemName);
+
+  /**
+   * Records the user now linked to the external account, replacing any earlier entry.
+   *
+   * @return Whether the entry was written
+   */
+  public boolean indexExternalUserId(String externalUserId, String externalSystemName, String userId);
+}
@@ -0,0 +1,211 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.derpgroup.livefinder.configuration.WriteBehindConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Creates bookkeeping account links, such as a user's Alexa link, off the request thread.
+ *
+ * Submitted links go onto a bounded queue and a single background thread writes them in batches through
+ * createAccountLinks. Like the synchronous path it replaces, a link is only written if no link for that external
+ * id exists yet. A bounded set of links already known to be written, or already queued, lets repeat requests
+ * skip both the queue and the store. When the queue is full the link is dropped and forgotten, so a later
+ * request submits it again. Stopping flushes whatever is still queued.
+ */
+public class AccountLinkWriteBehindQueue implements Managed {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AccountLinkWriteBehindQueue.class);
+
+  private final AccountLinkingDAO dao;
+  private final BlockingQueue<ExternalAccountLink> queue;
+  private final int batchSize;
+  private final long flushIntervalMillis;
+  private final Cache<String, String> knownLinks;
+
+  private final Meter enqueued;
+  private final Meter skipped;
+  private final Meter dropped;
+  private final Meter written;
+  private final Meter failed;
+  private final Timer flushTimer;
+
+  private volatile boolean running;
+  private Thread flusher;
+
+  public AccountLinkWriteBehindQueue(AccountLinkingDAO dao, WriteBehindConfig config){
+    this(dao, config, new MetricRegistry());
+  }
+
+  public AccountLinkWriteBehindQueue(AccountLinkingDAO dao, WriteBehindConfig config, MetricRegistry metricRegistry){
+    this.dao = dao;
+    this.queue = new ArrayBlockingQueue<ExternalAccountLink>(config.getQueueCapacity());
+    this.batchSize = config.getBatchSize();
+    this.flushIntervalMillis = config.getFlushIntervalMillis();
+    this.knownLinks = CacheBuilder.newBuilder().maximumSize(config.getKnownLinksMaximumSize()).build();
+
+    enqueued = metricRegistry.meter(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "enqueued"));
+    skipped = metricRegistry.meter(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "skipped"));
+    dropped = metricRegistry.meter(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "dropped"));
+    written = metricRegistry.meter(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "written"));
+    failed = metricRegistry.meter(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "failed"));
+    flushTimer = metricRegistry.timer(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "flush"));
+    metricRegistry.register(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "depth"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return queue.size();
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    running = true;
+    flusher = new Thread(this::flushContinuously, "account-link-write-behind");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * Lets the flusher finish its current batch rather than interrupting it, since an interrupt can close an H2
+   * file store's channel mid-write, then drains the rest of the queue on the calling thread.
+   */
+  @Override
+  public void stop() throws Exception {
+    running = false;
+    if(flusher != null){
+      flusher.join(flushIntervalMillis + TimeUnit.SECONDS.toMillis(10));
+    }
+    int remaining = flush();
+    if(remaining > 0){
+      LOG.info("Flushed " + remaining + " queued account links on shutdown.");
+    }
+  }
+
+  /**
+   * Queues the link unless it is already known to be written or queued.
+   *
+   * @return false if the queue was full and the link was dropped
+   */
+  public boolean submit(ExternalAccountLink link){
+    String key = key(link.getExternalSystemName(), link.getExternalUserId());
+    if(link.getUserId().equals(knownLinks.getIfPresent(key))){
+      skipped.mark();
+      return true;
+    }
+    knownLinks.put(key, link.getUserId());
+    if(!queue.offer(link)){
+      knownLinks.invalidate(key);
+      dropped.mark();
+      LOG.warn("Account link write-behind queue is full; dropped the " + link.getExternalSystemName() + " link for user '" + link.getUserId() + "'.");
+      return false;
+    }
+    enqueued.mark();
+    return true;
+  }
+
+  /**
+   * Writes everything queued so far in batches of at most batchSize.
+   *
+   * @return The number of links taken off the queue
+   */
+  public int flush(){
+    int total = 0;
+    List<ExternalAccountLink> batch = new ArrayList<ExternalAccountLink>(batchSize);
+    while(queue.drainTo(batch, batchSize) > 0){
+      total += batch.size();
+      writeSafely(batch);
+      batch.clear();
+    }
+    return total;
+  }
+
+  public int getQueueDepth(){
+    return queue.size();
+  }
+
+  private void flushContinuously(){
+    List<ExternalAccountLink> batch = new ArrayList<ExternalAccountLink>(batchSize);
+    while(running){
+      try{
+        ExternalAccountLink first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        if(first == null){
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        writeSafely(batch);
+        batch.clear();
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * A failed batch is forgotten rather than retried here, so the next request for each of its users queues the
+   * link again; an exception must not kill the flusher thread either.
+   */
+  private void writeSafely(List<ExternalAccountLink> batch){
+    Timer.Context context = flushTimer.time();
+    try{
+      write(batch);
+    }catch(RuntimeException e){
+      LOG.error("Could not write " + batch.size() + " queued account links.", e);
+      forget(batch);
+    }finally{
+      context.stop();
+    }
+  }
+
+  private void write(List<ExternalAccountLink> batch){
+    Map<String, ExternalAccountLink> missing = new LinkedHashMap<String, ExternalAccountLink>();
+    for(ExternalAccountLink link : batch){
+      String key = key(link.getExternalSystemName(), link.getExternalUserId());
+      if(!missing.containsKey(key)
+          && dao.getAccountLinkByExternalUserIdAndExternalSystemName(link.getExternalUserId(), link.getExternalSystemName()) == null){
+        missing.put(key, link);
+      }
+    }
+    if(missing.isEmpty()){
+      return;
+    }
+    List<ExternalAccountLink> links = new ArrayList<ExternalAccountLink>(missing.values());
+    if(dao.createAccountLinks(links) == null){
+      failed.mark(links.size());
+      forget(links);
+      return;
+    }
+    written.mark(links.size());
+  }
+
+  private void forget(List<ExternalAccountLink> links){
+    for(ExternalAccountLink link : links){
+      knownLinks.invalidate(key(link.getExternalSystemName(), link.getExternalUserId()));
+    }
+  }
+
+  private static String key(String externalSystemName, String externalUserId){
+    return externalSystemName + ":" + externalUserId;
+  }
+}
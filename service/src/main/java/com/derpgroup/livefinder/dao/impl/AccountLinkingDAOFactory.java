@@ -1,15 +1,65 @@
 package com.derpgroup.livefinder.dao.impl;
 
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.codahale.metrics.MetricRegistry;
 import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
 import com.derpgroup.livefinder.dao.AccountLinkingDAO;
 
 public class AccountLinkingDAOFactory {
 
   public static AccountLinkingDAO getDAO(AccountLinkingDAOConfig config){
+    return getDAO(config, new MetricRegistry());
+  }
+
+  public static AccountLinkingDAO getDAO(AccountLinkingDAOConfig config, MetricRegistry metricRegistry){
+    return getDAO(config, metricRegistry, null);
+  }
+
+  /**
+   * Builds the configured store wrapped in its enabled decorators, innermost first: token filter, cache, signed
+   * tokens. Decorators with background work are registered with the lifecycle when one is given. With
+   * instrumentation enabled, both the bare store and the whole stack are timed.
+   *
+   * A configured H2 TCP server is started first, so the store can connect to it.
+   */
+  public static AccountLinkingDAO getDAO(AccountLinkingDAOConfig config, MetricRegistry metricRegistry, LifecycleEnvironment lifecycle){
+    if(config.getServer() != null && config.getServer().isEnabled()){
+      H2TcpServer server = new H2TcpServer(config.getServer());
+      try{
+        server.start();
+      }catch(SQLException e){
+        throw new RuntimeException("Could not start the account linking database server.", e);
+      }
+      if(lifecycle != null){
+        lifecycle.manage(server);
+      }
+    }
+    if(config.getTokenFilter() != null && config.getTokenFilter().isEnabled() && isShared(config)){
+      throw new RuntimeException("The token filter can't see tokens issued by other nodes; disable it when nodes share an account store.");
+    }
+    
     AccountLinkingDAO dao = null;
     switch(config.getType().toUpperCase()){
     case "H2": 
-      dao = new H2EmbeddedAccountLinkingDAO(config);
+      H2EmbeddedAccountLinkingDAO h2DAO = new H2EmbeddedAccountLinkingDAO(config, metricRegistry);
+      if(lifecycle != null){
+        lifecycle.manage(h2DAO);
+      }
+      dao = h2DAO;
+      break;
+    case "SHARDED_H2":
+      ShardedAccountLinkingDAO shardedDAO = new ShardedAccountLinkingDAO(getH2Shards(config, metricRegistry), config.getSharding(), metricRegistry);
+      if(lifecycle != null){
+        lifecycle.manage(shardedDAO);
+      }
+      dao = shardedDAO;
       break;
     case "INMEMORY":
       dao = new InMemoryAccountLinkingDAO(config);
@@ -17,6 +67,80 @@ public class AccountLinkingDAOFactory {
       default:
         throw new RuntimeException("Unsupported AccounTLinkingDAO type.");
     }
+    boolean instrumented = config.getInstrumentation() != null && config.getInstrumentation().isEnabled();
+    if(instrumented){
+      dao = new InstrumentedAccountLinkingDAO(dao, "store", config.getInstrumentation(), metricRegistry);
+    }
+
+    if(config.getTokenFilter() != null && config.getTokenFilter().isEnabled()){
+      TokenFilterAccountLinkingDAO tokenFilterDAO = new TokenFilterAccountLinkingDAO(dao, config.getTokenFilter(), metricRegistry);
+      if(lifecycle != null){
+        lifecycle.manage(tokenFilterDAO);
+      }else{
+        tokenFilterDAO.rebuild();
+      }
+      dao = tokenFilterDAO;
+    }
+    if(config.getCache() != null && config.getCache().isEnabled()){
+      dao = new CachingAccountLinkingDAO(dao, config.getCache(), metricRegistry);
+    }
+    if(config.getSignedTokens() != null && config.getSignedTokens().isEnabled()){
+      SignedTokenAccountLinkingDAO signedTokenDAO = new SignedTokenAccountLinkingDAO(dao, config.getSignedTokens(), config.getTokenExpiry(), metricRegistry);
+      if(lifecycle != null){
+        lifecycle.manage(signedTokenDAO);
+      }
+      dao = signedTokenDAO;
+    }
+    if(instrumented){
+      dao = new InstrumentedAccountLinkingDAO(dao, "total", config.getInstrumentation(), metricRegistry);
+    }
     return dao;
   }
+
+  /**
+   * @return Whether the configured H2 store, or any shard, is reachable by other nodes
+   */
+  public static boolean isShared(AccountLinkingDAOConfig config){
+    List<Map<String,Object>> stores = new ArrayList<Map<String,Object>>();
+    if(config.getProperties() != null){
+      stores.add(config.getProperties());
+    }
+    if(config.getSharding() != null && config.getSharding().getShards() != null){
+      stores.addAll(config.getSharding().getShards());
+    }
+    for(Map<String,Object> properties : stores){
+      if(properties.get("url") != null && H2EmbeddedAccountLinkingDAO.isSharedUrl(String.valueOf(properties.get("url")))){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Opens one H2 store per configured shard, each with the shared pool, cache and expiry settings.
+   *
+   * @return The shards keyed by name, in configured order
+   */
+  public static Map<String, H2EmbeddedAccountLinkingDAO> getH2Shards(AccountLinkingDAOConfig config, MetricRegistry metricRegistry){
+    List<Map<String,Object>> shardProperties = config.getSharding().getShards();
+    if(shardProperties == null || shardProperties.isEmpty()){
+      throw new RuntimeException("Could not initialize sharded DAO due to missing shard configuration.");
+    }
+    Map<String, H2EmbeddedAccountLinkingDAO> shards = new LinkedHashMap<String, H2EmbeddedAccountLinkingDAO>();
+    for(int i = 0; i < shardProperties.size(); i++){
+      Map<String,Object> properties = shardProperties.get(i);
+      String shardName = properties.get("name") == null ? "shard" + i : String.valueOf(properties.get("name"));
+      if(shards.containsKey(shardName)){
+        throw new RuntimeException("Duplicate shard name '" + shardName + "'.");
+      }
+      AccountLinkingDAOConfig shardConfig = new AccountLinkingDAOConfig();
+      shardConfig.setType("H2");
+      shardConfig.setProperties(properties);
+      shardConfig.setCacheSizeKb(config.getCacheSizeKb());
+      shardConfig.setPool(config.getPool());
+      shardConfig.setTokenExpiry(config.getTokenExpiry());
+      shards.put(shardName, new H2EmbeddedAccountLinkingDAO(shardConfig, metricRegistry, shardName));
+    }
+    return shards;
+  }
 }
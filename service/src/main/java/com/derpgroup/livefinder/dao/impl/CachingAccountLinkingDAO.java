@@ -0,0 +1,487 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.CacheConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+
+/**
+ * Read-through cache in front of any AccountLinkingDAO.
+ *
+ * Token, user and link lookups are served from size- and TTL-bounded caches; every write made through this
+ * DAO invalidates the entries it affects. Writes made to the backing store by anything else (another node,
+ * a manual fix) are only picked up once the TTL expires. Nulls are never cached, so a miss always reaches
+ * the delegate. Returned objects are copies, so callers may mutate them freely.
+ *
+ * A read-through that started before a write made through this DAO never caches what it read: writes stamp the
+ * keys they touch with a write sequence before and after the delegate call, and a read only caches a value when
+ * none of its keys were stamped after it began (re-checking once the entry is in, in case a write slipped
+ * between the check and the put).
+ *
+ * Token entries are not aware of token TTLs, so a token that expires while cached keeps resolving for up to the
+ * cache TTL; keep the cache TTL well below the token TTLs.
+ */
+public class CachingAccountLinkingDAO implements AccountLinkingDAO {
+
+  private final AccountLinkingDAO delegate;
+
+  private final Cache<String, String> userIdsByAuthToken;
+  private final Cache<String, String> userIdsByMappingToken;
+  private final Cache<String, UserAccount> usersByUserId;
+  private final Cache<String, List<ExternalAccountLink>> linksByUserId;
+  private final Cache<String, ExternalAccountLink> linksByExternalUserId;
+  private final Cache<String, String> externalUserIdKeysByUserIdAndSystem;
+
+  private final AtomicLong writeSequence = new AtomicLong();
+  private final Cache<String, Long> lastWritesByKey;
+
+  public CachingAccountLinkingDAO(AccountLinkingDAO delegate, CacheConfig config){
+    this(delegate, config, new MetricRegistry());
+  }
+
+  public CachingAccountLinkingDAO(AccountLinkingDAO delegate, CacheConfig config, MetricRegistry metricRegistry){
+    this.delegate = delegate;
+
+    userIdsByAuthToken = buildCache(config, metricRegistry, "authTokens");
+    userIdsByMappingToken = buildCache(config, metricRegistry, "mappingTokens");
+    usersByUserId = buildCache(config, metricRegistry, "users");
+    linksByUserId = buildCache(config, metricRegistry, "linksByUserId");
+    linksByExternalUserId = buildCache(config, metricRegistry, "linksByExternalUserId");
+
+    // Reverse index for linksByExternalUserId; when an entry leaves for any reason but an explicit invalidation,
+    // the link it points at goes with it, so a cached link can always be found again from its user and system.
+    externalUserIdKeysByUserIdAndSystem = CacheBuilder.newBuilder()
+        .maximumSize(config.getMaximumSize())
+        .expireAfterWrite(config.getTtlSeconds(), TimeUnit.SECONDS)
+        .<String, String> removalListener(notification -> {
+          if(notification.getCause() != RemovalCause.EXPLICIT){
+            linksByExternalUserId.invalidate(notification.getValue());
+          }
+        })
+        .build();
+
+    // Kept as long as the entries they guard, so no read can outlive the stamp of a write it raced
+    lastWritesByKey = CacheBuilder.newBuilder()
+        .maximumSize(config.getMaximumSize())
+        .expireAfterWrite(config.getTtlSeconds(), TimeUnit.SECONDS)
+        .build();
+  }
+
+  private static <K, V> Cache<K, V> buildCache(CacheConfig config, MetricRegistry metricRegistry, String name){
+    final Cache<K, V> cache = CacheBuilder.newBuilder()
+        .maximumSize(config.getMaximumSize())
+        .expireAfterWrite(config.getTtlSeconds(), TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+
+    metricRegistry.register(MetricRegistry.name(CachingAccountLinkingDAO.class, name, "hits"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return cache.stats().hitCount();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(CachingAccountLinkingDAO.class, name, "misses"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return cache.stats().missCount();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(CachingAccountLinkingDAO.class, name, "evictions"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return cache.stats().evictionCount();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(CachingAccountLinkingDAO.class, name, "size"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return cache.size();
+      }
+    });
+    return cache;
+  }
+
+  public AccountLinkingDAO getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public UserAccount getUserByUserId(String userId) {
+    UserAccount user = usersByUserId.getIfPresent(userId);
+    if(user == null){
+      long readSequence = writeSequence.get();
+      user = delegate.getUserByUserId(userId);
+      if(user == null){
+        return null;
+      }
+      putUnlessWritten(usersByUserId, userKey(userId), userId, new UserAccount(user), readSequence);
+    }
+    return new UserAccount(user);
+  }
+
+  @Override
+  public UserAccount updateUser(UserAccount user) {
+    String writeKey = userKey(user.getUserId());
+    stampWrite(writeKey);
+    UserAccount updatedUser = delegate.updateUser(user);
+    stampWrite(writeKey);
+    usersByUserId.invalidate(user.getUserId());
+    return updatedUser;
+  }
+
+  @Override
+  public String generateMappingTokenForUserId(String userId) {
+    String token = delegate.generateMappingTokenForUserId(userId);
+    if(token != null){
+      userIdsByMappingToken.put(token, userId);
+    }
+    return token;
+  }
+
+  @Override
+  public String getUserIdByMappingToken(String token) {
+    String userId = userIdsByMappingToken.getIfPresent(token);
+    if(userId == null){
+      long readSequence = writeSequence.get();
+      userId = delegate.getUserIdByMappingToken(token);
+      if(userId != null){
+        putUnlessWritten(userIdsByMappingToken, mappingTokenKey(token), token, userId, readSequence);
+      }
+    }
+    return userId;
+  }
+
+  @Override
+  public void expireMappingToken(String token) {
+    stampWrite(mappingTokenKey(token));
+    delegate.expireMappingToken(token);
+    stampWrite(mappingTokenKey(token));
+    userIdsByMappingToken.invalidate(token);
+  }
+
+  @Override
+  public String generateAuthToken(String userId) {
+    String token = delegate.generateAuthToken(userId);
+    if(token != null){
+      userIdsByAuthToken.put(token, userId);
+    }
+    return token;
+  }
+
+  @Override
+  public String getUserIdByAuthToken(String token) {
+    String userId = userIdsByAuthToken.getIfPresent(token);
+    if(userId == null){
+      long readSequence = writeSequence.get();
+      userId = delegate.getUserIdByAuthToken(token);
+      if(userId != null){
+        putUnlessWritten(userIdsByAuthToken, authTokenKey(token), token, userId, readSequence);
+      }
+    }
+    return userId;
+  }
+
+  @Override
+  public void expireGrantedToken(String token) {
+    stampWrite(authTokenKey(token));
+    delegate.expireGrantedToken(token);
+    stampWrite(authTokenKey(token));
+    userIdsByAuthToken.invalidate(token);
+  }
+
+  @Override
+  public int purgeExpiredMappingTokens(int limit) {
+    return delegate.purgeExpiredMappingTokens(limit);
+  }
+
+  @Override
+  public int purgeExpiredAuthTokens(int limit) {
+    return delegate.purgeExpiredAuthTokens(limit);
+  }
+
+  @Override
+  public boolean forEachLiveMappingToken(Consumer<String> consumer) {
+    return delegate.forEachLiveMappingToken(consumer);
+  }
+
+  @Override
+  public boolean forEachLiveAuthToken(Consumer<String> consumer) {
+    return delegate.forEachLiveAuthToken(consumer);
+  }
+
+  @Override
+  public long countMappingTokens() {
+    return delegate.countMappingTokens();
+  }
+
+  @Override
+  public long countAuthTokens() {
+    return delegate.countAuthTokens();
+  }
+
+  /**
+   * Assembled from the token, user and link caches when all three are warm; otherwise one delegate call
+   * repopulates all three.
+   */
+  @Override
+  public UserAccount loadUserContextByAuthToken(String token) {
+    String userId = userIdsByAuthToken.getIfPresent(token);
+    if(userId != null){
+      UserAccount context = getCachedUserContext(userId);
+      if(context != null){
+        return context;
+      }
+    }
+
+    long readSequence = writeSequence.get();
+    UserAccount context = delegate.loadUserContextByAuthToken(token);
+    if(context == null){
+      return null;
+    }
+    putUnlessWritten(userIdsByAuthToken, authTokenKey(token), token, context.getUserId(), readSequence);
+    cacheUserContext(context, readSequence);
+    return context;
+  }
+
+  @Override
+  public UserAccount loadUserContextByUserId(String userId) {
+    UserAccount context = getCachedUserContext(userId);
+    if(context != null){
+      return context;
+    }
+
+    long readSequence = writeSequence.get();
+    context = delegate.loadUserContextByUserId(userId);
+    if(context == null){
+      return null;
+    }
+    cacheUserContext(context, readSequence);
+    return context;
+  }
+
+  private UserAccount getCachedUserContext(String userId){
+    UserAccount user = usersByUserId.getIfPresent(userId);
+    List<ExternalAccountLink> links = linksByUserId.getIfPresent(userId);
+    if(user == null || links == null){
+      return null;
+    }
+    UserAccount context = new UserAccount(user);
+    Map<String, ExternalAccountLink> externalAccountLinks = new HashMap<String, ExternalAccountLink>();
+    for(ExternalAccountLink link : links){
+      externalAccountLinks.put(link.getExternalSystemName(), new ExternalAccountLink(link));
+    }
+    context.setExternalAccountLinks(externalAccountLinks);
+    return context;
+  }
+
+  private void cacheUserContext(UserAccount context, long readSequence){
+    String userId = context.getUserId();
+    UserAccount user = new UserAccount(context);
+    user.setExternalAccountLinks(null);
+    putUnlessWritten(usersByUserId, userKey(userId), userId, user, readSequence);
+    if(context.getExternalAccountLinks() != null){
+      putUnlessWritten(linksByUserId, linksKey(userId), userId, copyLinks(context.getExternalAccountLinks().values()), readSequence);
+    }
+  }
+
+  @Override
+  public boolean revokeAuthToken(String tokenId, long expiresAtMillis) {
+    return delegate.revokeAuthToken(tokenId, expiresAtMillis);
+  }
+
+  @Override
+  public Set<String> getRevokedAuthTokenIds() {
+    return delegate.getRevokedAuthTokenIds();
+  }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) {
+    return delegate.purgeExpiredRevocations(limit);
+  }
+
+  @Override
+  public ExternalAccountLink createAccountLink(ExternalAccountLink link) {
+    stampLinkWrite(link);
+    ExternalAccountLink createdLink = delegate.createAccountLink(link);
+    stampLinkWrite(link);
+    invalidateLinks(link);
+    return createdLink;
+  }
+
+  @Override
+  public List<ExternalAccountLink> createAccountLinks(Collection<ExternalAccountLink> links) {
+    for(ExternalAccountLink link : links){
+      stampLinkWrite(link);
+    }
+    List<ExternalAccountLink> createdLinks = delegate.createAccountLinks(links);
+    for(ExternalAccountLink link : links){
+      stampLinkWrite(link);
+      invalidateLinks(link);
+    }
+    return createdLinks;
+  }
+
+  /**
+   * A reverse lookup for the user's previous external id can't be named before the write, so its entry is guarded
+   * by the (userId, system) key the looked-up link resolves to.
+   */
+  private void stampLinkWrite(ExternalAccountLink link){
+    stampWrite(linksKey(link.getUserId()));
+    stampWrite(externalLinkKey(externalUserIdKey(link.getExternalUserId(), link.getExternalSystemName())));
+    stampWrite(externalLinkKey(userIdAndSystemKey(link.getUserId(), link.getExternalSystemName())));
+  }
+
+  /**
+   * Drops the user's link list, the reverse-lookup entry for the new external id, and any reverse-lookup entry
+   * still pointing at the user's previous link for the system, found through the (userId, system) index.
+   */
+  private void invalidateLinks(ExternalAccountLink link){
+    String userId = link.getUserId();
+    String externalSystemName = link.getExternalSystemName();
+    linksByUserId.invalidate(userId);
+    linksByExternalUserId.invalidate(externalUserIdKey(link.getExternalUserId(), externalSystemName));
+    String indexKey = userIdAndSystemKey(userId, externalSystemName);
+    String previousKey = externalUserIdKeysByUserIdAndSystem.getIfPresent(indexKey);
+    if(previousKey != null){
+      linksByExternalUserId.invalidate(previousKey);
+    }
+    externalUserIdKeysByUserIdAndSystem.invalidate(indexKey);
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByUserIdAndExternalSystemName(String userId, String externalSystemName) {
+    List<ExternalAccountLink> links = getAccountLinksByUserId(userId);
+    if(links == null){
+      return null;
+    }
+    for(ExternalAccountLink link : links){
+      if(externalSystemName.equals(link.getExternalSystemName())){
+        return link;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByExternalUserIdAndExternalSystemName(String externalUserId, String externalSystemName) {
+    String key = externalUserIdKey(externalUserId, externalSystemName);
+    ExternalAccountLink link = linksByExternalUserId.getIfPresent(key);
+    if(link == null){
+      long readSequence = writeSequence.get();
+      link = delegate.getAccountLinkByExternalUserIdAndExternalSystemName(externalUserId, externalSystemName);
+      if(link == null){
+        return null;
+      }
+      String indexKey = userIdAndSystemKey(link.getUserId(), link.getExternalSystemName());
+      if(!writtenSince(readSequence, externalLinkKey(key), externalLinkKey(indexKey))){
+        externalUserIdKeysByUserIdAndSystem.put(indexKey, key);
+        linksByExternalUserId.put(key, new ExternalAccountLink(link));
+        if(writtenSince(readSequence, externalLinkKey(key), externalLinkKey(indexKey))){
+          linksByExternalUserId.invalidate(key);
+        }
+      }
+    }
+    return new ExternalAccountLink(link);
+  }
+
+  /**
+   * The delegate answers null both for a user without links and when it couldn't read them, so nulls are not
+   * cached here either; only link lists the delegate actually returned are.
+   */
+  @Override
+  public List<ExternalAccountLink> getAccountLinksByUserId(String userId) {
+    List<ExternalAccountLink> links = linksByUserId.getIfPresent(userId);
+    if(links == null){
+      long readSequence = writeSequence.get();
+      List<ExternalAccountLink> delegateLinks = delegate.getAccountLinksByUserId(userId);
+      if(delegateLinks == null){
+        return null;
+      }
+      links = copyLinks(delegateLinks);
+      putUnlessWritten(linksByUserId, linksKey(userId), userId, links, readSequence);
+    }
+    if(links.isEmpty()){
+      return null;
+    }
+    return copyLinks(links);
+  }
+
+  private void stampWrite(String writeKey){
+    lastWritesByKey.put(writeKey, writeSequence.incrementAndGet());
+  }
+
+  private boolean writtenSince(long readSequence, String... writeKeys){
+    for(String writeKey : writeKeys){
+      Long lastWrite = lastWritesByKey.getIfPresent(writeKey);
+      if(lastWrite != null && lastWrite > readSequence){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Caches a value read from the delegate unless a write to its key was stamped after the read began.
+   */
+  private <V> void putUnlessWritten(Cache<String, V> cache, String writeKey, String key, V value, long readSequence){
+    if(writtenSince(readSequence, writeKey)){
+      return;
+    }
+    cache.put(key, value);
+    if(writtenSince(readSequence, writeKey)){
+      cache.invalidate(key);
+    }
+  }
+
+  private static String authTokenKey(String token){
+    return "authToken:" + token;
+  }
+
+  private static String mappingTokenKey(String token){
+    return "mappingToken:" + token;
+  }
+
+  private static String userKey(String userId){
+    return "user:" + userId;
+  }
+
+  private static String linksKey(String userId){
+    return "links:" + userId;
+  }
+
+  private static String externalLinkKey(String key){
+    return "externalLink:" + key;
+  }
+
+  private static String externalUserIdKey(String externalUserId, String externalSystemName){
+    return externalSystemName + ":" + externalUserId;
+  }
+
+  private static String userIdAndSystemKey(String userId, String externalSystemName){
+    return userId + ":" + externalSystemName;
+  }
+
+  private static List<ExternalAccountLink> copyLinks(Collection<ExternalAccountLink> links){
+    List<ExternalAccountLink> copies = new ArrayList<ExternalAccountLink>(links.size());
+    for(ExternalAccountLink link : links){
+      copies.add(new ExternalAccountLink(link));
+    }
+    return copies;
+  }
+
+}
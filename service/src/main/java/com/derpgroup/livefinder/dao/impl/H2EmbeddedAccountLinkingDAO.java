@@ -1,30 +1,145 @@
 package com.derpgroup.livefinder.dao.impl;
 
+import io.dropwizard.lifecycle.Managed;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-
-import javax.sql.rowset.CachedRowSet;
-import javax.sql.rowset.RowSetProvider;
-
-import org.h2.jdbcx.JdbcDataSource;
-
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.h2.Driver;
+import org.h2.api.ErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.ConnectionPoolConfig;
+import com.derpgroup.livefinder.configuration.TokenExpiryConfig;
 import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.dao.ExternalLinkIndex;
 import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
 import com.derpgroup.livefinder.model.accountlinking.UserAccount;
-
-public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO {
+import com.derpgroup.livefinder.util.Uuids;
+
+/**
+ * AccountLinkingDAO over an H2 database, embedded in memory or in a file, or served over TCP by H2TcpServer.
+ *
+ * The schema is brought up to date on construction by applying only the migrations not yet recorded in the
+ * database, so pointing at an existing file database is safe and costs a single version query at startup. On a
+ * database shared with other nodes, migrations are serialized across nodes by a lock row, so it needs a pool of
+ * at least two connections.
+ */
+public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO, ExternalLinkIndex, Managed {
+  
+  private static final Logger LOG = LoggerFactory.getLogger(H2EmbeddedAccountLinkingDAO.class);
+  
+  private static final String PRIVATE_MEMORY_URL = "jdbc:h2:mem:";
+  private static final String CACHE_SIZE_SETTING = ";CACHE_SIZE=";
+  private static final long SHARED_MIGRATION_WAIT_MILLIS = 60000;
+  
+  private static final RowMapper<UserAccount> USER_MAPPER = H2EmbeddedAccountLinkingDAO::buildUser;
+  private static final RowMapper<ExternalAccountLink> ACCOUNT_LINK_MAPPER = H2EmbeddedAccountLinkingDAO::buildAccountLink;
+  private static final ResultSetExtractor<UserAccount> USER_CONTEXT_EXTRACTOR = H2EmbeddedAccountLinkingDAO::buildUserContext;
   
-  private Connection conn;
-  private JdbcDataSource ds;
+  /**
+   * Schema history, oldest first. Never edit an entry that has shipped; append a new one instead.
+   *
+   * H2 commits every DDL statement as it runs, so a migration that fails partway can't be rolled back. Every
+   * statement must therefore be safe to run again (IF NOT EXISTS), so that the rerun on the next start skips
+   * whatever the failed attempt already applied.
+   */
+  protected static final List<SchemaMigration> MIGRATIONS = Arrays.asList(
+      new SchemaMigration(1, "Baseline account linking tables",
+          "CREATE TABLE IF NOT EXISTS User(id varchar(255) PRIMARY KEY NOT NULL,"
+              + "firstName varchar(255) NULL,"
+              + "dateCreated TIMESTAMP NOT NULL DEFAULT(NOW()));",
+          "CREATE TABLE IF NOT EXISTS AccountLink("
+              + "userId varchar(255) NOT NULL,"
+              + "externalUserId varchar(255) NULL,"
+              + "externalSystemName varchar(64) NOT NULL,"
+              + "externalSystemToken varchar(255) NULL,"
+              + "externalSystemRefreshToken varchar(255) NULL"
+              + ");",
+          "CREATE TABLE IF NOT EXISTS LinkingToken("
+              + "token UUID NOT NULL DEFAULT(RANDOM_UUID()),"
+              + "userId varchar(255) NOT NULL,"
+              + "dateCreated TIMESTAMP NOT NULL DEFAULT(NOW())"
+              + ");",
+          "CREATE TABLE IF NOT EXISTS Authorization("
+              + "token UUID NOT NULL DEFAULT(RANDOM_UUID()),"
+              + "userId varchar(255) NOT NULL,"
+              + "dateCreated TIMESTAMP NOT NULL DEFAULT(NOW())"
+              + ");"),
+      new SchemaMigration(2, "Keys and lookup indexes for tokens and account links",
+          //Older rows may hold several links per user and system; keep only the newest before adding the unique key
+          "DELETE FROM AccountLink a WHERE EXISTS(SELECT 1 FROM AccountLink b"
+              + " WHERE b.userId = a.userId AND b.externalSystemName = a.externalSystemName AND b._ROWID_ > a._ROWID_);",
+          "ALTER TABLE AccountLink ADD CONSTRAINT IF NOT EXISTS UK_AccountLink_userId_externalSystemName UNIQUE(userId, externalSystemName);",
+          "CREATE INDEX IF NOT EXISTS IX_AccountLink_externalSystemName_externalUserId ON AccountLink(externalSystemName, externalUserId);",
+          "ALTER TABLE LinkingToken ADD CONSTRAINT IF NOT EXISTS PK_LinkingToken PRIMARY KEY(token);",
+          "CREATE INDEX IF NOT EXISTS IX_LinkingToken_userId_dateCreated ON LinkingToken(userId, dateCreated);",
+          "ALTER TABLE Authorization ADD CONSTRAINT IF NOT EXISTS PK_Authorization PRIMARY KEY(token);",
+          "CREATE INDEX IF NOT EXISTS IX_Authorization_userId_dateCreated ON Authorization(userId, dateCreated);"),
+      new SchemaMigration(3, "Token age indexes for expiry sweeps",
+          "CREATE INDEX IF NOT EXISTS IX_LinkingToken_dateCreated ON LinkingToken(dateCreated);",
+          "CREATE INDEX IF NOT EXISTS IX_Authorization_dateCreated ON Authorization(dateCreated);"),
+      new SchemaMigration(4, "Revocation list for signed auth tokens",
+          "CREATE TABLE IF NOT EXISTS RevokedToken("
+              + "tokenId varchar(64) PRIMARY KEY NOT NULL,"
+              + "dateExpires TIMESTAMP NOT NULL,"
+              + "dateCreated TIMESTAMP NOT NULL DEFAULT(NOW())"
+              + ");",
+          "CREATE INDEX IF NOT EXISTS IX_RevokedToken_dateExpires ON RevokedToken(dateExpires);"),
+      new SchemaMigration(5, "External account index for sharded stores",
+          "CREATE TABLE IF NOT EXISTS ExternalLinkIndex("
+              + "externalSystemName varchar(64) NOT NULL,"
+              + "externalUserId varchar(255) NOT NULL,"
+              + "userId varchar(255) NOT NULL,"
+              + "PRIMARY KEY(externalSystemName, externalUserId)"
+              + ");")
+      );
+  
+  //Should externalSystemToken be a different table with a FK relationship to this one?
+  private static final String MERGE_ACCOUNT_LINK = "MERGE INTO AccountLink(userId, externalUserId, externalSystemName, externalSystemToken, externalSystemRefreshToken)"
+      + " KEY(userId, externalSystemName) VALUES(?,?,?,?,?)";
+  
+  private DataSource ds;
+  private Timer checkoutTimer;
+  private boolean privateMemoryDatabase = false;
+  private boolean sharedDatabase = false;
+  private long mappingTokenTtlMillis;
+  private long authTokenTtlMillis;
   
   public H2EmbeddedAccountLinkingDAO(AccountLinkingDAOConfig config){
+    this(config, new MetricRegistry());
+  }
+  
+  public H2EmbeddedAccountLinkingDAO(AccountLinkingDAOConfig config, MetricRegistry metricRegistry){
+    this(config, metricRegistry, null);
+  }
+  
+  /**
+   * @param shardName Distinguishes this database's metrics from other shards in the same registry; may be null
+   */
+  public H2EmbeddedAccountLinkingDAO(AccountLinkingDAOConfig config, MetricRegistry metricRegistry, String shardName){
     if(config == null || config.getProperties() == null){
       throw new RuntimeException("Could not initialize DAO due to missing configuration.");
     }
@@ -32,118 +147,324 @@ public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO {
     if(daoConfiguration.get("url") == null || daoConfiguration.get("user") == null || daoConfiguration.get("password") == null ){
       throw new RuntimeException("Could not initialize DAO due to missing property.");
     }
-    ds = new JdbcDataSource();
-    ds.setURL(String.valueOf(daoConfiguration.get("url")));
-    ds.setUser(String.valueOf(daoConfiguration.get("user")));
-    ds.setPassword(String.valueOf(daoConfiguration.get("password")));
+    
+    String url = String.valueOf(daoConfiguration.get("url"));
+    if(url.equals(PRIVATE_MEMORY_URL)){
+      //An unnamed in-memory database is private to a single connection, so give it a name the whole pool can share
+      url = PRIVATE_MEMORY_URL + UUID.randomUUID().toString() + ";DB_CLOSE_DELAY=-1";
+      privateMemoryDatabase = true;
+    }
+    sharedDatabase = isSharedUrl(url);
+    if(config.getCacheSizeKb() != null && !url.toUpperCase().contains(CACHE_SIZE_SETTING)){
+      url = url + CACHE_SIZE_SETTING + config.getCacheSizeKb();
+    }
+    LOG.info("Opening account linking database at '" + url + "'.");
+    
+    ConnectionPoolConfig poolConfig = config.getPool() == null ? new ConnectionPoolConfig() : config.getPool();
+    PoolProperties poolProperties = new PoolProperties();
+    poolProperties.setDriverClassName(Driver.class.getName());
+    poolProperties.setUrl(url);
+    poolProperties.setUsername(String.valueOf(daoConfiguration.get("user")));
+    poolProperties.setPassword(String.valueOf(daoConfiguration.get("password")));
+    poolProperties.setMaxActive(poolConfig.getMaxSize());
+    poolProperties.setMaxIdle(poolConfig.getMaxSize());
+    poolProperties.setMinIdle(Math.min(poolConfig.getMinIdle(), poolConfig.getMaxSize()));
+    poolProperties.setInitialSize(Math.min(poolConfig.getMinIdle(), poolConfig.getMaxSize()));
+    poolProperties.setMaxWait((int) Math.min(poolConfig.getCheckoutTimeoutMillis(), Integer.MAX_VALUE));
+    poolProperties.setValidationQuery(poolConfig.getValidationQuery());
+    poolProperties.setTestOnBorrow(poolConfig.isTestOnBorrow() && poolConfig.getValidationQuery() != null);
+    poolProperties.setValidationInterval(poolConfig.getValidationIntervalMillis());
+    poolProperties.setDefaultAutoCommit(true);
+    poolProperties.setRollbackOnReturn(true);
+    ds = new DataSource(poolProperties);
+    
+    TokenExpiryConfig tokenExpiryConfig = config.getTokenExpiry() == null ? new TokenExpiryConfig() : config.getTokenExpiry();
+    mappingTokenTtlMillis = TimeUnit.SECONDS.toMillis(tokenExpiryConfig.getMappingTokenTtlSeconds());
+    authTokenTtlMillis = TimeUnit.SECONDS.toMillis(tokenExpiryConfig.getAuthTokenTtlSeconds());
+    
+    registerMetrics(metricRegistry, shardName);
+    
     try {
       init();
     } catch (SQLException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+      //Never serve from a half-migrated schema; the failed migration is rerun on the next start
+      ds.close(true);
+      throw new RuntimeException("Could not initialize account linking database.", e);
     }
   }
   
+  protected void registerMetrics(MetricRegistry metricRegistry, String shardName){
+    checkoutTimer = metricRegistry.timer(MetricRegistry.name(H2EmbeddedAccountLinkingDAO.class, shardName, "pool", "checkout"));
+    metricRegistry.register(MetricRegistry.name(H2EmbeddedAccountLinkingDAO.class, shardName, "pool", "active"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return ds.getActive();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(H2EmbeddedAccountLinkingDAO.class, shardName, "pool", "idle"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return ds.getIdle();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(H2EmbeddedAccountLinkingDAO.class, shardName, "pool", "waiting"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return ds.getWaitCount();
+      }
+    });
+  }
+  
   protected void init() throws SQLException {
     try {
-      conn = ds.getConnection();
-      setupFixtureData();
+      migrateSchema();
     } catch (SQLException e) {
-      e.printStackTrace();
+      LOG.error("Could not migrate account linking schema.", e);
       throw e;
     }
   }
   
+  @Override
+  public void start() throws Exception {
+  }
+
+  /**
+   * Closes the pool so a file database is closed cleanly and the next start needs no recovery.
+   */
+  @Override
+  public void stop() throws Exception {
+    shutdown();
+  }
+  
   public void shutdown() throws SQLException{
     try {
-      conn.close();
+      if(privateMemoryDatabase && ds.getPool() != null){
+        try(Connection conn = getConnection();
+            Statement statement = conn.createStatement()){
+          statement.execute("SHUTDOWN");
+        }
+      }
     } catch (SQLException e) {
-      e.printStackTrace();
+      LOG.error("Could not shut down account linking database.", e);
       throw e;
+    } finally {
+      ds.close(true);
+    }
+  }
+  
+  /**
+   * Checks a connection out of the pool, blocking for at most the configured checkout timeout.
+   * Callers own the connection and must close it to return it to the pool.
+   */
+  protected Connection getConnection() throws SQLException{
+    Timer.Context checkout = checkoutTimer.time();
+    try {
+      return ds.getConnection();
+    } finally {
+      checkout.stop();
     }
   }
-  protected ResultSet executeStatement(String sql){
+  
+  protected boolean executeStatement(String sql){
     return executeStatement(sql, null);
   }
   
-  protected ResultSet executeStatement(String sql, ArrayList<? extends Object> parameters){
-
-    CachedRowSet crs = null;
-    
+  protected boolean executeStatement(String sql, List<? extends Object> parameters){
+    try(Connection conn = getConnection()){
+      return executeStatement(conn, sql, parameters);
+    }catch(SQLException e){
+      LOG.error("Could not execute statement '" + sql + "'.", e);
+    }
+    return false;
+  }
+  
+  protected boolean executeStatement(Connection conn, String sql, List<? extends Object> parameters){
+    try(PreparedStatement statement = prepStatement(conn.prepareStatement(sql), parameters)){
+      statement.execute();
+      return true;
+    }catch(SQLException e){
+      LOG.error("Could not execute statement '" + sql + "'.", e);
+    }
+    return false;
+  }
+  
+  /**
+   * @return The number of rows changed, or -1 if the statement failed
+   */
+  protected int executeUpdate(String sql, List<? extends Object> parameters){
     try(
-        PreparedStatement unpreparedStatement = conn.prepareStatement(sql);
-        PreparedStatement statement = prepStatement(unpreparedStatement, parameters);
-        ResultSet rs = statement.getResultSet();
+        Connection conn = getConnection();
+        PreparedStatement statement = prepStatement(conn.prepareStatement(sql), parameters);
         ){
-      boolean resultSetRows = statement.execute();
-      if(resultSetRows){
-        crs = RowSetProvider.newFactory().createCachedRowSet();
-        crs.populate(rs);
-        return crs;
+      return statement.executeUpdate();
+    }catch(SQLException e){
+      LOG.error("Could not execute update '" + sql + "'.", e);
+    }
+    return -1;
+  }
+  
+  /**
+   * Runs a query and maps each row while the statement is still open, so no intermediate copy of the result is made.
+   * 
+   * @return The mapped rows, or null if the query failed
+   */
+  protected <T> List<T> query(String sql, List<? extends Object> parameters, RowMapper<T> rowMapper){
+    try(
+        Connection conn = getConnection();
+        PreparedStatement statement = prepStatement(conn.prepareStatement(sql), parameters);
+        ResultSet rs = statement.executeQuery();
+        ){
+      List<T> results = new ArrayList<T>();
+      while(rs.next()){
+        results.add(rowMapper.mapRow(rs));
       }
+      return results;
     }catch(SQLException e){
-      e.printStackTrace();
+      LOG.error("Could not execute query '" + sql + "'.", e);
     }
     return null;
   }
   
-  protected ResultSet executeQuery(String sql){
-    return executeQuery(sql, null);
+  /**
+   * Runs a query and maps only its first row.
+   * 
+   * @return The mapped row, or null if the query failed or returned no rows
+   */
+  protected <T> T queryForObject(String sql, List<? extends Object> parameters, RowMapper<T> rowMapper){
+    try(
+        Connection conn = getConnection();
+        PreparedStatement statement = prepStatement(conn.prepareStatement(sql), parameters);
+        ){
+      statement.setMaxRows(1);
+      try(ResultSet rs = statement.executeQuery()){
+        if(!rs.next()){
+          return null;
+        }
+        return rowMapper.mapRow(rs);
+      }
+    }catch(SQLException e){
+      LOG.error("Could not execute query '" + sql + "'.", e);
+    }
+    return null;
   }
   
-  protected ResultSet executeQuery(String sql, ArrayList<? extends Object> parameters){
-
-    CachedRowSet crs = null;
-    
+  protected <T> T queryForResult(String sql, List<? extends Object> parameters, ResultSetExtractor<T> extractor){
     try(
-        PreparedStatement unpreparedStatement = conn.prepareStatement(sql);
-        PreparedStatement statement = prepStatement(unpreparedStatement, parameters);
+        Connection conn = getConnection();
+        PreparedStatement statement = prepStatement(conn.prepareStatement(sql), parameters);
         ResultSet rs = statement.executeQuery();
         ){
-      crs = RowSetProvider.newFactory().createCachedRowSet();
-      crs.populate(rs);
-      return crs;
+      return extractor.extract(rs);
     }catch(SQLException e){
-      e.printStackTrace();
+      LOG.error("Could not execute query '" + sql + "'.", e);
     }
     return null;
   }
   
-  protected void setupFixtureData() throws SQLException{
-    conn.setAutoCommit(false);
-    String userTableCreation = "CREATE TABLE User(id varchar(255) PRIMARY KEY NOT NULL,"
-        + "firstName varchar(255) NULL,"
-        + "dateCreated TIMESTAMP NOT NULL DEFAULT(NOW()));";
-    executeStatement(userTableCreation);
-    
-    String accountLinkTableCreation = "CREATE TABLE AccountLink("
-        + "userId varchar(255) NOT NULL,"
-        + "externalUserId varchar(255) NULL,"
-        + "externalSystemName varchar(64) NOT NULL,"
-        + "externalSystemToken varchar(255) NULL,"
-        + "externalSystemRefreshToken varchar(255) NULL"
-        + ");";
-    executeStatement(accountLinkTableCreation);
-    
-    String linkingTokenTableCreation = "CREATE TABLE LinkingToken("
-        + "token UUID NOT NULL DEFAULT(RANDOM_UUID()),"
-        + "userId varchar(255) NOT NULL,"
-        + "dateCreated TIMESTAMP NOT NULL DEFAULT(NOW())"
-        + ");";
-    executeStatement(linkingTokenTableCreation);
-    
-    String authorizationTableCreation = "CREATE TABLE Authorization("
-        + "token UUID NOT NULL DEFAULT(RANDOM_UUID()),"
-        + "userId varchar(255) NOT NULL,"
-        + "dateCreated TIMESTAMP NOT NULL DEFAULT(NOW())"
-        + ");";
-    executeStatement(authorizationTableCreation);
-    conn.commit();
-    conn.setAutoCommit(true);
+  /**
+   * Brings the schema up to the latest version, applying pending migrations in order and recording each one
+   * once all of its statements have succeeded. A migration that fails partway leaves the statements it already
+   * ran in place and is not recorded, so the next call reruns it from the start; see MIGRATIONS. Safe to call
+   * against a database that is already current.
+   */
+  protected void migrateSchema() throws SQLException{
+    try(Connection conn = getConnection()){
+      try(Statement statement = conn.createStatement()){
+        statement.execute("CREATE TABLE IF NOT EXISTS SchemaVersion("
+            + "version INT PRIMARY KEY NOT NULL,"
+            + "description varchar(255) NULL,"
+            + "dateApplied TIMESTAMP NOT NULL DEFAULT(NOW()));");
+      }
+      if(!sharedDatabase){
+        applyMigrations(conn);
+        return;
+      }
+      
+      //Nodes sharing the database may start together; the one holding the lock row migrates, the rest find it current
+      try(Connection lock = getConnection()){
+        lockMigrations(lock);
+        try{
+          applyMigrations(conn);
+        }finally{
+          lock.rollback();
+          lock.setAutoCommit(true);
+        }
+      }
+    }
+  }
+  
+  private void applyMigrations(Connection conn) throws SQLException{
+    int currentVersion = getSchemaVersion(conn);
+    for(SchemaMigration migration : MIGRATIONS){
+      if(migration.getVersion() <= currentVersion){
+        continue;
+      }
+      LOG.info("Applying account linking schema migration " + migration + ".");
+      try(Statement statement = conn.createStatement()){
+        for(String sql : migration.getStatements()){
+          statement.execute(sql);
+        }
+      }
+      try(PreparedStatement versionInsert = conn.prepareStatement("INSERT INTO SchemaVersion(version, description) VALUES(?,?);")){
+        versionInsert.setInt(1, migration.getVersion());
+        versionInsert.setString(2, migration.getDescription());
+        versionInsert.executeUpdate();
+      }
+    }
+  }
+  
+  /**
+   * Locks the SchemaLock row in an open transaction on the given connection, waiting up to
+   * SHARED_MIGRATION_WAIT_MILLIS for another node to finish. Rolling the connection back releases it.
+   */
+  private void lockMigrations(Connection lock) throws SQLException{
+    try(Statement statement = lock.createStatement()){
+      statement.execute("CREATE TABLE IF NOT EXISTS SchemaLock(id INT PRIMARY KEY NOT NULL, dateLocked TIMESTAMP NULL) AS SELECT 1, NULL;");
+    }
+    lock.setAutoCommit(false);
+    long deadline = System.currentTimeMillis() + SHARED_MIGRATION_WAIT_MILLIS;
+    while(true){
+      try(Statement statement = lock.createStatement()){
+        statement.executeUpdate("UPDATE SchemaLock SET dateLocked = NOW() WHERE id = 1;");
+        return;
+      }catch(SQLException e){
+        if(e.getErrorCode() != ErrorCode.LOCK_TIMEOUT_1 || System.currentTimeMillis() > deadline){
+          lock.rollback();
+          lock.setAutoCommit(true);
+          throw e;
+        }
+        LOG.info("Waiting for another node to finish migrating the account linking schema.");
+      }
+    }
+  }
+  
+  /**
+   * @return Whether the database at the URL can be opened by other processes, i.e. other nodes
+   */
+  public static boolean isSharedUrl(String url){
+    String normalized = url.toLowerCase();
+    return normalized.startsWith("jdbc:h2:tcp:") || normalized.startsWith("jdbc:h2:ssl:") || normalized.contains(";auto_server=true");
+  }
+  
+  protected int getSchemaVersion(Connection conn) throws SQLException{
+    try(Statement statement = conn.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM SchemaVersion;")){
+      rs.next();
+      return rs.getInt(1);
+    }
   }
   
-  protected Connection getConn(){
-    return conn;
+  public int getSchemaVersion(){
+    try(Connection conn = getConnection()){
+      return getSchemaVersion(conn);
+    }catch(SQLException e){
+      LOG.error("Could not read account linking schema version.", e);
+    }
+    return -1;
+  }
+  
+  protected DataSource getDataSource(){
+    return ds;
   }
 
   @Override
@@ -151,19 +472,7 @@ public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO {
     String userSelect = "SELECT id, firstName FROM User WHERE id = ?;";
     ArrayList<String> parameters = new ArrayList<String>();
     parameters.add(alexaUserId);
-    ResultSet response = executeQuery(userSelect, parameters);
-    
-    UserAccount user = new UserAccount();
-    try {
-      if(!response.first()){
-        return null;
-      }
-      user.setUserId(response.getString("id"));
-      user.setFirstName(response.getString("firstName"));
-    } catch (SQLException e) {
-      e.printStackTrace();
-    }
-    return user;
+    return queryForObject(userSelect, parameters, USER_MAPPER);
   }
 
   @Override
@@ -182,119 +491,225 @@ public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO {
 
   @Override
   public String generateMappingTokenForUserId(String userId) {
-
-    String linkingTokenCreate = "INSERT INTO LinkingToken(userId) VALUES(?);";
-
-    ArrayList<String> parameters = new ArrayList<String>();
-    parameters.add(userId);
-    executeStatement(linkingTokenCreate, parameters);
-
-    ResultSet response;
-    String linkingTokenRetrieve = "SELECT TOP 1 token FROM LinkingToken WHERE userId = ? ORDER BY dateCreated DESC";
-    try {
-
-      ArrayList<String> retrievalParameters = new ArrayList<String>();
-      retrievalParameters.add(userId);
-      response = executeQuery(linkingTokenRetrieve, retrievalParameters);
-      if(!response.next()){
-        return null;
-      }
-      return response.getString("token");
-    } catch (SQLException e) {
-      e.printStackTrace();
-    }
-    return null;
+    String linkingTokenCreate = "INSERT INTO LinkingToken(token, userId) VALUES(?,?);";
+    return insertToken(linkingTokenCreate, userId);
   }
 
   @Override
   public String getUserIdByMappingToken(String token) {
-
-    ResultSet response;
-    String linkingTokenRetrieve = "SELECT TOP 1 userId FROM LinkingToken WHERE token = ? ORDER BY dateCreated DESC";
-    try {
-      ArrayList<String> parameters = new ArrayList<String>();
-      parameters.add(token);
-      response = executeQuery(linkingTokenRetrieve, parameters);
-      if(response == null || !response.next()){
-        return null;
-      }
-      return response.getString("userId");
-    } catch (SQLException e) {
-      e.printStackTrace();
+    UUID key = Uuids.parse(token);
+    if(key == null){
+      return null;
     }
-    return null;
+    String linkingTokenRetrieve = "SELECT userId FROM LinkingToken WHERE token = ? AND dateCreated > ?";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(key);
+    parameters.add(expiryCutoff(mappingTokenTtlMillis));
+    return queryForObject(linkingTokenRetrieve, parameters, stringMapper("userId"));
   }
 
   @Override
   public void expireMappingToken(String token) {
+    UUID key = Uuids.parse(token);
+    if(key == null){
+      return;
+    }
     String linkingTokenDelete = "DELETE FROM LinkingToken WHERE token = ?;";
 
-//    try {
-      ArrayList<String> parameters = new ArrayList<String>();
-      parameters.add(token);
-      executeStatement(linkingTokenDelete, parameters);
-    /*} catch (SQLException e) {
-      e.printStackTrace();
-    }*/
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(key);
+    executeStatement(linkingTokenDelete, parameters);
   }
 
   @Override
   public String generateAuthToken(String userId) {
+    String accessTokenCreate = "INSERT INTO Authorization(token, userId) VALUES(?,?);";
+    return insertToken(accessTokenCreate, userId);
+  }
 
-    String accessTokenCreate = "INSERT INTO Authorization(userId) VALUES(?);";
+  @Override
+  public String getUserIdByAuthToken(String token) {
+    UUID key = Uuids.parse(token);
+    if(key == null){
+      return null;
+    }
+    String accessTokenRetrieve = "SELECT userId FROM Authorization WHERE token = ? AND dateCreated > ?";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(key);
+    parameters.add(expiryCutoff(authTokenTtlMillis));
+    return queryForObject(accessTokenRetrieve, parameters, stringMapper("userId"));
+  }
 
-//    try {
-      ArrayList<String> parameters = new ArrayList<String>();
-      parameters.add(userId);
-      executeStatement(accessTokenCreate, parameters);
-    /*} catch (SQLException e) {
-      e.printStackTrace();
+  @Override
+  public UserAccount loadUserContextByAuthToken(String token) {
+    UUID key = Uuids.parse(token);
+    if(key == null){
       return null;
-    }*/
+    }
+    String userContextRetrieve = "SELECT u.id, u.firstName,"
+        + " l.userId, l.externalUserId, l.externalSystemName, l.externalSystemToken, l.externalSystemRefreshToken"
+        + " FROM Authorization a"
+        + " JOIN User u ON u.id = a.userId"
+        + " LEFT JOIN AccountLink l ON l.userId = u.id"
+        + " WHERE a.token = ? AND a.dateCreated > ?";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(key);
+    parameters.add(expiryCutoff(authTokenTtlMillis));
+    return queryForResult(userContextRetrieve, parameters, USER_CONTEXT_EXTRACTOR);
+  }
 
-    ResultSet response;
-    String accessTokenRetrieve = "SELECT TOP 1 token FROM Authorization WHERE userId = ? ORDER BY dateCreated DESC";
-    try {
-      ArrayList<String> retrievalParameters = new ArrayList<String>();
-      retrievalParameters.add(userId);
-      response = executeQuery(accessTokenRetrieve, retrievalParameters);
-      response.first();
-      return response.getString("token");
-    } catch (SQLException e) {
-      e.printStackTrace();
+  @Override
+  public UserAccount loadUserContextByUserId(String userId) {
+    String userContextRetrieve = "SELECT u.id, u.firstName,"
+        + " l.userId, l.externalUserId, l.externalSystemName, l.externalSystemToken, l.externalSystemRefreshToken"
+        + " FROM User u"
+        + " LEFT JOIN AccountLink l ON l.userId = u.id"
+        + " WHERE u.id = ?";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(userId);
+    return queryForResult(userContextRetrieve, parameters, USER_CONTEXT_EXTRACTOR);
+  }
+
+  @Override
+  public boolean revokeAuthToken(String tokenId, long expiresAtMillis) {
+    String revokedTokenCreate = "MERGE INTO RevokedToken(tokenId, dateExpires) KEY(tokenId) VALUES(?,?);";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(tokenId);
+    parameters.add(new Timestamp(expiresAtMillis));
+    return executeStatement(revokedTokenCreate, parameters);
+  }
+
+  @Override
+  public Set<String> getRevokedAuthTokenIds() {
+    String revokedTokenRetrieve = "SELECT tokenId FROM RevokedToken WHERE dateExpires > ?";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(new Timestamp(System.currentTimeMillis()));
+    List<String> tokenIds = query(revokedTokenRetrieve, parameters, stringMapper("tokenId"));
+    return tokenIds == null ? null : new HashSet<String>(tokenIds);
+  }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) {
+    String expiredRevocationDelete = "DELETE FROM RevokedToken WHERE dateExpires <= ? LIMIT ?;";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(new Timestamp(System.currentTimeMillis()));
+    parameters.add(limit);
+    return executeUpdate(expiredRevocationDelete, parameters);
+  }
+
+  @Override
+  public void expireGrantedToken(String token) {
+    UUID key = Uuids.parse(token);
+    if(key == null){
+      return;
     }
-    return null;
+    String accessTokenDelete = "DELETE FROM Authorization WHERE token = ?;";
+
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(key);
+    executeStatement(accessTokenDelete, parameters);
+  }
+  
+  @Override
+  public int purgeExpiredMappingTokens(int limit) {
+    return purgeExpiredTokens("LinkingToken", mappingTokenTtlMillis, limit);
   }
 
   @Override
-  public String getUserIdByAuthToken(String token) {
+  public int purgeExpiredAuthTokens(int limit) {
+    return purgeExpiredTokens("Authorization", authTokenTtlMillis, limit);
+  }
+  
+  /**
+   * Deletes one bounded batch, oldest rows first by way of the dateCreated index, so each call holds its
+   * locks only briefly no matter how large the backlog is.
+   */
+  protected int purgeExpiredTokens(String table, long ttlMillis, int limit){
+    if(ttlMillis <= 0){
+      return 0;
+    }
+    String expiredTokenDelete = "DELETE FROM " + table + " WHERE dateCreated <= ? LIMIT ?;";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(expiryCutoff(ttlMillis));
+    parameters.add(limit);
+    return executeUpdate(expiredTokenDelete, parameters);
+  }
 
-    ResultSet response;
-    String accessTokenRetrieve = "SELECT TOP 1 userId FROM Authorization WHERE token = ? ORDER BY dateCreated DESC";
-    try {
-      ArrayList<String> parameters = new ArrayList<String>();
-      parameters.add(token);
-      response = executeQuery(accessTokenRetrieve, parameters);
-      if(!response.next()){
-        return null;
+  @Override
+  public boolean forEachLiveMappingToken(Consumer<String> consumer) {
+    return forEachLiveToken("LinkingToken", mappingTokenTtlMillis, consumer);
+  }
+
+  @Override
+  public boolean forEachLiveAuthToken(Consumer<String> consumer) {
+    return forEachLiveToken("Authorization", authTokenTtlMillis, consumer);
+  }
+  
+  protected boolean forEachLiveToken(String table, long ttlMillis, Consumer<String> consumer){
+    String liveTokenScan = "SELECT token FROM " + table + " WHERE dateCreated > ?";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(expiryCutoff(ttlMillis));
+    try(
+        Connection conn = getConnection();
+        PreparedStatement statement = prepStatement(conn.prepareStatement(liveTokenScan), parameters);
+        ){
+      statement.setFetchSize(1000);
+      try(ResultSet rs = statement.executeQuery()){
+        while(rs.next()){
+          consumer.accept(rs.getString(1));
+        }
       }
-      return response.getString("userId");
-    } catch (SQLException e) {
-      e.printStackTrace();
+      return true;
+    }catch(SQLException e){
+      LOG.error("Could not scan tokens in " + table + ".", e);
     }
-    return null;
+    return false;
   }
 
   @Override
-  public void expireGrantedToken(String token) {
-    String accessTokenDelete = "DELETE FROM Authorization WHERE token = ?;";
+  public long countMappingTokens() {
+    return countRows("LinkingToken");
+  }
 
-    ArrayList<String> parameters = new ArrayList<String>();
+  @Override
+  public long countAuthTokens() {
+    return countRows("Authorization");
+  }
+  
+  protected long countRows(String table){
+    Long count = queryForObject("SELECT COUNT(*) FROM " + table + ";", null, rs -> rs.getLong(1));
+    return count == null ? -1 : count;
+  }
+  
+  /**
+   * A TTL of 0 or less never expires anything, so every row is newer than its cutoff.
+   */
+  protected static Timestamp expiryCutoff(long ttlMillis){
+    if(ttlMillis <= 0){
+      return new Timestamp(0);
+    }
+    return new Timestamp(System.currentTimeMillis() - ttlMillis);
+  }
+  
+  /**
+   * Tokens are generated here rather than by the database, so issuing one is a single write with no read-back
+   * and concurrent issuances for the same user can never see each other's token. Tokens are always bound as
+   * UUID objects, which H2 stores and compares as 16 bytes; a token string that isn't a canonical UUID can't
+   * exist in the table, so lookups for one return without a query.
+   */
+  protected String insertToken(String sql, String userId){
+    UUID token = UUID.randomUUID();
+    
+    ArrayList<Object> parameters = new ArrayList<Object>();
     parameters.add(token);
-    executeStatement(accessTokenDelete, parameters);
+    parameters.add(userId);
+    if(!executeStatement(sql, parameters)){
+      return null;
+    }
+    return token.toString();
   }
   
-  protected PreparedStatement prepStatement(PreparedStatement statement, ArrayList<? extends Object> parameters) throws SQLException{
+  protected PreparedStatement prepStatement(PreparedStatement statement, List<? extends Object> parameters) throws SQLException{
     if(parameters != null){
       for(int i = 0; i < parameters.size(); i++){
         statement.setObject(i + 1, parameters.get(i));
@@ -305,19 +720,47 @@ public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO {
   
   @Override
   public ExternalAccountLink createAccountLink(ExternalAccountLink link){
+    executeStatement(MERGE_ACCOUNT_LINK, accountLinkParameters(link));
+    
+    return getAccountLinkByUserIdAndExternalSystemName(link.getUserId(), link.getExternalSystemName());
+  }
+  
+  @Override
+  public List<ExternalAccountLink> createAccountLinks(Collection<ExternalAccountLink> links){
+    if(links == null || links.isEmpty()){
+      return new ArrayList<ExternalAccountLink>();
+    }
+    
+    try(Connection conn = getConnection()){
+      conn.setAutoCommit(false);
+      try(PreparedStatement statement = conn.prepareStatement(MERGE_ACCOUNT_LINK)){
+        for(ExternalAccountLink link : links){
+          prepStatement(statement, accountLinkParameters(link));
+          statement.addBatch();
+        }
+        statement.executeBatch();
+        conn.commit();
+      }catch(SQLException e){
+        conn.rollback();
+        throw e;
+      }finally{
+        conn.setAutoCommit(true);
+      }
+    }catch(SQLException e){
+      LOG.error("Could not create " + links.size() + " account links.", e);
+      return null;
+    }
+    return new ArrayList<ExternalAccountLink>(links);
+  }
+  
+  protected List<Object> accountLinkParameters(ExternalAccountLink link){
     ArrayList<Object> parameters = new ArrayList<Object>();
     parameters.add(link.getUserId());
     parameters.add(link.getExternalUserId());
     parameters.add(link.getExternalSystemName());
     parameters.add(link.getAuthToken());
     parameters.add(link.getRefreshToken());
-    String createAccountLink = "MERGE INTO AccountLink(userId, externalUserId, externalSystemName, externalSystemToken, externalSystemRefreshToken)"
-        + " KEY(userId, externalUserId, externalSystemName) VALUES(?,?,?,?,?)";
-    //Should externalSystemToken be a different table with a FK relationship to this one?
-
-    executeStatement(createAccountLink, parameters);
-    
-    return getAccountLinkByUserIdAndExternalSystemName(link.getUserId(), link.getExternalSystemName());
+    return parameters;
   }
   
   @Override
@@ -330,18 +773,7 @@ public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO {
         + " WHERE userId = ?"
         + " AND externalSystemName = ?";
 
-    ResultSet response;
-    response = executeQuery(createAccountLink, parameters);
-    try{
-      if(!response.next()){
-        return null;
-      }
-      
-      return buildAccountLink(response);
-    }catch(SQLException e){
-      e.printStackTrace();
-      return null;
-    }
+    return queryForObject(createAccountLink, parameters, ACCOUNT_LINK_MAPPER);
   }
   
   @Override
@@ -354,20 +786,29 @@ public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO {
         + " WHERE externalUserId = ?"
         + " AND externalSystemName = ?";
 
-    ResultSet response;
-    response = executeQuery(createAccountLink, parameters);
-    try{
-      if(!response.next()){
-        return null;
-      }
-      
-      return buildAccountLink(response);
-    }catch(SQLException e){
-      e.printStackTrace();
-      return null;
-    }
+    return queryForObject(createAccountLink, parameters, ACCOUNT_LINK_MAPPER);
   }
   
+  @Override
+  public String getIndexedUserId(String externalUserId, String externalSystemName) {
+    String indexRetrieve = "SELECT userId FROM ExternalLinkIndex WHERE externalSystemName = ? AND externalUserId = ?";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(externalSystemName);
+    parameters.add(externalUserId);
+    return queryForObject(indexRetrieve, parameters, stringMapper("userId"));
+  }
+
+  @Override
+  public boolean indexExternalUserId(String externalUserId, String externalSystemName, String userId) {
+    String indexMerge = "MERGE INTO ExternalLinkIndex(externalSystemName, externalUserId, userId)"
+        + " KEY(externalSystemName, externalUserId) VALUES(?,?,?);";
+    ArrayList<Object> parameters = new ArrayList<Object>();
+    parameters.add(externalSystemName);
+    parameters.add(externalUserId);
+    parameters.add(userId);
+    return executeStatement(indexMerge, parameters);
+  }
+
   @Override
   public List<ExternalAccountLink> getAccountLinksByUserId(String userId){
     ArrayList<Object> parameters = new ArrayList<Object>();
@@ -376,26 +817,15 @@ public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO {
         + " FROM AccountLink"
         + " WHERE userId = ?";
 
-    ResultSet response;
-    response = executeQuery(createAccountLink, parameters);
+    List<ExternalAccountLink> externalAccountLinks = query(createAccountLink, parameters, ACCOUNT_LINK_MAPPER);
     
-    List<ExternalAccountLink> externalAccountLinks = new LinkedList<ExternalAccountLink>();
-    try{
-      while(response.next()){
-        externalAccountLinks.add(buildAccountLink(response));
-      }
-    }catch(SQLException e){
-      e.printStackTrace();
-      return null;
-    }
-    
-    if(externalAccountLinks.size() < 1){
+    if(externalAccountLinks == null || externalAccountLinks.size() < 1){
       return null;
     }
     return externalAccountLinks;
   }
   
-  public ExternalAccountLink buildAccountLink(ResultSet rs) throws SQLException{
+  public static ExternalAccountLink buildAccountLink(ResultSet rs) throws SQLException{
     ExternalAccountLink link = new ExternalAccountLink();
     link.setUserId(rs.getString("userId"));
     link.setExternalUserId(rs.getString("externalUserId"));
@@ -404,4 +834,36 @@ public class H2EmbeddedAccountLinkingDAO implements AccountLinkingDAO {
     link.setRefreshToken(rs.getString("externalSystemRefreshToken"));
     return link;
   }
+  
+  public static UserAccount buildUser(ResultSet rs) throws SQLException{
+    UserAccount user = new UserAccount();
+    user.setUserId(rs.getString("id"));
+    user.setFirstName(rs.getString("firstName"));
+    return user;
+  }
+  
+  /**
+   * Folds user-joined-to-links rows into one UserAccount. Link columns are null for a user with no links.
+   */
+  public static UserAccount buildUserContext(ResultSet rs) throws SQLException{
+    UserAccount user = null;
+    Map<String, ExternalAccountLink> externalAccountLinks = new HashMap<String, ExternalAccountLink>();
+    while(rs.next()){
+      if(user == null){
+        user = buildUser(rs);
+      }
+      if(rs.getString("externalSystemName") != null){
+        ExternalAccountLink link = buildAccountLink(rs);
+        externalAccountLinks.put(link.getExternalSystemName(), link);
+      }
+    }
+    if(user != null){
+      user.setExternalAccountLinks(externalAccountLinks);
+    }
+    return user;
+  }
+  
+  protected static RowMapper<String> stringMapper(final String columnLabel){
+    return rs -> rs.getString(columnLabel);
+  }
 }
@@ -0,0 +1,73 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.tools.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.derpgroup.livefinder.configuration.H2ServerConfig;
+
+/**
+ * Serves the H2 databases under baseDir over TCP, so several LiveFinder nodes can share one account store.
+ *
+ * Every node, including the one running the server, connects with a jdbc:h2:tcp://host:port/name URL; the
+ * database is created under baseDir by the first connection, with that connection's user and password. Unless
+ * allowOthers is set, only clients on the same host can connect.
+ */
+public class H2TcpServer implements Managed {
+
+  private static final Logger LOG = LoggerFactory.getLogger(H2TcpServer.class);
+
+  private final H2ServerConfig config;
+  private Server server;
+
+  public H2TcpServer(H2ServerConfig config){
+    this.config = config;
+  }
+
+  /**
+   * Starts the server unless it is already running, so it can be started before the DAOs that connect to it
+   * and again by the lifecycle.
+   */
+  @Override
+  public synchronized void start() throws SQLException {
+    if(server != null){
+      return;
+    }
+    List<String> args = new ArrayList<String>();
+    args.add("-tcpPort");
+    args.add(String.valueOf(config.getPort()));
+    args.add("-baseDir");
+    args.add(config.getBaseDir());
+    args.add("-tcpDaemon");
+    if(config.isAllowOthers()){
+      args.add("-tcpAllowOthers");
+    }
+    server = Server.createTcpServer(args.toArray(new String[args.size()])).start();
+    LOG.info("Serving account linking databases under '" + config.getBaseDir() + "' at " + server.getURL() + ".");
+  }
+
+  @Override
+  public synchronized void stop() throws Exception {
+    if(server != null){
+      server.stop();
+      server = null;
+    }
+  }
+
+  public synchronized int getPort(){
+    return server == null ? config.getPort() : server.getPort();
+  }
+
+  /**
+   * @return The URL a client on this host uses to open the named database
+   */
+  public String getLocalUrl(String databaseName){
+    return "jdbc:h2:tcp://localhost:" + getPort() + "/" + databaseName;
+  }
+}
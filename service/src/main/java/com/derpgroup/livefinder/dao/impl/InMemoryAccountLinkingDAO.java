@@ -1,131 +1,339 @@
 package com.derpgroup.livefinder.dao.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.TokenExpiryConfig;
 import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.dao.ExternalLinkIndex;
 import com.derpgroup.livefinder.model.accountlinking.UserAccount;
 import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
-import com.derpgroup.livefinder.model.accountlinking.InterfaceName;
-import com.derpgroup.livefinder.model.accountlinking.TwitchUser;
+import com.derpgroup.livefinder.util.UuidKeyedMap;
+import com.derpgroup.livefinder.util.Uuids;
+
+/**
+ * Zero-I/O AccountLinkingDAO backed by concurrent maps; all lookups are O(1).
+ *
+ * Links are indexed twice: by userId then externalSystemName (a user has at most one link per system), and by
+ * externalSystemName:externalUserId. Each user's links are written inside a compute on that user's entry, so
+ * concurrent writers for the same user are serialized without a global lock and both indexes move together.
+ * Objects are copied on the way in and out, so callers can't mutate the store.
+ */
+public class InMemoryAccountLinkingDAO implements AccountLinkingDAO, ExternalLinkIndex {
 
-public class InMemoryAccountLinkingDAO implements AccountLinkingDAO {
-  
   private static final Logger LOG = LoggerFactory.getLogger(InMemoryAccountLinkingDAO.class);
 
-  Map<String,UserAccount> users;
-  Map<String,String> mappingTokens;
-  Map<String,String> grantedAuthTokens; //Map of token->derpUserId for tokens we have given out
-  
+  private final ConcurrentMap<String,UserAccount> users = new ConcurrentHashMap<String,UserAccount>();
+  private final UuidKeyedMap<IssuedToken> mappingTokens = new UuidKeyedMap<IssuedToken>();
+  private final UuidKeyedMap<IssuedToken> grantedAuthTokens = new UuidKeyedMap<IssuedToken>(); //Map of token->derpUserId for tokens we have given out
+  private final ConcurrentMap<String,Map<String,ExternalAccountLink>> linksByUserId = new ConcurrentHashMap<String,Map<String,ExternalAccountLink>>();
+  private final ConcurrentMap<String,ExternalAccountLink> linksByExternalUserId = new ConcurrentHashMap<String,ExternalAccountLink>();
+  private final ConcurrentMap<String,String> indexedUserIds = new ConcurrentHashMap<String,String>(); //Map of externalSystemName:externalUserId->userId for ShardedAccountLinkingDAO
+  private final ConcurrentMap<String,Long> revokedAuthTokens = new ConcurrentHashMap<String,Long>(); //Map of tokenId->expiry time
+
+  private final long mappingTokenTtlMillis;
+  private final long authTokenTtlMillis;
+
   public InMemoryAccountLinkingDAO(AccountLinkingDAOConfig config){
-    users = new HashMap<String,UserAccount>();
-    mappingTokens = new HashMap<String,String>();
-    grantedAuthTokens = new HashMap<String,String>();
-    
-   /* LOG.info("Initializing pre-seeded mapping data.");
-    InterfaceMapping mapping = new InterfaceMapping();
-    mapping.setInterfaceName(InterfaceName.ALEXA);
-    mapping.setInterfaceUserId("amzn1.echo-sdk-account.AH7YZRPVGIG7FRIG77BGROA3D66SSNAGCGKJSDBP6MQ2P3H556X5A");
-    mapping.setUserId("96876148-bbcd-40f2-993d-dd3ed635367b");
-    
-    String compositeKey = mapping.getInterfaceName().name() + "." + mapping.getInterfaceUserId();
-    interfaceMappings.put(compositeKey, mapping);
-    interfaceMappings.put(mapping.getInterfaceName().name() + "." + "fake", mapping);
-    
-    LOG.info("Initializing pre-seeded user data.");
-    AccountLinkingUser user = new AccountLinkingUser(); //First user has mappings set for everything
-    user.setUserId("96876148-bbcd-40f2-993d-dd3ed635367b");
-    user.setSteamId("76561198019030536");
-    user.setTwitchUser(new TwitchUser()); //populate twitch user
-    users.put("96876148-bbcd-40f2-993d-dd3ed635367b", user);
-    
-    AccountLinkingUser user2 = new AccountLinkingUser(); //Second user with no mappings set, for testing the mapping flow
-    user2.setUserId("47e38fdf-d5ba-4491-9c3c-1f028d02483b");
-    users.put("47e38fdf-d5ba-4491-9c3c-1f028d02483b", user2);*/
-    
-    UserAccount user = new UserAccount();
-    user.setUserId("def456");
-    users.put("def456", user);
-    mappingTokens.put("abc123", "def456");
-  }
-  
+    LOG.info("Initializing empty in-memory account linking store.");
+    TokenExpiryConfig tokenExpiryConfig = config == null || config.getTokenExpiry() == null ? new TokenExpiryConfig() : config.getTokenExpiry();
+    mappingTokenTtlMillis = TimeUnit.SECONDS.toMillis(tokenExpiryConfig.getMappingTokenTtlSeconds());
+    authTokenTtlMillis = TimeUnit.SECONDS.toMillis(tokenExpiryConfig.getAuthTokenTtlSeconds());
+  }
+
   @Override
   public UserAccount getUserByUserId(String userId) {
-    LOG.info("Retrieving data for user '" + userId + "'.");
-    return users.get(userId);
+    LOG.debug("Retrieving data for user '" + userId + "'.");
+    UserAccount user = users.get(userId);
+    return user == null ? null : new UserAccount(user);
   }
 
+  /**
+   * Inserts or replaces the user. dateCreated is kept from the first insert, and links are stored separately,
+   * so any links on the argument are ignored.
+   */
   @Override
   public UserAccount updateUser(UserAccount user) {
-    LOG.info("Updating data for user '" + user.getUserId() + "'.");
-    return users.put(user.getUserId(), user);
+    LOG.debug("Updating data for user '" + user.getUserId() + "'.");
+    UserAccount stored = new UserAccount(user);
+    stored.setExternalAccountLinks(null);
+    stored.setDateCreated(System.currentTimeMillis());
+    UserAccount merged = users.merge(user.getUserId(), stored, (existing, replacement) -> {
+      replacement.setDateCreated(existing.getDateCreated());
+      return replacement;
+    });
+    return new UserAccount(merged);
   }
 
   @Override
   public String generateMappingTokenForUserId(String userId) {
-    String mappingToken = UUID.randomUUID().toString();
-    mappingTokens.put(mappingToken, userId);
-    return mappingToken;
+    UUID mappingToken = UUID.randomUUID();
+    mappingTokens.put(mappingToken, new IssuedToken(userId, System.currentTimeMillis()));
+    return mappingToken.toString();
   }
 
   @Override
   public String getUserIdByMappingToken(String token) {
-    return mappingTokens.get(token);
+    UUID key = Uuids.parse(token);
+    return key == null ? null : liveUserId(mappingTokens.get(key), mappingTokenTtlMillis);
   }
 
   @Override
   public void expireMappingToken(String token) {
-    mappingTokens.remove(token);
+    UUID key = Uuids.parse(token);
+    if(key != null){
+      mappingTokens.remove(key);
+    }
   }
 
   @Override
   public String generateAuthToken(String userId) {
-    String grantedToken = UUID.randomUUID().toString();
-    grantedAuthTokens.put(grantedToken, userId);
-    return grantedToken;
+    UUID grantedToken = UUID.randomUUID();
+    grantedAuthTokens.put(grantedToken, new IssuedToken(userId, System.currentTimeMillis()));
+    return grantedToken.toString();
   }
 
   @Override
   public String getUserIdByAuthToken(String token) {
-    return grantedAuthTokens.get(token);
+    UUID key = Uuids.parse(token);
+    return key == null ? null : liveUserId(grantedAuthTokens.get(key), authTokenTtlMillis);
   }
 
   @Override
   public void expireGrantedToken(String token) {
-    grantedAuthTokens.remove(token);
+    UUID key = Uuids.parse(token);
+    if(key != null){
+      grantedAuthTokens.remove(key);
+    }
+  }
+
+  @Override
+  public int purgeExpiredMappingTokens(int limit) {
+    return purgeExpiredTokens(mappingTokens, mappingTokenTtlMillis, limit);
+  }
+
+  @Override
+  public int purgeExpiredAuthTokens(int limit) {
+    return purgeExpiredTokens(grantedAuthTokens, authTokenTtlMillis, limit);
+  }
+
+  /**
+   * Token maps aren't ordered by age, so this walks the map until it has removed limit expired tokens.
+   */
+  private static int purgeExpiredTokens(UuidKeyedMap<IssuedToken> tokens, long ttlMillis, int limit){
+    if(ttlMillis <= 0){
+      return 0;
+    }
+    long cutoff = System.currentTimeMillis() - ttlMillis;
+    return tokens.removeIf((mostSigBits, leastSigBits, issuedToken) -> issuedToken.dateCreated <= cutoff, limit);
+  }
+
+  @Override
+  public boolean forEachLiveMappingToken(Consumer<String> consumer) {
+    forEachLiveToken(mappingTokens, mappingTokenTtlMillis, consumer);
+    return true;
+  }
+
+  @Override
+  public boolean forEachLiveAuthToken(Consumer<String> consumer) {
+    forEachLiveToken(grantedAuthTokens, authTokenTtlMillis, consumer);
+    return true;
+  }
+
+  private static void forEachLiveToken(UuidKeyedMap<IssuedToken> tokens, long ttlMillis, Consumer<String> consumer){
+    tokens.forEach((mostSigBits, leastSigBits, issuedToken) -> {
+      if(liveUserId(issuedToken, ttlMillis) != null){
+        consumer.accept(new UUID(mostSigBits, leastSigBits).toString());
+      }
+    });
+  }
+
+  @Override
+  public long countMappingTokens() {
+    return mappingTokens.size();
+  }
+
+  @Override
+  public long countAuthTokens() {
+    return grantedAuthTokens.size();
+  }
+
+  private static String liveUserId(IssuedToken issuedToken, long ttlMillis){
+    if(issuedToken == null || (ttlMillis > 0 && issuedToken.dateCreated <= System.currentTimeMillis() - ttlMillis)){
+      return null;
+    }
+    return issuedToken.userId;
   }
 
+  @Override
+  public UserAccount loadUserContextByAuthToken(String token) {
+    String userId = getUserIdByAuthToken(token);
+    if(userId == null){
+      return null;
+    }
+    return loadUserContextByUserId(userId);
+  }
+
+  @Override
+  public UserAccount loadUserContextByUserId(String userId) {
+    UserAccount user = getUserByUserId(userId);
+    if(user == null){
+      return null;
+    }
+    Map<String, ExternalAccountLink> externalAccountLinks = new HashMap<String, ExternalAccountLink>();
+    Map<String, ExternalAccountLink> links = linksByUserId.get(userId);
+    if(links != null){
+      for(ExternalAccountLink link : links.values()){
+        externalAccountLinks.put(link.getExternalSystemName(), new ExternalAccountLink(link));
+      }
+    }
+    user.setExternalAccountLinks(externalAccountLinks);
+    return user;
+  }
+
+  @Override
+  public boolean revokeAuthToken(String tokenId, long expiresAtMillis) {
+    revokedAuthTokens.put(tokenId, expiresAtMillis);
+    return true;
+  }
+
+  @Override
+  public Set<String> getRevokedAuthTokenIds() {
+    long now = System.currentTimeMillis();
+    Set<String> tokenIds = new HashSet<String>();
+    for(Map.Entry<String, Long> entry : revokedAuthTokens.entrySet()){
+      if(entry.getValue() > now){
+        tokenIds.add(entry.getKey());
+      }
+    }
+    return tokenIds;
+  }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) {
+    long now = System.currentTimeMillis();
+    int purged = 0;
+    Iterator<Long> iterator = revokedAuthTokens.values().iterator();
+    while(purged < limit && iterator.hasNext()){
+      if(iterator.next() <= now){
+        iterator.remove();
+        purged++;
+      }
+    }
+    return purged;
+  }
+
+  /**
+   * Replaces the user's existing link for the system, if any, matching the H2 DAO's
+   * (userId, externalSystemName) key.
+   */
   @Override
   public ExternalAccountLink createAccountLink(ExternalAccountLink link) {
-    // TODO Auto-generated method stub
-    return null;
+    if(link.getUserId() == null || link.getExternalSystemName() == null){
+      LOG.error("Could not create account link without a userId and externalSystemName.");
+      return null;
+    }
+    final ExternalAccountLink stored = new ExternalAccountLink(link);
+    linksByUserId.compute(stored.getUserId(), (userId, links) -> {
+      if(links == null){
+        links = new ConcurrentHashMap<String, ExternalAccountLink>();
+      }
+      ExternalAccountLink previous = links.put(stored.getExternalSystemName(), stored);
+      if(previous != null && previous.getExternalUserId() != null){
+        linksByExternalUserId.remove(externalUserIdKey(previous.getExternalUserId(), previous.getExternalSystemName()), previous);
+      }
+      if(stored.getExternalUserId() != null){
+        linksByExternalUserId.put(externalUserIdKey(stored.getExternalUserId(), stored.getExternalSystemName()), stored);
+      }
+      return links;
+    });
+    return new ExternalAccountLink(stored);
+  }
+
+  /**
+   * Each link is applied atomically, but the batch as a whole is not; a concurrent reader may see part of it.
+   */
+  @Override
+  public List<ExternalAccountLink> createAccountLinks(Collection<ExternalAccountLink> links) {
+    List<ExternalAccountLink> createdLinks = new ArrayList<ExternalAccountLink>(links.size());
+    for(ExternalAccountLink link : links){
+      ExternalAccountLink createdLink = createAccountLink(link);
+      if(createdLink == null){
+        return null;
+      }
+      createdLinks.add(createdLink);
+    }
+    return createdLinks;
   }
 
   @Override
   public ExternalAccountLink getAccountLinkByUserIdAndExternalSystemName(
       String userId, String externalSystemName) {
-    // TODO Auto-generated method stub
-    return null;
+    Map<String, ExternalAccountLink> links = linksByUserId.get(userId);
+    if(links == null){
+      return null;
+    }
+    ExternalAccountLink link = links.get(externalSystemName);
+    return link == null ? null : new ExternalAccountLink(link);
   }
 
   @Override
   public ExternalAccountLink getAccountLinkByExternalUserIdAndExternalSystemName(
       String externalUserId, String externalSystemName) {
-    // TODO Auto-generated method stub
-    return null;
+    ExternalAccountLink link = linksByExternalUserId.get(externalUserIdKey(externalUserId, externalSystemName));
+    return link == null ? null : new ExternalAccountLink(link);
   }
 
   @Override
   public List<ExternalAccountLink> getAccountLinksByUserId(String userId) {
-    // TODO Auto-generated method stub
-    return null;
+    Map<String, ExternalAccountLink> links = linksByUserId.get(userId);
+    if(links == null || links.isEmpty()){
+      return null;
+    }
+    List<ExternalAccountLink> copies = new ArrayList<ExternalAccountLink>(links.size());
+    for(ExternalAccountLink link : links.values()){
+      copies.add(new ExternalAccountLink(link));
+    }
+    return copies;
+  }
+
+  @Override
+  public String getIndexedUserId(String externalUserId, String externalSystemName) {
+    return indexedUserIds.get(externalUserIdKey(externalUserId, externalSystemName));
+  }
+
+  @Override
+  public boolean indexExternalUserId(String externalUserId, String externalSystemName, String userId) {
+    indexedUserIds.put(externalUserIdKey(externalUserId, externalSystemName), userId);
+    return true;
+  }
+
+  private static String externalUserIdKey(String externalUserId, String externalSystemName){
+    return externalSystemName + ":" + externalUserId;
+  }
+
+  private static class IssuedToken{
+    private final String userId;
+    private final long dateCreated;
+
+    private IssuedToken(String userId, long dateCreated){
+      this.userId = userId;
+      this.dateCreated = dateCreated;
+    }
   }
 }
@@ -0,0 +1,256 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.derpgroup.livefinder.configuration.InstrumentationConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+
+/**
+ * Times every AccountLinkingDAO call and logs the ones slower than slowCallThresholdMillis.
+ *
+ * Each method gets a timer named after the layer and method, an errors meter and, where the result has a size,
+ * a resultSize histogram. Errors are exceptions plus the failure results the interface defines: null from the
+ * write methods and -1 or false from the maintenance methods. A null from a read is a miss, not an error.
+ *
+ * The factory wraps both the bare store, as layer "store", and the fully decorated stack, as layer "total", so
+ * the gap between the two shows what the caches and filters save.
+ */
+public class InstrumentedAccountLinkingDAO implements AccountLinkingDAO {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InstrumentedAccountLinkingDAO.class);
+
+  private final AccountLinkingDAO delegate;
+  private final String layer;
+  private final long slowCallThresholdNanos;
+  private final MetricRegistry metricRegistry;
+  private final Map<String, MethodMetrics> methodMetrics = new ConcurrentHashMap<String, MethodMetrics>();
+
+  public InstrumentedAccountLinkingDAO(AccountLinkingDAO delegate, String layer, InstrumentationConfig config, MetricRegistry metricRegistry){
+    this.delegate = delegate;
+    this.layer = layer;
+    this.slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowCallThresholdMillis());
+    this.metricRegistry = metricRegistry;
+  }
+
+  public AccountLinkingDAO getDelegate() {
+    return delegate;
+  }
+
+  private <T> T time(String method, Supplier<T> call){
+    return time(method, call, null, null);
+  }
+
+  /**
+   * @param size Measures the result for the resultSize histogram; may be null
+   * @param failed Recognizes failure results; may be null
+   */
+  private <T> T time(String method, Supplier<T> call, ToIntFunction<T> size, Predicate<T> failed){
+    MethodMetrics metrics = methodMetrics.computeIfAbsent(method, this::register);
+    long start = System.nanoTime();
+    T result;
+    try{
+      result = call.get();
+    }catch(RuntimeException e){
+      metrics.errors.mark();
+      throw e;
+    }finally{
+      long elapsed = System.nanoTime() - start;
+      metrics.timer.update(elapsed, TimeUnit.NANOSECONDS);
+      if(elapsed > slowCallThresholdNanos){
+        LOG.warn("Slow account linking call: " + layer + " " + method + " took " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms.");
+      }
+    }
+    if(failed != null && failed.test(result)){
+      metrics.errors.mark();
+    }else if(size != null && result != null){
+      metrics.resultSize.update(size.applyAsInt(result));
+    }
+    return result;
+  }
+
+  private void run(String method, Runnable call){
+    time(method, () -> {
+      call.run();
+      return null;
+    });
+  }
+
+  private MethodMetrics register(String method){
+    return new MethodMetrics(
+        metricRegistry.timer(MetricRegistry.name(InstrumentedAccountLinkingDAO.class, layer, method)),
+        metricRegistry.meter(MetricRegistry.name(InstrumentedAccountLinkingDAO.class, layer, method, "errors")),
+        metricRegistry.histogram(MetricRegistry.name(InstrumentedAccountLinkingDAO.class, layer, method, "resultSize")));
+  }
+
+  private static int linkCount(UserAccount user){
+    return user.getExternalAccountLinks() == null ? 0 : user.getExternalAccountLinks().size();
+  }
+
+  private static class MethodMetrics{
+
+    private final Timer timer;
+    private final Meter errors;
+    private final Histogram resultSize;
+
+    private MethodMetrics(Timer timer, Meter errors, Histogram resultSize){
+      this.timer = timer;
+      this.errors = errors;
+      this.resultSize = resultSize;
+    }
+  }
+
+  @Override
+  public UserAccount getUserByUserId(String userId) {
+    return time("getUserByUserId", () -> delegate.getUserByUserId(userId));
+  }
+
+  @Override
+  public UserAccount updateUser(UserAccount user) {
+    return time("updateUser", () -> delegate.updateUser(user), null, result -> result == null);
+  }
+
+  @Override
+  public String generateMappingTokenForUserId(String userId) {
+    return time("generateMappingTokenForUserId", () -> delegate.generateMappingTokenForUserId(userId), null, result -> result == null);
+  }
+
+  @Override
+  public String getUserIdByMappingToken(String token) {
+    return time("getUserIdByMappingToken", () -> delegate.getUserIdByMappingToken(token));
+  }
+
+  @Override
+  public void expireMappingToken(String token) {
+    run("expireMappingToken", () -> delegate.expireMappingToken(token));
+  }
+
+  @Override
+  public String generateAuthToken(String userId) {
+    return time("generateAuthToken", () -> delegate.generateAuthToken(userId), null, result -> result == null);
+  }
+
+  @Override
+  public String getUserIdByAuthToken(String token) {
+    return time("getUserIdByAuthToken", () -> delegate.getUserIdByAuthToken(token));
+  }
+
+  @Override
+  public void expireGrantedToken(String token) {
+    run("expireGrantedToken", () -> delegate.expireGrantedToken(token));
+  }
+
+  @Override
+  public int purgeExpiredMappingTokens(int limit) {
+    return time("purgeExpiredMappingTokens", () -> delegate.purgeExpiredMappingTokens(limit), Integer::intValue, result -> result < 0);
+  }
+
+  @Override
+  public int purgeExpiredAuthTokens(int limit) {
+    return time("purgeExpiredAuthTokens", () -> delegate.purgeExpiredAuthTokens(limit), Integer::intValue, result -> result < 0);
+  }
+
+  /**
+   * The resultSize histogram records how many tokens each scan visited.
+   */
+  @Override
+  public boolean forEachLiveMappingToken(Consumer<String> consumer) {
+    return scan("forEachLiveMappingToken", delegate::forEachLiveMappingToken, consumer);
+  }
+
+  @Override
+  public boolean forEachLiveAuthToken(Consumer<String> consumer) {
+    return scan("forEachLiveAuthToken", delegate::forEachLiveAuthToken, consumer);
+  }
+
+  private boolean scan(String method, Predicate<Consumer<String>> scan, Consumer<String> consumer){
+    AtomicInteger visited = new AtomicInteger();
+    boolean completed = time(method, () -> scan.test(token -> {
+      visited.incrementAndGet();
+      consumer.accept(token);
+    }), null, result -> !result);
+    if(completed){
+      methodMetrics.get(method).resultSize.update(visited.get());
+    }
+    return completed;
+  }
+
+  @Override
+  public long countMappingTokens() {
+    return time("countMappingTokens", () -> delegate.countMappingTokens(), null, result -> result < 0);
+  }
+
+  @Override
+  public long countAuthTokens() {
+    return time("countAuthTokens", () -> delegate.countAuthTokens(), null, result -> result < 0);
+  }
+
+  @Override
+  public UserAccount loadUserContextByAuthToken(String token) {
+    return time("loadUserContextByAuthToken", () -> delegate.loadUserContextByAuthToken(token), InstrumentedAccountLinkingDAO::linkCount, null);
+  }
+
+  @Override
+  public UserAccount loadUserContextByUserId(String userId) {
+    return time("loadUserContextByUserId", () -> delegate.loadUserContextByUserId(userId), InstrumentedAccountLinkingDAO::linkCount, null);
+  }
+
+  @Override
+  public boolean revokeAuthToken(String tokenId, long expiresAtMillis) {
+    return time("revokeAuthToken", () -> delegate.revokeAuthToken(tokenId, expiresAtMillis), null, result -> !result);
+  }
+
+  @Override
+  public Set<String> getRevokedAuthTokenIds() {
+    return time("getRevokedAuthTokenIds", () -> delegate.getRevokedAuthTokenIds(), Set::size, result -> result == null);
+  }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) {
+    return time("purgeExpiredRevocations", () -> delegate.purgeExpiredRevocations(limit), Integer::intValue, result -> result < 0);
+  }
+
+  @Override
+  public ExternalAccountLink createAccountLink(ExternalAccountLink link) {
+    return time("createAccountLink", () -> delegate.createAccountLink(link), null, result -> result == null);
+  }
+
+  @Override
+  public List<ExternalAccountLink> createAccountLinks(Collection<ExternalAccountLink> links) {
+    return time("createAccountLinks", () -> delegate.createAccountLinks(links), List::size, result -> result == null);
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByUserIdAndExternalSystemName(String userId, String externalSystemName) {
+    return time("getAccountLinkByUserIdAndExternalSystemName", () -> delegate.getAccountLinkByUserIdAndExternalSystemName(userId, externalSystemName));
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByExternalUserIdAndExternalSystemName(String externalUserId, String externalSystemName) {
+    return time("getAccountLinkByExternalUserIdAndExternalSystemName",
+        () -> delegate.getAccountLinkByExternalUserIdAndExternalSystemName(externalUserId, externalSystemName));
+  }
+
+  @Override
+  public List<ExternalAccountLink> getAccountLinksByUserId(String userId) {
+    return time("getAccountLinksByUserId", () -> delegate.getAccountLinksByUserId(userId), List::size, null);
+  }
+}
@@ -0,0 +1,14 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Builds a single result from every row of an open ResultSet, for queries whose rows
+ * fold into one object (e.g. a parent row joined to its children).
+ * Implementations advance the ResultSet themselves but must not close it.
+ */
+public interface ResultSetExtractor<T> {
+
+  public T extract(ResultSet rs) throws SQLException;
+}
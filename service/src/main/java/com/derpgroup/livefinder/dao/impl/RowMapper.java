@@ -0,0 +1,13 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of an open ResultSet to an object.
+ * Implementations must not advance or close the ResultSet.
+ */
+public interface RowMapper<T> {
+
+  public T mapRow(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,39 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A numbered, ordered set of DDL/DML statements that moves a schema from version - 1 to version.
+ * Migrations are applied at most once each, in version order, and are recorded in the SchemaVersion table.
+ */
+public class SchemaMigration {
+
+  private final int version;
+  private final String description;
+  private final List<String> statements;
+
+  public SchemaMigration(int version, String description, String... statements){
+    this.version = version;
+    this.description = description;
+    this.statements = Collections.unmodifiableList(Arrays.asList(statements));
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public List<String> getStatements() {
+    return statements;
+  }
+
+  @Override
+  public String toString() {
+    return "SchemaMigration [version=" + version + ", description=" + description + "]";
+  }
+}
@@ -0,0 +1,273 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.derpgroup.livefinder.util.ConsistentHashRing;
+
+/**
+ * Moves each user's rows to the shard the hash ring now assigns them to, typically after shards are added, then
+ * rebuilds the external link index so every link has an entry on the shard its external id now hashes to.
+ *
+ * Meant to run with the service stopped, since a running service's caches would not see the moves. Each batch of
+ * users is copied to its new shard and committed there before it is deleted from the old one, so an interrupted
+ * run leaves duplicates rather than gaps, and running again finishes the job: copies are merges and only users
+ * still on the wrong shard are considered. Index entries are likewise merged onto their shard before misplaced
+ * ones are deleted. Rebuilding the index from the links also fills it in for links written before it existed, and
+ * drops the entries no link confirms any more, which lookups leave in place.
+ */
+public class ShardRebalancer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ShardRebalancer.class);
+
+  private static final int DEFAULT_BATCH_SIZE = 500;
+
+  /**
+   * Every table holding per-user rows, with the column naming the user and the key to merge copies on. Tokens
+   * name the shard that issued them and signed token revocations aren't per user, so both stay where they are;
+   * they expire on their own.
+   */
+  private static final List<UserTable> USER_TABLES = new ArrayList<UserTable>();
+  static{
+    USER_TABLES.add(new UserTable("User", "id", "id"));
+    USER_TABLES.add(new UserTable("AccountLink", "userId", "userId, externalSystemName"));
+  }
+
+  private final Map<String, H2EmbeddedAccountLinkingDAO> shards;
+  private final ConsistentHashRing<String> ring;
+  private final int batchSize;
+
+  public ShardRebalancer(Map<String, H2EmbeddedAccountLinkingDAO> shards, int virtualNodesPerShard){
+    this(shards, virtualNodesPerShard, DEFAULT_BATCH_SIZE);
+  }
+
+  public ShardRebalancer(Map<String, H2EmbeddedAccountLinkingDAO> shards, int virtualNodesPerShard, int batchSize){
+    this.shards = shards;
+    this.ring = ShardedAccountLinkingDAO.buildRing(shards.keySet(), virtualNodesPerShard);
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * @param dryRun Only count the users that would move
+   * @return The number of users moved, or that would move, off each shard
+   */
+  public Map<String, Integer> rebalance(boolean dryRun) throws SQLException{
+    Map<String, Integer> moved = new LinkedHashMap<String, Integer>();
+    for(String shardName : shards.keySet()){
+      Map<String, List<String>> misplaced = findMisplacedUsers(shardName);
+      int count = 0;
+      for(Map.Entry<String, List<String>> target : misplaced.entrySet()){
+        List<String> userIds = target.getValue();
+        count += userIds.size();
+        if(dryRun){
+          continue;
+        }
+        for(int from = 0; from < userIds.size(); from += batchSize){
+          moveUsers(shardName, target.getKey(), userIds.subList(from, Math.min(from + batchSize, userIds.size())));
+        }
+        LOG.info("Moved " + userIds.size() + " users from " + shardName + " to " + target.getKey() + ".");
+      }
+      moved.put(shardName, count);
+    }
+    if(!dryRun){
+      reindexLinks();
+    }
+    return moved;
+  }
+
+  /**
+   * Merges an index entry for every link onto the shard its external id hashes to, then deletes the entries
+   * that no longer belong on each shard or that no link backs.
+   */
+  private void reindexLinks() throws SQLException{
+    Set<String> linkedKeys = new HashSet<String>();
+    for(String shardName : shards.keySet()){
+      Map<String, List<String[]>> entriesByShard = new LinkedHashMap<String, List<String[]>>();
+      try(Connection conn = shards.get(shardName).getConnection();
+          PreparedStatement statement = conn.prepareStatement(
+              "SELECT externalSystemName, externalUserId, userId FROM AccountLink WHERE externalUserId IS NOT NULL")){
+        statement.setFetchSize(1000);
+        try(ResultSet rs = statement.executeQuery()){
+          while(rs.next()){
+            String[] entry = {rs.getString(1), rs.getString(2), rs.getString(3)};
+            String key = ShardedAccountLinkingDAO.externalLinkKey(entry[1], entry[0]);
+            linkedKeys.add(key);
+            String owner = ring.get(key);
+            entriesByShard.computeIfAbsent(owner, name -> new ArrayList<String[]>()).add(entry);
+          }
+        }
+      }
+      for(Map.Entry<String, List<String[]>> target : entriesByShard.entrySet()){
+        try(Connection conn = shards.get(target.getKey()).getConnection();
+            PreparedStatement merge = conn.prepareStatement("MERGE INTO ExternalLinkIndex(externalSystemName, externalUserId, userId)"
+                + " KEY(externalSystemName, externalUserId) VALUES(?,?,?)")){
+          for(String[] entry : target.getValue()){
+            for(int column = 0; column < entry.length; column++){
+              merge.setString(column + 1, entry[column]);
+            }
+            merge.addBatch();
+          }
+          merge.executeBatch();
+        }
+      }
+    }
+
+    for(String shardName : shards.keySet()){
+      int removed = 0;
+      try(Connection conn = shards.get(shardName).getConnection();
+          PreparedStatement select = conn.prepareStatement("SELECT externalSystemName, externalUserId FROM ExternalLinkIndex");
+          PreparedStatement delete = conn.prepareStatement("DELETE FROM ExternalLinkIndex WHERE externalSystemName = ? AND externalUserId = ?")){
+        select.setFetchSize(1000);
+        try(ResultSet rs = select.executeQuery()){
+          while(rs.next()){
+            String key = ShardedAccountLinkingDAO.externalLinkKey(rs.getString(2), rs.getString(1));
+            if(!linkedKeys.contains(key) || !ring.get(key).equals(shardName)){
+              delete.setString(1, rs.getString(1));
+              delete.setString(2, rs.getString(2));
+              delete.addBatch();
+              removed++;
+            }
+          }
+        }
+        delete.executeBatch();
+      }
+      if(removed > 0){
+        LOG.info("Removed " + removed + " misplaced or stale external link index entries from " + shardName + ".");
+      }
+    }
+  }
+
+  /**
+   * @return The users on the shard that belong elsewhere, grouped by the shard they belong on
+   */
+  private Map<String, List<String>> findMisplacedUsers(String shardName) throws SQLException{
+    StringBuilder sql = new StringBuilder();
+    for(UserTable table : USER_TABLES){
+      if(sql.length() > 0){
+        sql.append(" UNION ");
+      }
+      sql.append("SELECT ").append(table.userColumn).append(" FROM ").append(table.name);
+    }
+    Map<String, List<String>> misplaced = new LinkedHashMap<String, List<String>>();
+    try(Connection conn = shards.get(shardName).getConnection();
+        PreparedStatement statement = conn.prepareStatement(sql.toString())){
+      statement.setFetchSize(1000);
+      try(ResultSet rs = statement.executeQuery()){
+        while(rs.next()){
+          String userId = rs.getString(1);
+          String owner = ring.get(userId);
+          if(!owner.equals(shardName)){
+            misplaced.computeIfAbsent(owner, name -> new ArrayList<String>()).add(userId);
+          }
+        }
+      }
+    }
+    return misplaced;
+  }
+
+  private void moveUsers(String sourceName, String targetName, List<String> userIds) throws SQLException{
+    try(Connection source = shards.get(sourceName).getConnection();
+        Connection target = shards.get(targetName).getConnection()){
+      target.setAutoCommit(false);
+      try{
+        for(UserTable table : USER_TABLES){
+          copyRows(source, target, table, userIds);
+        }
+        target.commit();
+      }catch(SQLException e){
+        target.rollback();
+        throw e;
+      }finally{
+        target.setAutoCommit(true);
+      }
+
+      source.setAutoCommit(false);
+      try{
+        for(UserTable table : USER_TABLES){
+          try(PreparedStatement delete = source.prepareStatement("DELETE FROM " + table.name + " WHERE " + table.userColumn + " = ?")){
+            for(String userId : userIds){
+              delete.setString(1, userId);
+              delete.addBatch();
+            }
+            delete.executeBatch();
+          }
+        }
+        source.commit();
+      }catch(SQLException e){
+        source.rollback();
+        throw e;
+      }finally{
+        source.setAutoCommit(true);
+      }
+    }
+  }
+
+  private void copyRows(Connection source, Connection target, UserTable table, List<String> userIds) throws SQLException{
+    try(PreparedStatement select = source.prepareStatement("SELECT * FROM " + table.name + " WHERE " + table.userColumn + " = ?")){
+      PreparedStatement merge = null;
+      try{
+        for(String userId : userIds){
+          select.setString(1, userId);
+          try(ResultSet rs = select.executeQuery()){
+            ResultSetMetaData metaData = rs.getMetaData();
+            while(rs.next()){
+              if(merge == null){
+                merge = target.prepareStatement(buildMerge(table, metaData));
+              }
+              for(int column = 1; column <= metaData.getColumnCount(); column++){
+                merge.setObject(column, rs.getObject(column));
+              }
+              merge.addBatch();
+            }
+          }
+        }
+        if(merge != null){
+          merge.executeBatch();
+        }
+      }finally{
+        if(merge != null){
+          merge.close();
+        }
+      }
+    }
+  }
+
+  private static String buildMerge(UserTable table, ResultSetMetaData metaData) throws SQLException{
+    StringBuilder columns = new StringBuilder();
+    StringBuilder values = new StringBuilder();
+    for(int column = 1; column <= metaData.getColumnCount(); column++){
+      if(column > 1){
+        columns.append(", ");
+        values.append(",");
+      }
+      columns.append(metaData.getColumnName(column));
+      values.append("?");
+    }
+    return "MERGE INTO " + table.name + "(" + columns + ") KEY(" + table.key + ") VALUES(" + values + ")";
+  }
+
+  private static class UserTable{
+
+    private final String name;
+    private final String userColumn;
+    private final String key;
+
+    private UserTable(String name, String userColumn, String key){
+      this.name = name;
+      this.userColumn = userColumn;
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,413 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.ShardingConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.dao.ExternalLinkIndex;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+import com.derpgroup.livefinder.util.ConsistentHashRing;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Spreads users across several stores by a consistent hash of their userId. A user's account, links and tokens
+ * all live on that user's shard, so everything keyed by userId touches exactly one store.
+ *
+ * Tokens name the shard that issued them: the shard's own token is prefixed with the shard name and a "~", so
+ * every token lookup goes straight to one shard, on any node and after any restart. Tokens stay on that shard
+ * until they expire, even if their user is later moved. A token without a known shard name was not issued here
+ * and is rejected without touching any shard.
+ *
+ * External ids don't carry a userId, so each link is also recorded in a persistent ExternalLinkIndex on the shard
+ * the external id hashes to; a lookup reads that entry and then asks the user's shard to confirm the link. An
+ * in-memory cache of confirmed entries saves the index read for hot external ids. An entry the user's shard
+ * doesn't confirm, left behind by a relink, makes the lookup answer null but is left in place: it may just as well
+ * be the entry for a link whose write hasn't landed yet. ShardRebalancer clears the stale ones.
+ *
+ * Index entries are written before their links, so a failure can leave an unconfirmed entry but never an
+ * unindexed link. Batches of links are written per shard, each shard's share atomically but not the batch as a
+ * whole; writes are idempotent merges, so a caller that gets null back should retry the whole batch. Revocations
+ * are placed by a hash of the token id. Moving users and index entries after shards are added is an offline job;
+ * see ShardRebalancer.
+ */
+public class ShardedAccountLinkingDAO implements AccountLinkingDAO, Managed {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ShardedAccountLinkingDAO.class);
+
+  static final char TOKEN_SEPARATOR = '~';
+
+  private final Map<String, AccountLinkingDAO> shards;
+  private final Map<String, ExternalLinkIndex> linkIndexes;
+  private final ConsistentHashRing<String> ring;
+  private final Cache<String, String> userIdsByExternalUserId;
+
+  private final Meter indexHits;
+  private final Meter indexReads;
+
+  public <S extends AccountLinkingDAO & ExternalLinkIndex> ShardedAccountLinkingDAO(Map<String, S> shards, ShardingConfig config){
+    this(shards, config, new MetricRegistry());
+  }
+
+  /**
+   * @param shards Shards keyed by the stable name that places them on the hash ring
+   */
+  public <S extends AccountLinkingDAO & ExternalLinkIndex> ShardedAccountLinkingDAO(Map<String, S> shards, ShardingConfig config,
+      MetricRegistry metricRegistry){
+    for(String shardName : shards.keySet()){
+      if(shardName.indexOf(TOKEN_SEPARATOR) >= 0){
+        throw new RuntimeException("Shard name '" + shardName + "' may not contain '" + TOKEN_SEPARATOR + "'.");
+      }
+    }
+    this.shards = new LinkedHashMap<String, AccountLinkingDAO>(shards);
+    this.linkIndexes = new LinkedHashMap<String, ExternalLinkIndex>(shards);
+    this.ring = buildRing(shards.keySet(), config.getVirtualNodesPerShard());
+    userIdsByExternalUserId = CacheBuilder.newBuilder().maximumSize(config.getIndexMaximumSize()).build();
+
+    indexHits = metricRegistry.meter(MetricRegistry.name(ShardedAccountLinkingDAO.class, "index", "hits"));
+    indexReads = metricRegistry.meter(MetricRegistry.name(ShardedAccountLinkingDAO.class, "index", "reads"));
+    LOG.info("Routing account linking across " + shards.size() + " shards: " + shards.keySet() + ".");
+  }
+
+  public static ConsistentHashRing<String> buildRing(Collection<String> shardNames, int virtualNodesPerShard){
+    Map<String, String> nodes = new LinkedHashMap<String, String>();
+    for(String shardName : shardNames){
+      nodes.put(shardName, shardName);
+    }
+    return new ConsistentHashRing<String>(nodes, virtualNodesPerShard);
+  }
+
+  @Override
+  public void start() throws Exception {
+  }
+
+  @Override
+  public void stop() throws Exception {
+    for(AccountLinkingDAO shard : shards.values()){
+      if(shard instanceof Managed){
+        ((Managed) shard).stop();
+      }
+    }
+  }
+
+  public String getShardNameForUserId(String userId){
+    return ring.get(userId);
+  }
+
+  private AccountLinkingDAO shardFor(String userId){
+    return shards.get(ring.get(userId));
+  }
+
+  /**
+   * @return The shard's own token prefixed with the shard's name, or null if the shard issued none
+   */
+  private static String tagToken(String shardName, String token){
+    return token == null ? null : shardName + TOKEN_SEPARATOR + token;
+  }
+
+  /**
+   * Passes the shard's own token to the shard named in the token.
+   *
+   * @return The call's result, or null if the token names no shard
+   */
+  private <T> T onTokenShard(String token, BiFunction<AccountLinkingDAO, String, T> call){
+    int separator = token == null ? -1 : token.lastIndexOf(TOKEN_SEPARATOR);
+    AccountLinkingDAO shard = separator < 0 ? null : shards.get(token.substring(0, separator));
+    return shard == null ? null : call.apply(shard, token.substring(separator + 1));
+  }
+
+  private ExternalLinkIndex linkIndexFor(String externalUserId, String externalSystemName){
+    return linkIndexes.get(ring.get(externalLinkKey(externalUserId, externalSystemName)));
+  }
+
+  /**
+   * @return The user's link for the system, if it is still for the given external id
+   */
+  private ExternalAccountLink confirmLink(String userId, String externalUserId, String externalSystemName){
+    ExternalAccountLink link = shardFor(userId).getAccountLinkByUserIdAndExternalSystemName(userId, externalSystemName);
+    return link != null && externalUserId.equals(link.getExternalUserId()) ? link : null;
+  }
+
+  /**
+   * @return Whether every link with an external id was indexed
+   */
+  private boolean indexLinks(Collection<ExternalAccountLink> links){
+    for(ExternalAccountLink link : links){
+      if(link.getExternalUserId() == null || link.getExternalSystemName() == null){
+        continue;
+      }
+      if(!linkIndexFor(link.getExternalUserId(), link.getExternalSystemName())
+          .indexExternalUserId(link.getExternalUserId(), link.getExternalSystemName(), link.getUserId())){
+        LOG.error("Could not index the " + link.getExternalSystemName() + " link for user '" + link.getUserId() + "'.");
+        return false;
+      }
+      userIdsByExternalUserId.invalidate(externalLinkKey(link.getExternalUserId(), link.getExternalSystemName()));
+    }
+    return true;
+  }
+
+  /**
+   * Purges shard by shard until the limit is used up.
+   *
+   * @return The total purged, or -1 if nothing was purged and some shard failed
+   */
+  private int purge(BiFunction<AccountLinkingDAO, Integer, Integer> purge, int limit){
+    int total = 0;
+    boolean failed = false;
+    for(AccountLinkingDAO shard : shards.values()){
+      if(total >= limit){
+        break;
+      }
+      int purged = purge.apply(shard, limit - total);
+      if(purged < 0){
+        failed = true;
+      }else{
+        total += purged;
+      }
+    }
+    return total == 0 && failed ? -1 : total;
+  }
+
+  private long count(Function<AccountLinkingDAO, Long> count){
+    long total = 0;
+    for(AccountLinkingDAO shard : shards.values()){
+      long shardCount = count.apply(shard);
+      if(shardCount < 0){
+        return -1;
+      }
+      total += shardCount;
+    }
+    return total;
+  }
+
+  /**
+   * Scans shard by shard, tagging each shard's tokens with its name.
+   */
+  private boolean forEachToken(BiFunction<AccountLinkingDAO, Consumer<String>, Boolean> scan, Consumer<String> consumer){
+    for(Map.Entry<String, AccountLinkingDAO> shard : shards.entrySet()){
+      if(!scan.apply(shard.getValue(), token -> consumer.accept(tagToken(shard.getKey(), token)))){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public UserAccount getUserByUserId(String userId) {
+    return shardFor(userId).getUserByUserId(userId);
+  }
+
+  @Override
+  public UserAccount updateUser(UserAccount user) {
+    return shardFor(user.getUserId()).updateUser(user);
+  }
+
+  @Override
+  public String generateMappingTokenForUserId(String userId) {
+    String shardName = ring.get(userId);
+    return tagToken(shardName, shards.get(shardName).generateMappingTokenForUserId(userId));
+  }
+
+  @Override
+  public String getUserIdByMappingToken(String token) {
+    return onTokenShard(token, AccountLinkingDAO::getUserIdByMappingToken);
+  }
+
+  @Override
+  public void expireMappingToken(String token) {
+    onTokenShard(token, (shard, shardToken) -> {
+      shard.expireMappingToken(shardToken);
+      return null;
+    });
+  }
+
+  @Override
+  public String generateAuthToken(String userId) {
+    String shardName = ring.get(userId);
+    return tagToken(shardName, shards.get(shardName).generateAuthToken(userId));
+  }
+
+  @Override
+  public String getUserIdByAuthToken(String token) {
+    return onTokenShard(token, AccountLinkingDAO::getUserIdByAuthToken);
+  }
+
+  @Override
+  public void expireGrantedToken(String token) {
+    onTokenShard(token, (shard, shardToken) -> {
+      shard.expireGrantedToken(shardToken);
+      return null;
+    });
+  }
+
+  @Override
+  public int purgeExpiredMappingTokens(int limit) {
+    return purge(AccountLinkingDAO::purgeExpiredMappingTokens, limit);
+  }
+
+  @Override
+  public int purgeExpiredAuthTokens(int limit) {
+    return purge(AccountLinkingDAO::purgeExpiredAuthTokens, limit);
+  }
+
+  @Override
+  public boolean forEachLiveMappingToken(Consumer<String> consumer) {
+    return forEachToken(AccountLinkingDAO::forEachLiveMappingToken, consumer);
+  }
+
+  @Override
+  public boolean forEachLiveAuthToken(Consumer<String> consumer) {
+    return forEachToken(AccountLinkingDAO::forEachLiveAuthToken, consumer);
+  }
+
+  @Override
+  public long countMappingTokens() {
+    return count(AccountLinkingDAO::countMappingTokens);
+  }
+
+  @Override
+  public long countAuthTokens() {
+    return count(AccountLinkingDAO::countAuthTokens);
+  }
+
+  /**
+   * One query on the issuing shard while the user still lives there; if the user has since been moved, the token
+   * is resolved there and the context loaded from the user's current shard.
+   */
+  @Override
+  public UserAccount loadUserContextByAuthToken(String token) {
+    return onTokenShard(token, (shard, shardToken) -> {
+      UserAccount context = shard.loadUserContextByAuthToken(shardToken);
+      if(context != null){
+        return context;
+      }
+      String userId = shard.getUserIdByAuthToken(shardToken);
+      return userId == null || shards.get(ring.get(userId)) == shard ? null : shardFor(userId).loadUserContextByUserId(userId);
+    });
+  }
+
+  @Override
+  public UserAccount loadUserContextByUserId(String userId) {
+    return shardFor(userId).loadUserContextByUserId(userId);
+  }
+
+  @Override
+  public boolean revokeAuthToken(String tokenId, long expiresAtMillis) {
+    return shardFor(tokenId).revokeAuthToken(tokenId, expiresAtMillis);
+  }
+
+  /**
+   * @return Every shard's revocations, or null if any shard's could not be read
+   */
+  @Override
+  public Set<String> getRevokedAuthTokenIds() {
+    Set<String> tokenIds = new HashSet<String>();
+    for(AccountLinkingDAO shard : shards.values()){
+      Set<String> shardTokenIds = shard.getRevokedAuthTokenIds();
+      if(shardTokenIds == null){
+        return null;
+      }
+      tokenIds.addAll(shardTokenIds);
+    }
+    return tokenIds;
+  }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) {
+    return purge(AccountLinkingDAO::purgeExpiredRevocations, limit);
+  }
+
+  @Override
+  public ExternalAccountLink createAccountLink(ExternalAccountLink link) {
+    if(!indexLinks(Collections.singletonList(link))){
+      return null;
+    }
+    return shardFor(link.getUserId()).createAccountLink(link);
+  }
+
+  /**
+   * @return The links as written, or null if any shard's share could not be written
+   */
+  @Override
+  public List<ExternalAccountLink> createAccountLinks(Collection<ExternalAccountLink> links) {
+    if(!indexLinks(links)){
+      return null;
+    }
+    Map<String, List<ExternalAccountLink>> linksByShard = new LinkedHashMap<String, List<ExternalAccountLink>>();
+    for(ExternalAccountLink link : links){
+      linksByShard.computeIfAbsent(ring.get(link.getUserId()), shardName -> new ArrayList<ExternalAccountLink>()).add(link);
+    }
+    List<ExternalAccountLink> createdLinks = new ArrayList<ExternalAccountLink>(links.size());
+    boolean failed = false;
+    for(Map.Entry<String, List<ExternalAccountLink>> shardLinks : linksByShard.entrySet()){
+      List<ExternalAccountLink> created = shards.get(shardLinks.getKey()).createAccountLinks(shardLinks.getValue());
+      if(created == null){
+        failed = true;
+        continue;
+      }
+      createdLinks.addAll(created);
+    }
+    return failed ? null : createdLinks;
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByUserIdAndExternalSystemName(String userId, String externalSystemName) {
+    return shardFor(userId).getAccountLinkByUserIdAndExternalSystemName(userId, externalSystemName);
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByExternalUserIdAndExternalSystemName(String externalUserId, String externalSystemName) {
+    if(externalUserId == null || externalSystemName == null){
+      return null;
+    }
+    String key = externalLinkKey(externalUserId, externalSystemName);
+    String cachedUserId = userIdsByExternalUserId.getIfPresent(key);
+    if(cachedUserId != null){
+      ExternalAccountLink link = confirmLink(cachedUserId, externalUserId, externalSystemName);
+      if(link != null){
+        indexHits.mark();
+        return link;
+      }
+      userIdsByExternalUserId.invalidate(key);
+    }
+
+    indexReads.mark();
+    String userId = linkIndexFor(externalUserId, externalSystemName).getIndexedUserId(externalUserId, externalSystemName);
+    if(userId == null){
+      return null;
+    }
+    ExternalAccountLink link = confirmLink(userId, externalUserId, externalSystemName);
+    if(link == null){
+      return null;
+    }
+    userIdsByExternalUserId.put(key, userId);
+    return link;
+  }
+
+  @Override
+  public List<ExternalAccountLink> getAccountLinksByUserId(String userId) {
+    return shardFor(userId).getAccountLinksByUserId(userId);
+  }
+
+  static String externalLinkKey(String externalUserId, String externalSystemName){
+    return externalSystemName + ":" + externalUserId;
+  }
+}
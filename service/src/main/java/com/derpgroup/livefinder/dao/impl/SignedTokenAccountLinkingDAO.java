@@ -0,0 +1,378 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.SignedTokenConfig;
+import com.derpgroup.livefinder.configuration.TokenExpiryConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+
+/**
+ * Issues self-describing, HMAC-SHA256 signed auth tokens, so validating one is a CPU-only check.
+ *
+ * A token is base64url(payload) + "." + base64url(signature), where the payload holds a format version, the
+ * expiry time, a random token id and the userId. Nothing is written when a token is issued. Expiring a token
+ * adds its id to the delegate's revocation list; that list is mirrored in memory and re-read in the background
+ * every revocationRefreshSeconds once this is started, so a token revoked on another node is honoured within
+ * that interval. Call refreshRevocations() directly when not running under a lifecycle. Tokens revoked here are
+ * kept in the mirror until a refresh has seen them, so a refresh that raced the revocation can't drop them.
+ *
+ * Tokens without a "." are opaque tokens from the delegate, issued before signing was enabled, and are passed
+ * straight through. Everything else delegates unchanged.
+ */
+public class SignedTokenAccountLinkingDAO implements AccountLinkingDAO, Managed {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SignedTokenAccountLinkingDAO.class);
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+  private static final int MINIMUM_SECRET_BYTES = 32;
+  private static final byte FORMAT_VERSION = 1;
+  private static final int HEADER_BYTES = 1 + 8 + 16; //version, expiry, token id
+  private static final char SEPARATOR = '.';
+  private static final long NEVER_EXPIRES_MILLIS = 253402300799000L; //9999-12-31T23:59:59Z, which every SQL timestamp can hold
+
+  private final AccountLinkingDAO delegate;
+  private final SecretKeySpec key;
+  private final long authTokenTtlMillis;
+  private final long revocationRefreshSeconds;
+  private final Clock clock;
+  private final SecureRandom random = new SecureRandom();
+  private final ThreadLocal<Mac> macs;
+
+  private volatile Set<String> revokedTokenIds = Collections.emptySet();
+  private final Map<String, Long> localRevocations = new HashMap<String, Long>();
+
+  private ScheduledExecutorService executor;
+
+  private final Meter accepted;
+  private final Meter rejected;
+  private final Meter passedThrough;
+
+  public SignedTokenAccountLinkingDAO(AccountLinkingDAO delegate, SignedTokenConfig config, TokenExpiryConfig tokenExpiryConfig){
+    this(delegate, config, tokenExpiryConfig, new MetricRegistry(), Clock.systemUTC());
+  }
+
+  public SignedTokenAccountLinkingDAO(AccountLinkingDAO delegate, SignedTokenConfig config, TokenExpiryConfig tokenExpiryConfig,
+      MetricRegistry metricRegistry){
+    this(delegate, config, tokenExpiryConfig, metricRegistry, Clock.systemUTC());
+  }
+
+  protected SignedTokenAccountLinkingDAO(AccountLinkingDAO delegate, SignedTokenConfig config, TokenExpiryConfig tokenExpiryConfig,
+      MetricRegistry metricRegistry, Clock clock){
+    if(config == null || config.getSecret() == null
+        || config.getSecret().getBytes(StandardCharsets.UTF_8).length < MINIMUM_SECRET_BYTES){
+      throw new RuntimeException("Could not initialize signed tokens; the secret must be at least " + MINIMUM_SECRET_BYTES + " bytes.");
+    }
+    this.delegate = delegate;
+    this.key = new SecretKeySpec(config.getSecret().getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+    this.authTokenTtlMillis = TimeUnit.SECONDS.toMillis(tokenExpiryConfig.getAuthTokenTtlSeconds());
+    this.revocationRefreshSeconds = config.getRevocationRefreshSeconds();
+    this.clock = clock;
+    this.macs = ThreadLocal.withInitial(this::newMac);
+    newMac(); //Fail at startup rather than on the first request if the JVM can't provide HmacSHA256
+
+    accepted = metricRegistry.meter(MetricRegistry.name(SignedTokenAccountLinkingDAO.class, "accepted"));
+    rejected = metricRegistry.meter(MetricRegistry.name(SignedTokenAccountLinkingDAO.class, "rejected"));
+    passedThrough = metricRegistry.meter(MetricRegistry.name(SignedTokenAccountLinkingDAO.class, "passedThrough"));
+
+    refreshRevocations();
+  }
+
+  @Override
+  public void start() throws Exception {
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "signed-token-revocation-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(() -> {
+      try{
+        refreshRevocations();
+      }catch(RuntimeException e){
+        LOG.error("Auth token revocation refresh failed.", e);
+      }
+    }, revocationRefreshSeconds, revocationRefreshSeconds, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if(executor != null){
+      executor.shutdownNow();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  private Mac newMac(){
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new RuntimeException("Could not initialize " + HMAC_ALGORITHM + ".", e);
+    }
+  }
+
+  public AccountLinkingDAO getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public String generateAuthToken(String userId) {
+    byte[] userIdBytes = userId.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer payload = ByteBuffer.allocate(HEADER_BYTES + userIdBytes.length);
+    payload.put(FORMAT_VERSION);
+    payload.putLong(authTokenTtlMillis > 0 ? clock.millis() + authTokenTtlMillis : NEVER_EXPIRES_MILLIS);
+    payload.putLong(random.nextLong());
+    payload.putLong(random.nextLong());
+    payload.put(userIdBytes);
+
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    return encoder.encodeToString(payload.array()) + SEPARATOR + encoder.encodeToString(sign(payload.array()));
+  }
+
+  @Override
+  public String getUserIdByAuthToken(String token) {
+    if(!isSigned(token)){
+      passedThrough.mark();
+      return delegate.getUserIdByAuthToken(token);
+    }
+    SignedToken signedToken = verify(token);
+    return signedToken == null ? null : signedToken.userId;
+  }
+
+  @Override
+  public UserAccount loadUserContextByAuthToken(String token) {
+    if(!isSigned(token)){
+      passedThrough.mark();
+      return delegate.loadUserContextByAuthToken(token);
+    }
+    SignedToken signedToken = verify(token);
+    return signedToken == null ? null : delegate.loadUserContextByUserId(signedToken.userId);
+  }
+
+  /**
+   * Signed tokens are revoked until they would have expired anyway; opaque tokens are deleted by the delegate.
+   */
+  @Override
+  public void expireGrantedToken(String token) {
+    if(!isSigned(token)){
+      delegate.expireGrantedToken(token);
+      return;
+    }
+    SignedToken signedToken = verify(token);
+    if(signedToken == null){
+      return;
+    }
+    if(!delegate.revokeAuthToken(signedToken.tokenId, signedToken.expiresAtMillis)){
+      LOG.error("Could not revoke auth token '" + signedToken.tokenId + "'.");
+      return;
+    }
+    synchronized(this){
+      localRevocations.put(signedToken.tokenId, signedToken.expiresAtMillis);
+      Set<String> updated = new HashSet<String>(revokedTokenIds);
+      updated.add(signedToken.tokenId);
+      revokedTokenIds = updated;
+    }
+  }
+
+  private static boolean isSigned(String token){
+    return token != null && token.indexOf(SEPARATOR) >= 0;
+  }
+
+  /**
+   * @return The token's contents, or null if it is malformed, forged, expired or revoked
+   */
+  protected SignedToken verify(String token){
+    int separator = token.indexOf(SEPARATOR);
+    byte[] payload;
+    byte[] signature;
+    try{
+      Base64.Decoder decoder = Base64.getUrlDecoder();
+      payload = decoder.decode(token.substring(0, separator));
+      signature = decoder.decode(token.substring(separator + 1));
+    }catch(IllegalArgumentException e){
+      rejected.mark();
+      return null;
+    }
+    if(payload.length <= HEADER_BYTES || payload[0] != FORMAT_VERSION || !MessageDigest.isEqual(sign(payload), signature)){
+      rejected.mark();
+      return null;
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(payload);
+    buffer.get();
+    long expiresAtMillis = buffer.getLong();
+    String tokenId = new UUID(buffer.getLong(), buffer.getLong()).toString();
+    String userId = new String(payload, HEADER_BYTES, payload.length - HEADER_BYTES, StandardCharsets.UTF_8);
+    if(expiresAtMillis <= clock.millis() || revokedTokenIds.contains(tokenId)){
+      rejected.mark();
+      return null;
+    }
+    accepted.mark();
+    return new SignedToken(tokenId, userId, expiresAtMillis);
+  }
+
+  private byte[] sign(byte[] payload){
+    return macs.get().doFinal(payload);
+  }
+
+  /**
+   * Re-reads the revocation list from the delegate, keeping any local revocation the delegate's answer doesn't
+   * include yet. Local revocations are forgotten once the delegate reports them or the token has expired.
+   */
+  public void refreshRevocations(){
+    Set<String> tokenIds = delegate.getRevokedAuthTokenIds();
+    if(tokenIds == null){
+      LOG.error("Could not refresh the auth token revocation list; keeping the previous one.");
+      return;
+    }
+    long now = clock.millis();
+    synchronized(this){
+      localRevocations.entrySet().removeIf(entry -> tokenIds.contains(entry.getKey()) || entry.getValue() <= now);
+      Set<String> merged = new HashSet<String>(tokenIds);
+      merged.addAll(localRevocations.keySet());
+      revokedTokenIds = merged;
+    }
+  }
+
+  protected static class SignedToken{
+    private final String tokenId;
+    private final String userId;
+    private final long expiresAtMillis;
+
+    private SignedToken(String tokenId, String userId, long expiresAtMillis){
+      this.tokenId = tokenId;
+      this.userId = userId;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  @Override
+  public UserAccount getUserByUserId(String userId) {
+    return delegate.getUserByUserId(userId);
+  }
+
+  @Override
+  public UserAccount updateUser(UserAccount user) {
+    return delegate.updateUser(user);
+  }
+
+  @Override
+  public String generateMappingTokenForUserId(String userId) {
+    return delegate.generateMappingTokenForUserId(userId);
+  }
+
+  @Override
+  public String getUserIdByMappingToken(String token) {
+    return delegate.getUserIdByMappingToken(token);
+  }
+
+  @Override
+  public void expireMappingToken(String token) {
+    delegate.expireMappingToken(token);
+  }
+
+  @Override
+  public int purgeExpiredMappingTokens(int limit) {
+    return delegate.purgeExpiredMappingTokens(limit);
+  }
+
+  @Override
+  public int purgeExpiredAuthTokens(int limit) {
+    return delegate.purgeExpiredAuthTokens(limit);
+  }
+
+  @Override
+  public boolean forEachLiveMappingToken(Consumer<String> consumer) {
+    return delegate.forEachLiveMappingToken(consumer);
+  }
+
+  @Override
+  public boolean forEachLiveAuthToken(Consumer<String> consumer) {
+    return delegate.forEachLiveAuthToken(consumer);
+  }
+
+  @Override
+  public long countMappingTokens() {
+    return delegate.countMappingTokens();
+  }
+
+  @Override
+  public long countAuthTokens() {
+    return delegate.countAuthTokens();
+  }
+
+  @Override
+  public UserAccount loadUserContextByUserId(String userId) {
+    return delegate.loadUserContextByUserId(userId);
+  }
+
+  @Override
+  public boolean revokeAuthToken(String tokenId, long expiresAtMillis) {
+    return delegate.revokeAuthToken(tokenId, expiresAtMillis);
+  }
+
+  @Override
+  public Set<String> getRevokedAuthTokenIds() {
+    return delegate.getRevokedAuthTokenIds();
+  }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) {
+    return delegate.purgeExpiredRevocations(limit);
+  }
+
+  @Override
+  public ExternalAccountLink createAccountLink(ExternalAccountLink link) {
+    return delegate.createAccountLink(link);
+  }
+
+  @Override
+  public List<ExternalAccountLink> createAccountLinks(Collection<ExternalAccountLink> links) {
+    return delegate.createAccountLinks(links);
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByUserIdAndExternalSystemName(String userId, String externalSystemName) {
+    return delegate.getAccountLinkByUserIdAndExternalSystemName(userId, externalSystemName);
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByExternalUserIdAndExternalSystemName(String externalUserId, String externalSystemName) {
+    return delegate.getAccountLinkByExternalUserIdAndExternalSystemName(externalUserId, externalSystemName);
+  }
+
+  @Override
+  public List<ExternalAccountLink> getAccountLinksByUserId(String userId) {
+    return delegate.getAccountLinksByUserId(userId);
+  }
+}
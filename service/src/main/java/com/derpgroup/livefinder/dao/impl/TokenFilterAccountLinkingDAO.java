@@ -0,0 +1,361 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.TokenFilterConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * Rejects unknown mapping and auth tokens without touching the delegate, using a Bloom filter of issued tokens.
+ *
+ * A "no" from the filter is definite, so only tokens the filter may contain reach the delegate. Issued tokens
+ * are added as they are handed out. Bloom filters can't forget, so expired and deleted tokens stay in the
+ * filter, costing only a delegate lookup, until the filter is rebuilt from the delegate's live tokens. The
+ * first build runs in the background as soon as this is started, so a large store doesn't hold up startup, and
+ * then again every rebuildIntervalSeconds; call rebuild() directly when not running under a lifecycle. Until a
+ * build has succeeded the filter lets everything through, so a slow or failed scan never locks users out.
+ *
+ * The falsePositiveRate gauges report the share of lookups the filter passed that the delegate then rejected;
+ * that includes expired and revoked tokens as well as true hash collisions.
+ */
+public class TokenFilterAccountLinkingDAO implements AccountLinkingDAO, Managed {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TokenFilterAccountLinkingDAO.class);
+
+  private final AccountLinkingDAO delegate;
+  private final long rebuildIntervalSeconds;
+  private final TokenFilter mappingTokens;
+  private final TokenFilter authTokens;
+
+  private ScheduledExecutorService executor;
+
+  public TokenFilterAccountLinkingDAO(AccountLinkingDAO delegate, TokenFilterConfig config){
+    this(delegate, config, new MetricRegistry());
+  }
+
+  public TokenFilterAccountLinkingDAO(AccountLinkingDAO delegate, TokenFilterConfig config, MetricRegistry metricRegistry){
+    this.delegate = delegate;
+    this.rebuildIntervalSeconds = config.getRebuildIntervalSeconds();
+    mappingTokens = new TokenFilter("mappingTokens", config, metricRegistry,
+        delegate::forEachLiveMappingToken, delegate::countMappingTokens);
+    authTokens = new TokenFilter("authTokens", config, metricRegistry,
+        delegate::forEachLiveAuthToken, delegate::countAuthTokens);
+  }
+
+  @Override
+  public void start() throws Exception {
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "token-filter-rebuild");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(() -> {
+      try{
+        rebuild();
+      }catch(RuntimeException e){
+        LOG.error("Token filter rebuild failed.", e);
+      }
+    }, 0, rebuildIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if(executor != null){
+      executor.shutdownNow();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Rebuilds both filters from the delegate's live tokens, dropping expired and deleted ones.
+   */
+  public void rebuild(){
+    mappingTokens.rebuild();
+    authTokens.rebuild();
+  }
+
+  public AccountLinkingDAO getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public String generateMappingTokenForUserId(String userId) {
+    String token = delegate.generateMappingTokenForUserId(userId);
+    if(token != null){
+      mappingTokens.put(token);
+    }
+    return token;
+  }
+
+  @Override
+  public String getUserIdByMappingToken(String token) {
+    return mappingTokens.guard(token, delegate::getUserIdByMappingToken);
+  }
+
+  @Override
+  public String generateAuthToken(String userId) {
+    String token = delegate.generateAuthToken(userId);
+    if(token != null){
+      authTokens.put(token);
+    }
+    return token;
+  }
+
+  @Override
+  public String getUserIdByAuthToken(String token) {
+    return authTokens.guard(token, delegate::getUserIdByAuthToken);
+  }
+
+  @Override
+  public UserAccount loadUserContextByAuthToken(String token) {
+    return authTokens.guard(token, delegate::loadUserContextByAuthToken);
+  }
+
+  /**
+   * Membership filter for one kind of token. Guava's BloomFilter isn't safe for concurrent writers, so each
+   * filter generation carries its own lock; lookups share it and only issuance takes it exclusively.
+   */
+  private static class TokenFilter{
+
+    private final String name;
+    private final int expectedInsertions;
+    private final double falsePositiveProbability;
+    private final Function<Consumer<String>, Boolean> scanner;
+    private final Supplier<Long> counter;
+
+    private volatile Generation current;
+    private volatile Generation rebuilding;
+
+    private final Meter rejected;
+    private final Meter passed;
+    private final Meter falsePositives;
+
+    private TokenFilter(String name, TokenFilterConfig config, MetricRegistry metricRegistry,
+        Function<Consumer<String>, Boolean> scanner, Supplier<Long> counter){
+      this.name = name;
+      this.expectedInsertions = config.getExpectedInsertions();
+      this.falsePositiveProbability = config.getFalsePositiveProbability();
+      this.scanner = scanner;
+      this.counter = counter;
+
+      rejected = metricRegistry.meter(MetricRegistry.name(TokenFilterAccountLinkingDAO.class, name, "rejected"));
+      passed = metricRegistry.meter(MetricRegistry.name(TokenFilterAccountLinkingDAO.class, name, "passed"));
+      falsePositives = metricRegistry.meter(MetricRegistry.name(TokenFilterAccountLinkingDAO.class, name, "falsePositives"));
+      metricRegistry.register(MetricRegistry.name(TokenFilterAccountLinkingDAO.class, name, "falsePositiveRate"), new Gauge<Double>() {
+        @Override
+        public Double getValue() {
+          long passedCount = passed.getCount();
+          return passedCount == 0 ? 0.0 : (double) falsePositives.getCount() / passedCount;
+        }
+      });
+      metricRegistry.register(MetricRegistry.name(TokenFilterAccountLinkingDAO.class, name, "expectedFalsePositiveProbability"), new Gauge<Double>() {
+        @Override
+        public Double getValue() {
+          Generation generation = current;
+          return generation == null ? 1.0 : generation.expectedFpp();
+        }
+      });
+    }
+
+    private <T> T guard(String token, Function<String, T> lookup){
+      Generation generation = current;
+      if(token != null && generation != null && !generation.mightContain(token)){
+        rejected.mark();
+        return null;
+      }
+      passed.mark();
+      T result = lookup.apply(token);
+      if(result == null){
+        falsePositives.mark();
+      }
+      return result;
+    }
+
+    /**
+     * Reads the rebuilding generation before the current one. If a rebuild swaps generations in between, the
+     * token still lands in the new one; if no rebuild was running, the token was stored before any later scan.
+     */
+    private void put(String token){
+      Generation next = rebuilding;
+      Generation generation = current;
+      if(next != null){
+        next.put(token);
+      }
+      if(generation != null && generation != next){
+        generation.put(token);
+      }
+    }
+
+    private synchronized void rebuild(){
+      long count = counter.get();
+      int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(expectedInsertions, count * 2));
+      Generation next = new Generation(capacity, falsePositiveProbability);
+      rebuilding = next;
+      try{
+        if(!scanner.apply(next::put)){
+          LOG.error("Could not rebuild the " + name + " filter; keeping the previous one.");
+          return;
+        }
+        current = next;
+        LOG.info("Rebuilt the " + name + " filter for " + capacity + " tokens.");
+      }finally{
+        rebuilding = null;
+      }
+    }
+  }
+
+  private static class Generation{
+
+    private final BloomFilter<CharSequence> filter;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Generation(int expectedInsertions, double falsePositiveProbability){
+      filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, falsePositiveProbability);
+    }
+
+    private boolean mightContain(String token){
+      lock.readLock().lock();
+      try{
+        return filter.mightContain(token);
+      }finally{
+        lock.readLock().unlock();
+      }
+    }
+
+    private void put(String token){
+      lock.writeLock().lock();
+      try{
+        filter.put(token);
+      }finally{
+        lock.writeLock().unlock();
+      }
+    }
+
+    private double expectedFpp(){
+      lock.readLock().lock();
+      try{
+        return filter.expectedFpp();
+      }finally{
+        lock.readLock().unlock();
+      }
+    }
+  }
+
+  @Override
+  public UserAccount getUserByUserId(String userId) {
+    return delegate.getUserByUserId(userId);
+  }
+
+  @Override
+  public UserAccount updateUser(UserAccount user) {
+    return delegate.updateUser(user);
+  }
+
+  @Override
+  public void expireMappingToken(String token) {
+    delegate.expireMappingToken(token);
+  }
+
+  @Override
+  public void expireGrantedToken(String token) {
+    delegate.expireGrantedToken(token);
+  }
+
+  @Override
+  public int purgeExpiredMappingTokens(int limit) {
+    return delegate.purgeExpiredMappingTokens(limit);
+  }
+
+  @Override
+  public int purgeExpiredAuthTokens(int limit) {
+    return delegate.purgeExpiredAuthTokens(limit);
+  }
+
+  @Override
+  public boolean forEachLiveMappingToken(Consumer<String> consumer) {
+    return delegate.forEachLiveMappingToken(consumer);
+  }
+
+  @Override
+  public boolean forEachLiveAuthToken(Consumer<String> consumer) {
+    return delegate.forEachLiveAuthToken(consumer);
+  }
+
+  @Override
+  public long countMappingTokens() {
+    return delegate.countMappingTokens();
+  }
+
+  @Override
+  public long countAuthTokens() {
+    return delegate.countAuthTokens();
+  }
+
+  @Override
+  public UserAccount loadUserContextByUserId(String userId) {
+    return delegate.loadUserContextByUserId(userId);
+  }
+
+  @Override
+  public boolean revokeAuthToken(String tokenId, long expiresAtMillis) {
+    return delegate.revokeAuthToken(tokenId, expiresAtMillis);
+  }
+
+  @Override
+  public Set<String> getRevokedAuthTokenIds() {
+    return delegate.getRevokedAuthTokenIds();
+  }
+
+  @Override
+  public int purgeExpiredRevocations(int limit) {
+    return delegate.purgeExpiredRevocations(limit);
+  }
+
+  @Override
+  public ExternalAccountLink createAccountLink(ExternalAccountLink link) {
+    return delegate.createAccountLink(link);
+  }
+
+  @Override
+  public List<ExternalAccountLink> createAccountLinks(Collection<ExternalAccountLink> links) {
+    return delegate.createAccountLinks(links);
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByUserIdAndExternalSystemName(String userId, String externalSystemName) {
+    return delegate.getAccountLinkByUserIdAndExternalSystemName(userId, externalSystemName);
+  }
+
+  @Override
+  public ExternalAccountLink getAccountLinkByExternalUserIdAndExternalSystemName(String externalUserId, String externalSystemName) {
+    return delegate.getAccountLinkByExternalUserIdAndExternalSystemName(externalUserId, externalSystemName);
+  }
+
+  @Override
+  public List<ExternalAccountLink> getAccountLinksByUserId(String userId) {
+    return delegate.getAccountLinksByUserId(userId);
+  }
+}
@@ -0,0 +1,144 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.derpgroup.livefinder.configuration.TokenExpiryConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+
+/**
+ * Periodically deletes expired mapping tokens, auth tokens and auth token revocations on a single background
+ * thread.
+ *
+ * Each pass deletes in batches of at most sweepBatchSize rows until a batch comes back short, so no single
+ * statement holds locks for long and request threads never wait on a sweep. Table sizes are counted once per
+ * pass and served from memory, so scraping the gauges never touches the store.
+ */
+public class TokenSweeper implements Managed {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TokenSweeper.class);
+
+  private final AccountLinkingDAO dao;
+  private final long sweepIntervalSeconds;
+  private final int sweepBatchSize;
+
+  private final Meter mappingTokensSwept;
+  private final Meter authTokensSwept;
+  private final Meter revocationsSwept;
+  private final Timer sweepTimer;
+  private final AtomicLong mappingTokenCount = new AtomicLong(-1);
+  private final AtomicLong authTokenCount = new AtomicLong(-1);
+
+  private ScheduledExecutorService executor;
+
+  public TokenSweeper(AccountLinkingDAO dao, TokenExpiryConfig config, MetricRegistry metricRegistry){
+    this.dao = dao;
+    this.sweepIntervalSeconds = config.getSweepIntervalSeconds();
+    this.sweepBatchSize = config.getSweepBatchSize();
+
+    mappingTokensSwept = metricRegistry.meter(MetricRegistry.name(TokenSweeper.class, "mappingTokens", "swept"));
+    authTokensSwept = metricRegistry.meter(MetricRegistry.name(TokenSweeper.class, "authTokens", "swept"));
+    revocationsSwept = metricRegistry.meter(MetricRegistry.name(TokenSweeper.class, "revocations", "swept"));
+    sweepTimer = metricRegistry.timer(MetricRegistry.name(TokenSweeper.class, "sweep"));
+    metricRegistry.register(MetricRegistry.name(TokenSweeper.class, "mappingTokens", "size"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return mappingTokenCount.get();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(TokenSweeper.class, "authTokens", "size"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return authTokenCount.get();
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "token-sweeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::sweepSafely, sweepIntervalSeconds, sweepIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if(executor != null){
+      executor.shutdownNow();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * An exception escaping a scheduled task cancels every later run, so failures are logged and swallowed here.
+   */
+  private void sweepSafely(){
+    try{
+      sweep();
+    }catch(RuntimeException e){
+      LOG.error("Token sweep failed.", e);
+    }
+  }
+
+  /**
+   * Runs one full pass over both token stores.
+   */
+  public void sweep(){
+    Timer.Context context = sweepTimer.time();
+    try{
+      long mappingTokens = sweepBatches(dao::purgeExpiredMappingTokens, mappingTokensSwept);
+      long authTokens = sweepBatches(dao::purgeExpiredAuthTokens, authTokensSwept);
+      sweepBatches(dao::purgeExpiredRevocations, revocationsSwept);
+      mappingTokenCount.set(dao.countMappingTokens());
+      authTokenCount.set(dao.countAuthTokens());
+      if(mappingTokens > 0 || authTokens > 0){
+        LOG.info("Swept " + mappingTokens + " expired mapping tokens and " + authTokens + " expired auth tokens.");
+      }
+    }finally{
+      context.stop();
+    }
+  }
+
+  private long sweepBatches(Purge purge, Meter swept){
+    long total = 0;
+    while(!Thread.currentThread().isInterrupted()){
+      int purged = purge.purge(sweepBatchSize);
+      if(purged <= 0){
+        break;
+      }
+      swept.mark(purged);
+      total += purged;
+      if(purged < sweepBatchSize){
+        break;
+      }
+    }
+    return total;
+  }
+
+  public long getMappingTokenCount() {
+    return mappingTokenCount.get();
+  }
+
+  public long getAuthTokenCount() {
+    return authTokenCount.get();
+  }
+
+  @FunctionalInterface
+  private interface Purge{
+    int purge(int limit);
+  }
+}
@@ -0,0 +1,39 @@
+package com.derpgroup.livefinder.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.derpgroup.livefinder.configuration.SteamRateLimitConfig;
+import com.derpgroup.livefinder.manager.SteamRateLimiter;
+
+/**
+ * Reports the Steam call budget and any backoff in progress.
+ *
+ * Unhealthy once dailyQuotaUnhealthyPercent of the daily quota is used: past the quota Steam refuses every call
+ * until midnight UTC, which no backoff will fix, so someone needs to know before it runs out. A backoff on its own
+ * stays healthy; the API key is shared by every node, so it says nothing about this node, and it clears by itself.
+ * Alert on the SteamRateLimiter backoffs and rejected meters for those.
+ */
+public class SteamRateLimitHealthCheck extends HealthCheck {
+
+  private final SteamRateLimiter rateLimiter;
+
+  public SteamRateLimitHealthCheck(SteamRateLimiter rateLimiter) {
+    this.rateLimiter = rateLimiter;
+  }
+
+  @Override
+  protected Result check() throws Exception {
+    SteamRateLimitConfig config = rateLimiter.getConfig();
+    long callsToday = rateLimiter.getCallsToday();
+    String daily = callsToday + " of " + config.getDailyQuota() + " daily Steam calls used";
+    if(callsToday * 100 >= config.getDailyQuota() * config.getDailyQuotaUnhealthyPercent()){
+      return Result.unhealthy(daily + "; the quota resets at midnight UTC.");
+    }
+
+    long backoffRemainingMillis = rateLimiter.getBackoffRemainingMillis();
+    if(backoffRemainingMillis > 0){
+      return Result.healthy(daily + "; Steam is throttling the API key, backing off for another " + backoffRemainingMillis + "ms.");
+    }
+    return Result.healthy(String.format("%s; %.1f of %d calls remaining in the burst budget.",
+        daily, rateLimiter.getRemaining(), config.getBurstCapacity()));
+  }
+}
@@ -2,7 +2,6 @@ package com.derpgroup.livefinder.manager;
 
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -27,21 +26,14 @@ import com.derpgroup.livefinder.model.accountlinking.UserAccount;
 import com.derpgroup.livefinder.model.accountlinking.AuthenticationException;
 import com.derpgroup.livefinder.model.accountlinking.InterfaceName;
 import com.lukaspradel.steamapi.core.exception.SteamApiException;
-import com.lukaspradel.steamapi.data.json.friendslist.Friend;
-import com.lukaspradel.steamapi.data.json.friendslist.GetFriendList;
-import com.lukaspradel.steamapi.data.json.playersummaries.GetPlayerSummaries;
 import com.lukaspradel.steamapi.data.json.playersummaries.Player;
-import com.lukaspradel.steamapi.webapi.client.SteamWebApiClient;
-import com.lukaspradel.steamapi.webapi.request.GetFriendListRequest;
-import com.lukaspradel.steamapi.webapi.request.GetPlayerSummariesRequest;
-import com.lukaspradel.steamapi.webapi.request.builders.SteamWebApiRequestFactory;
 
 public class LiveFinderManager{
   private final Logger LOG = LoggerFactory.getLogger(LiveFinderManager.class);
   
   private static final String SERVICE_SLOT_NAME = "service";
 
-  private SteamWebApiClient steamClient;
+  private SteamClient steamClient;
   private static SteamClientWrapper steamClientWrapper;
   private static TwitchClient twitchClient;
   private Map<Integer, String> steamStateValues;
@@ -72,14 +64,22 @@ public class LiveFinderManager{
 
   public void handleRequest(ServiceInput serviceInput,
       ServiceOutput serviceOutput) throws DerpwizardException {
+    handleRequest(serviceInput, serviceOutput, null);
+  }
+
+  /**
+   * @param userContext The caller's already-loaded user and account links, or null to look them up by the metadata userId
+   */
+  public void handleRequest(ServiceInput serviceInput,
+      ServiceOutput serviceOutput, UserAccount userContext) throws DerpwizardException {
     String messageSubject = serviceInput.getSubject();
     
     switch(messageSubject){
     case "START_OF_CONVERSATION":
-      doHelloRequest(serviceInput, serviceOutput);
+      doHelloRequest(serviceInput, serviceOutput, userContext);
       break;
     case "FIND_BY_SERVICE":
-      findByService(serviceInput, serviceOutput);
+      findByService(serviceInput, serviceOutput, userContext);
       break;
       default:
         String message = "Unknown request type '" + messageSubject + "'.";
@@ -107,10 +107,10 @@ public class LiveFinderManager{
   }
 
   protected void doHelloRequest(ServiceInput serviceInput,
-      ServiceOutput serviceOutput) throws DerpwizardException {
+      ServiceOutput serviceOutput, UserAccount userContext) throws DerpwizardException {
     serviceOutput.setConversationEnded(false);
 
-    UserAccount user = getUser(serviceInput,null);
+    UserAccount user = getUser(serviceInput, null, userContext);
     StringBuilder outputMessageBuilder = new StringBuilder();
     if(!StringUtils.isEmpty(user.getFirstName())){
       outputMessageBuilder.append("Hi " + user.getFirstName() + "! ");
@@ -134,7 +134,7 @@ public class LiveFinderManager{
       ServiceOutput serviceOutput) throws DerpwizardException {
   }
   
-  private void findByService(ServiceInput serviceInput, ServiceOutput serviceOutput) throws DerpwizardException{
+  private void findByService(ServiceInput serviceInput, ServiceOutput serviceOutput, UserAccount userContext) throws DerpwizardException{
     Map<String,String> messageMap = serviceInput.getMessageAsMap();
     if(messageMap == null || StringUtils.isEmpty(messageMap.get(SERVICE_SLOT_NAME))){
       String errorMessage = "Could not find by service, because service name was not provided.";
@@ -145,10 +145,10 @@ public class LiveFinderManager{
     String service = messageMap.get("service").toLowerCase();
     switch(service){
     case "steam":
-      findSteamFriends(serviceInput, serviceOutput);
+      findSteamFriends(serviceInput, serviceOutput, userContext);
       break;
     case "twitch":
-      findTwitchStreams(serviceInput,serviceOutput);
+      findTwitchStreams(serviceInput, serviceOutput, userContext);
       break;
       default:
         String message = "Unknown service '" + service + "'.";
@@ -157,18 +157,21 @@ public class LiveFinderManager{
     }
   }
 
-  private void findSteamFriends(ServiceInput serviceInput, ServiceOutput serviceOutput) throws DerpwizardException{
+  private void findSteamFriends(ServiceInput serviceInput, ServiceOutput serviceOutput, UserAccount userContext) throws DerpwizardException{
     steamClient = steamClientWrapper.getClient();
     
-    UserAccount user = getUser(serviceInput, InterfaceName.STEAM);
-    ExternalAccountLink accountLink = getExternalAccountLink(user.getUserId(), InterfaceName.STEAM);
+    UserAccount user = getUser(serviceInput, InterfaceName.STEAM, userContext);
+    ExternalAccountLink accountLink = getExternalAccountLink(user, InterfaceName.STEAM);
     
     List<String> friends = getListOfFriendIdsByUserId(accountLink.getExternalUserId());
     
-    GetPlayerSummaries playerSummaries;
+    List<Player> players;
     try {
-      GetPlayerSummariesRequest playerSummariesRequest = SteamWebApiRequestFactory.createGetPlayerSummariesRequest(friends);
-      playerSummaries = steamClient.<GetPlayerSummaries> processRequest(playerSummariesRequest);
+      players = steamClient.getPlayerSummaries(friends);
+    } catch (SteamRateLimitedException e) {
+      String message = "Steam is busy right now. Please try again in a minute.";
+      LOG.warn(e.getMessage());
+      throw new DerpwizardException(new SsmlDocumentBuilder().text(message).build().getSsml(), message, "Steam rate limit reached.");
     } catch (SteamApiException e) {
       String message = "Unknown Steam exception '" + e.getMessage() + "'.";
       LOG.warn(message);
@@ -181,7 +184,7 @@ public class LiveFinderManager{
     
     SsmlDocumentBuilder voiceOutputSsmlBuilder = new SsmlDocumentBuilder(Arrays.asList("speak"));
     boolean hasFriendsOnline = false;
-    for (Player player : playerSummaries.getResponse().getPlayers()) {
+    for (Player player : players) {
       Integer state = player.getPersonastate();
       if (state == null || state <= 0 || state >= 7) {
         continue;
@@ -205,13 +208,13 @@ public class LiveFinderManager{
   }
 
   public List<String> getListOfFriendIdsByUserId(String steamId) throws DerpwizardException {
-    GetFriendListRequest friendListRequest = SteamWebApiRequestFactory.createGetFriendListRequest(steamId);
-    List<String> friends = new LinkedList<String>();
+    List<String> friends;
     try {
-      GetFriendList friendList = steamClient.<GetFriendList> processRequest(friendListRequest);
-      for (Friend friend : friendList.getFriendslist().getFriends()) {
-        friends.add(friend.getSteamid());
-      }
+      friends = steamClient.getFriendIds(steamId);
+    } catch (SteamRateLimitedException e) {
+      String message = "Steam is busy right now. Please try again in a minute.";
+      LOG.warn(e.getMessage());
+      throw new DerpwizardException(new SsmlDocumentBuilder().text(message).build().getSsml(), message, "Steam rate limit reached.");
     } catch (SteamApiException e) {
       String message = "Unknown Steam exception '" + e.getMessage() + "'.";
       LOG.warn(message);
@@ -220,9 +223,9 @@ public class LiveFinderManager{
     return friends;
   }
   
-  private void findTwitchStreams(ServiceInput serviceInput, ServiceOutput serviceOutput) throws DerpwizardException {
-    UserAccount user = getUser(serviceInput, InterfaceName.TWITCH);
-    ExternalAccountLink accountLink = getExternalAccountLink(user.getUserId(), InterfaceName.TWITCH);
+  private void findTwitchStreams(ServiceInput serviceInput, ServiceOutput serviceOutput, UserAccount userContext) throws DerpwizardException {
+    UserAccount user = getUser(serviceInput, InterfaceName.TWITCH, userContext);
+    ExternalAccountLink accountLink = getExternalAccountLink(user, InterfaceName.TWITCH);
     
     TwitchFollowedStreamsResponse response = null;
     try {
@@ -269,8 +272,22 @@ public class LiveFinderManager{
     serviceOutput.getVisualOutput().setTitle("Active Twitch Streams");
   }
   
+  /**
+   * Uses the user's loaded link map when present, and only falls back to the DAO when links were never loaded.
+   */
+  public ExternalAccountLink getExternalAccountLink(UserAccount user, InterfaceName interfaceName) throws AccountLinkingNotLinkedException{
+    if(user.getExternalAccountLinks() == null){
+      return getExternalAccountLink(user.getUserId(), interfaceName);
+    }
+    return validateExternalAccountLink(user.getUserId(), interfaceName, user.getExternalAccountLinks().get(interfaceName.name()));
+  }
+  
   public ExternalAccountLink getExternalAccountLink(String userId, InterfaceName interfaceName) throws AccountLinkingNotLinkedException{
     ExternalAccountLink accountLink = accountLinkingDAO.getAccountLinkByUserIdAndExternalSystemName(userId, interfaceName.name());
+    return validateExternalAccountLink(userId, interfaceName, accountLink);
+  }
+  
+  private ExternalAccountLink validateExternalAccountLink(String userId, InterfaceName interfaceName, ExternalAccountLink accountLink) throws AccountLinkingNotLinkedException{
     if(accountLink == null){
       LOG.info("No account link found for userId '" + userId + "' and externalSystemName '" + interfaceName.name() + "'.");
       throw new AccountLinkingNotLinkedException(interfaceName);
@@ -282,6 +299,13 @@ public class LiveFinderManager{
     return accountLink;
   }
 
+  public UserAccount getUser(ServiceInput serviceInput, InterfaceName interfaceName, UserAccount userContext) throws DerpwizardException {
+    if(userContext != null){
+      return userContext;
+    }
+    return getUser(serviceInput, interfaceName);
+  }
+
   public UserAccount getUser(ServiceInput serviceInput, InterfaceName interfaceName) throws DerpwizardException {
     String userId = ((LiveFinderMetadata)serviceInput.getMetadata()).getUserId();
     
@@ -0,0 +1,286 @@
+package com.derpgroup.livefinder.manager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.dropwizard.lifecycle.Managed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.SteamApiConfig;
+import com.derpgroup.livefinder.manager.SteamRateLimiter.Priority;
+import com.derpgroup.livefinder.util.SingleFlight;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.lukaspradel.steamapi.core.exception.SteamApiException;
+import com.lukaspradel.steamapi.data.json.friendslist.Friend;
+import com.lukaspradel.steamapi.data.json.friendslist.GetFriendList;
+import com.lukaspradel.steamapi.data.json.playersummaries.GetPlayerSummaries;
+import com.lukaspradel.steamapi.data.json.playersummaries.Player;
+import com.lukaspradel.steamapi.webapi.client.SteamWebApiClient;
+import com.lukaspradel.steamapi.webapi.request.SteamWebApiRequest;
+import com.lukaspradel.steamapi.webapi.request.builders.SteamWebApiRequestFactory;
+
+/**
+ * The Steam Web API calls LiveFinder makes, with player summaries shared across users.
+ *
+ * Summaries are cached process-wide by steamId for a short TTL, so friends that several users have in common are
+ * fetched once per TTL rather than once per query. A lookup only asks Steam for the ids that are missing or have
+ * expired. Ids Steam doesn't return (deleted or unknown accounts) are never cached, so they are asked for again
+ * every time. Cached players are shared between callers and must not be modified.
+ *
+ * Friend lists change far less often than presence, so they are cached separately under their own, longer TTL;
+ * call invalidateFriendIds when a user links a steamId so their next query sees the current list.
+ *
+ * Steam answers at most 100 ids per GetPlayerSummaries call, so larger fetches are split into chunks that run
+ * concurrently on a bounded pool, with the calling thread taking the first chunk. When the pool and its queue are
+ * full the caller runs the chunk itself, so a burst of large friend lists slows down rather than failing.
+ *
+ * Concurrent lookups share work per steamId: a lookup only asks Steam for the missing ids no other lookup is
+ * already fetching, and waits for the rest, so users with friends in common don't fetch them twice. Identical
+ * friend list requests made concurrently share one call. Every call Steam actually receives first takes a token
+ * from the API key's SteamRateLimiter, at the priority of the lookup that needed it; lookups default to
+ * interactive. Lookups only share work with lookups of the same priority, so an interactive lookup never waits
+ * behind, or fails with, a background call that the rate limiter is holding back.
+ */
+public class SteamClient implements Managed {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SteamClient.class);
+
+  static final int MAX_IDS_PER_REQUEST = 100;
+
+  private final SteamWebApiClient client;
+  private final Cache<String, Player> playersBySteamId;
+  private final Cache<String, List<String>> friendIdsBySteamId;
+  private final ThreadPoolExecutor executor;
+  private final Map<Priority, SingleFlight<String, Object>> requests = new EnumMap<Priority, SingleFlight<String, Object>>(Priority.class);
+  private final Map<Priority, SingleFlight<String, Player>> playerFetches = new EnumMap<Priority, SingleFlight<String, Player>>(Priority.class);
+  private final SteamRateLimiter rateLimiter;
+
+  private final Meter calls;
+  private final Meter callsAvoided;
+
+  public SteamClient(SteamWebApiClient client, SteamApiConfig config){
+    this(client, config, new MetricRegistry());
+  }
+
+  public SteamClient(SteamWebApiClient client, SteamApiConfig config, MetricRegistry metricRegistry){
+    this.client = client;
+    rateLimiter = new SteamRateLimiter(config.getRateLimit(), metricRegistry);
+
+    final Cache<String, Player> cache = CacheBuilder.newBuilder()
+        .maximumSize(config.getPresenceCacheMaximumSize())
+        .expireAfterWrite(config.getPresenceTtlSeconds(), TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    playersBySteamId = cache;
+
+    final Cache<String, List<String>> friendListCache = CacheBuilder.newBuilder()
+        .maximumSize(config.getFriendListCacheMaximumSize())
+        .expireAfterWrite(config.getFriendListTtlSeconds(), TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    friendIdsBySteamId = friendListCache;
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(config.getPlayerSummaryThreads(), config.getPlayerSummaryThreads(), 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(config.getPlayerSummaryQueueCapacity()), runnable -> {
+          Thread thread = new Thread(runnable, "steam-player-summaries-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    Meter coalesced = metricRegistry.meter(MetricRegistry.name(SteamClient.class, "coalesced"));
+    for(Priority priority : Priority.values()){
+      requests.put(priority, new SingleFlight<String, Object>(coalesced));
+      playerFetches.put(priority, new SingleFlight<String, Player>(coalesced));
+    }
+    calls = metricRegistry.meter(MetricRegistry.name(SteamClient.class, "presence", "calls"));
+    callsAvoided = metricRegistry.meter(MetricRegistry.name(SteamClient.class, "presence", "callsAvoided"));
+    metricRegistry.register(MetricRegistry.name(SteamClient.class, "presence", "hitRatio"), new Gauge<Double>() {
+      @Override
+      public Double getValue() {
+        return cache.stats().hitRate();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(SteamClient.class, "presence", "size"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return cache.size();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(SteamClient.class, "friendLists", "hitRatio"), new Gauge<Double>() {
+      @Override
+      public Double getValue() {
+        return friendListCache.stats().hitRate();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(SteamClient.class, "friendLists", "size"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return friendListCache.size();
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+  }
+
+  @Override
+  public void stop() throws Exception {
+    executor.shutdown();
+    executor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return The steamIds of the user's friends; the list is shared and must not be modified
+   */
+  public List<String> getFriendIds(String steamId) throws SteamApiException {
+    return getFriendIds(steamId, Priority.INTERACTIVE);
+  }
+
+  /**
+   * @return The steamIds of the user's friends; the list is shared and must not be modified
+   */
+  public List<String> getFriendIds(String steamId, Priority priority) throws SteamApiException {
+    List<String> friendIds = friendIdsBySteamId.getIfPresent(steamId);
+    if(friendIds != null){
+      return friendIds;
+    }
+
+    GetFriendList friendList = processRequest(SteamWebApiRequestFactory.createGetFriendListRequest(steamId), priority);
+    List<String> fetched = new ArrayList<String>();
+    for(Friend friend : friendList.getFriendslist().getFriends()){
+      fetched.add(friend.getSteamid());
+    }
+    friendIds = Collections.unmodifiableList(fetched);
+    friendIdsBySteamId.put(steamId, friendIds);
+    return friendIds;
+  }
+
+  /**
+   * Drops the cached friend list for a steamId, so the next lookup asks Steam.
+   */
+  public void invalidateFriendIds(String steamId){
+    friendIdsBySteamId.invalidate(steamId);
+  }
+
+  /**
+   * @return The summaries Steam has for the given ids, in the order they were asked for
+   */
+  public List<Player> getPlayerSummaries(List<String> steamIds) throws SteamApiException {
+    return getPlayerSummaries(steamIds, Priority.INTERACTIVE);
+  }
+
+  /**
+   * @return The summaries Steam has for the given ids, in the order they were asked for
+   */
+  public List<Player> getPlayerSummaries(List<String> steamIds, Priority priority) throws SteamApiException {
+    if(steamIds.isEmpty()){
+      return new ArrayList<Player>();
+    }
+    Map<String, Player> found = new HashMap<String, Player>(playersBySteamId.getAllPresent(steamIds));
+
+    List<String> missing = new ArrayList<String>(new LinkedHashSet<String>(steamIds));
+    missing.removeAll(found.keySet());
+    if(missing.isEmpty()){
+      callsAvoided.mark();
+    }else{
+      LOG.debug("Fetching " + missing.size() + " of " + steamIds.size() + " player summaries from Steam.");
+      found.putAll(playerFetches.get(priority).executeAll(missing, unfetched -> {
+        Map<String, Player> fetched = new HashMap<String, Player>();
+        for(Player player : fetchPlayerSummaries(unfetched, priority)){
+          playersBySteamId.put(player.getSteamid(), player);
+          fetched.put(player.getSteamid(), player);
+        }
+        return fetched;
+      }));
+    }
+
+    List<Player> players = new ArrayList<Player>(steamIds.size());
+    for(String steamId : steamIds){
+      Player player = found.get(steamId);
+      if(player != null){
+        players.add(player);
+      }
+    }
+    return players;
+  }
+
+  /**
+   * @return The players of every chunk, in chunk order
+   */
+  private List<Player> fetchPlayerSummaries(List<String> steamIds, Priority priority) throws SteamApiException {
+    List<Future<List<Player>>> chunks = new ArrayList<Future<List<Player>>>();
+    for(int start = MAX_IDS_PER_REQUEST; start < steamIds.size(); start += MAX_IDS_PER_REQUEST){
+      final List<String> chunk = steamIds.subList(start, Math.min(start + MAX_IDS_PER_REQUEST, steamIds.size()));
+      chunks.add(executor.submit(() -> fetchChunk(chunk, priority)));
+    }
+
+    List<Player> players = new ArrayList<Player>(fetchChunk(steamIds.subList(0, Math.min(MAX_IDS_PER_REQUEST, steamIds.size())), priority));
+    for(Future<List<Player>> chunk : chunks){
+      try {
+        players.addAll(chunk.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SteamApiException("Interrupted while fetching player summaries.", e);
+      } catch (ExecutionException e) {
+        if(e.getCause() instanceof SteamApiException){
+          throw (SteamApiException) e.getCause();
+        }
+        throw new SteamApiException("Could not fetch player summaries.", e.getCause());
+      }
+    }
+    return players;
+  }
+
+  private List<Player> fetchChunk(List<String> steamIds, Priority priority) throws SteamApiException {
+    calls.mark();
+    GetPlayerSummaries summaries = processRequest(SteamWebApiRequestFactory.createGetPlayerSummariesRequest(steamIds), priority);
+    if(summaries == null || summaries.getResponse() == null || summaries.getResponse().getPlayers() == null){
+      return new ArrayList<Player>();
+    }
+    return summaries.getResponse().getPlayers();
+  }
+
+  /**
+   * Joins an identical request of the same priority already in flight, or makes it once the rate limiter allows.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T processRequest(SteamWebApiRequest request, Priority priority) throws SteamApiException {
+    String key = request.getApiInterface() + "/" + request.getInterfaceMethod() + "/" + request.getVersion()
+        + new TreeMap<String, String>(request.getParameters());
+    return (T) requests.get(priority).execute(key, () -> {
+      rateLimiter.acquire(priority);
+      try {
+        T response = client.<T> processRequest(request);
+        rateLimiter.onSuccess();
+        return response;
+      } catch (SteamApiException e) {
+        rateLimiter.onFailure(e);
+        throw e;
+      }
+    });
+  }
+
+  public SteamRateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+}
@@ -0,0 +1,15 @@
+package com.derpgroup.livefinder.manager;
+
+import com.lukaspradel.steamapi.core.exception.SteamApiException;
+
+/**
+ * A Steam call was refused locally because the API key's rate limit budget ran out; Steam was never called.
+ */
+public class SteamRateLimitedException extends SteamApiException {
+
+  private static final long serialVersionUID = 1L;
+
+  public SteamRateLimitedException(String message){
+    super(message);
+  }
+}
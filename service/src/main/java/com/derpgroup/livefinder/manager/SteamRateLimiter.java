@@ -0,0 +1,224 @@
+package com.derpgroup.livefinder.manager;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.SteamRateLimitConfig;
+import com.google.common.base.Ticker;
+import com.lukaspradel.steamapi.core.exception.SteamApiException;
+
+/**
+ * Token bucket shared by every call made with the Steam API key.
+ *
+ * The bucket refills at requestsPerMinute up to burstCapacity. Interactive calls may spend every token; background
+ * calls leave interactiveReserve tokens for them. A call that can't get a token within its priority's max wait
+ * fails with a SteamRateLimitedException instead of reaching Steam.
+ *
+ * When Steam answers 429 or 5xx, all calls pause for a backoff that starts at initialBackoffMillis and doubles on
+ * every further throttled answer up to maxBackoffMillis; the first successful call clears it. Steam only reports
+ * the status code in the exception message, so that is where it is read from.
+ *
+ * Every call let through, whether or not limiting is enabled, also counts against dailyQuota for the current UTC
+ * day, the period Steam's own daily limit runs on. The count starts over at midnight UTC and is only kept in
+ * memory, so it covers this node since its last restart.
+ */
+public class SteamRateLimiter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SteamRateLimiter.class);
+
+  private static final Pattern STATUS_CODE = Pattern.compile("\\(status code: (\\d+)\\)");
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  public enum Priority {
+    INTERACTIVE,
+    BACKGROUND
+  }
+
+  private final SteamRateLimitConfig config;
+  private final Ticker ticker;
+  private final Clock clock;
+  private final double tokensPerNano;
+
+  private final Meter rejected;
+  private final Meter backoffs;
+
+  private double tokens;
+  private long lastRefillNanos;
+  private long backoffMillis;
+  private long backoffUntilNanos;
+  private long callsToday;
+  private long day;
+
+  public SteamRateLimiter(SteamRateLimitConfig config, MetricRegistry metricRegistry){
+    this(config, metricRegistry, Ticker.systemTicker(), Clock.systemUTC());
+  }
+
+  public SteamRateLimiter(SteamRateLimitConfig config, MetricRegistry metricRegistry, Ticker ticker, Clock clock){
+    this.config = config;
+    this.ticker = ticker;
+    this.clock = clock;
+    day = currentDay();
+    tokensPerNano = config.getRequestsPerMinute() / (double) TimeUnit.MINUTES.toNanos(1);
+    tokens = config.getBurstCapacity();
+    lastRefillNanos = ticker.read();
+
+    rejected = metricRegistry.meter(MetricRegistry.name(SteamRateLimiter.class, "rejected"));
+    backoffs = metricRegistry.meter(MetricRegistry.name(SteamRateLimiter.class, "backoffs"));
+    metricRegistry.register(MetricRegistry.name(SteamRateLimiter.class, "remaining"), new Gauge<Double>() {
+      @Override
+      public Double getValue() {
+        return getRemaining();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(SteamRateLimiter.class, "backoffRemainingMillis"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return getBackoffRemainingMillis();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(SteamRateLimiter.class, "callsToday"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return getCallsToday();
+      }
+    });
+  }
+
+  /**
+   * Takes a token, waiting up to the priority's max wait for one.
+   *
+   * @throws SteamRateLimitedException If no token became available in time
+   */
+  public void acquire(Priority priority) throws SteamApiException {
+    if(!config.isEnabled()){
+      countCall();
+      return;
+    }
+    long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(priority == Priority.INTERACTIVE ? config.getInteractiveMaxWaitMillis() : config.getBackgroundMaxWaitMillis());
+    long waitedNanos = 0;
+    while(true){
+      long waitNanos = tryAcquire(priority);
+      if(waitNanos == 0){
+        return;
+      }
+      if(waitedNanos + waitNanos > maxWaitNanos){
+        rejected.mark();
+        throw new SteamRateLimitedException("Steam rate limit reached; no " + priority.name().toLowerCase() + " budget for "
+            + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms.");
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SteamApiException("Interrupted while waiting for Steam rate limit budget.", e);
+      }
+      waitedNanos += waitNanos;
+    }
+  }
+
+  /**
+   * @return 0 if a token was taken, otherwise how long until one might be
+   */
+  private synchronized long tryAcquire(Priority priority){
+    long now = refill();
+    if(now < backoffUntilNanos){
+      return backoffUntilNanos - now;
+    }
+    double required = priority == Priority.INTERACTIVE ? 1 : config.getInteractiveReserve() + 1;
+    if(tokens >= required){
+      tokens--;
+      countCall();
+      return 0;
+    }
+    return Math.max(1, (long) Math.ceil((required - tokens) / tokensPerNano));
+  }
+
+  private long refill(){
+    long now = ticker.read();
+    tokens = Math.min(config.getBurstCapacity(), tokens + (now - lastRefillNanos) * tokensPerNano);
+    lastRefillNanos = now;
+    return now;
+  }
+
+  public synchronized void onSuccess(){
+    backoffMillis = 0;
+  }
+
+  /**
+   * Starts or extends the backoff if Steam was throttling or failing.
+   */
+  public void onFailure(SteamApiException e){
+    Integer statusCode = getStatusCode(e);
+    if(!config.isEnabled() || statusCode == null || (statusCode != 429 && statusCode < 500)){
+      return;
+    }
+    long backoff;
+    synchronized(this){
+      backoffMillis = backoffMillis == 0 ? config.getInitialBackoffMillis() : Math.min(backoffMillis * 2, config.getMaxBackoffMillis());
+      backoffUntilNanos = ticker.read() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+      backoff = backoffMillis;
+    }
+    backoffs.mark();
+    LOG.warn("Steam answered with status " + statusCode + "; backing off for " + backoff + "ms.");
+  }
+
+  /**
+   * @return The HTTP status in a Steam exception, or null if it wasn't an HTTP error
+   */
+  static Integer getStatusCode(SteamApiException e){
+    if(e.getMessage() == null){
+      return null;
+    }
+    Matcher matcher = STATUS_CODE.matcher(e.getMessage());
+    return matcher.find() ? Integer.valueOf(matcher.group(1)) : null;
+  }
+
+  private synchronized void countCall(){
+    rollDay();
+    callsToday++;
+  }
+
+  private void rollDay(){
+    long today = currentDay();
+    if(today != day){
+      day = today;
+      callsToday = 0;
+    }
+  }
+
+  private long currentDay(){
+    return Math.floorDiv(clock.millis(), DAY_MILLIS);
+  }
+
+  /**
+   * @return Calls let through since midnight UTC
+   */
+  public synchronized long getCallsToday(){
+    rollDay();
+    return callsToday;
+  }
+
+  /**
+   * @return Tokens currently in the bucket
+   */
+  public synchronized double getRemaining(){
+    refill();
+    return tokens;
+  }
+
+  public synchronized long getBackoffRemainingMillis(){
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(backoffUntilNanos - ticker.read()));
+  }
+
+  public SteamRateLimitConfig getConfig() {
+    return config;
+  }
+}
@@ -3,8 +3,10 @@ package com.derpgroup.livefinder.manager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
 import com.derpgroup.livefinder.model.accountlinking.AuthenticationException;
 import com.derpgroup.livefinder.resource.AuthResource;
+import com.derpgroup.livefinder.util.SingleFlight;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mashape.unirest.http.HttpResponse;
@@ -14,6 +16,9 @@ import com.mashape.unirest.request.GetRequest;
 import com.mashape.unirest.request.HttpRequestWithBody;
 import com.mashape.unirest.request.body.MultipartBody;
 
+/**
+ * Identical calls made concurrently, such as a client retrying with the same code or token, share one request.
+ */
 public class TwitchClient {
 
   private static final Logger LOG = LoggerFactory.getLogger(TwitchClient.class);
@@ -28,18 +33,28 @@ public class TwitchClient {
   private String redirectUri;
   
   ObjectMapper mapper;
+  private final SingleFlight<String, Object> requests;
   
   public TwitchClient(String twitchApiRootUri, String clientId, String clientSecret, String redirectUri){
+    this(twitchApiRootUri, clientId, clientSecret, redirectUri, new MetricRegistry());
+  }
+  
+  public TwitchClient(String twitchApiRootUri, String clientId, String clientSecret, String redirectUri, MetricRegistry metricRegistry){
     this.twitchApiRootUri = twitchApiRootUri;
     this.clientId = clientId;
     this.clientSecret = clientSecret;
     this.redirectUri = redirectUri;
     
     mapper = new ObjectMapper();
+    requests = new SingleFlight<String, Object>(metricRegistry.meter(MetricRegistry.name(TwitchClient.class, "coalesced")));
   }
 
-  //Is thread safety gonna be a problem here?
   public TwitchTokenResponse redeemCode(String code) throws AuthenticationException {
+    return (TwitchTokenResponse) requests.execute("redeemCode/" + code, () -> doRedeemCode(code));
+  }
+
+  //Is thread safety gonna be a problem here?
+  private TwitchTokenResponse doRedeemCode(String code) throws AuthenticationException {
     LOG.info("Requesting access token for...\n "
         + "twitchApiRootUri: " + twitchApiRootUri + "\n"
         + "client_id: " + clientId + "\n"
@@ -63,6 +78,10 @@ public class TwitchClient {
   }
   
   public TwitchUserResponse getUser(String accessToken) throws AuthenticationException{
+    return (TwitchUserResponse) requests.execute("user/" + accessToken, () -> doGetUser(accessToken));
+  }
+  
+  private TwitchUserResponse doGetUser(String accessToken) throws AuthenticationException{
     GetRequest request = Unirest.get(twitchApiRootUri + USER_ENDPOINT).header("Authorization", "OAuth " + accessToken);
     
     try {
@@ -75,6 +94,10 @@ public class TwitchClient {
   }
 
   public TwitchFollowedStreamsResponse getFollowedStreams(String accessToken) throws AuthenticationException {
+    return (TwitchFollowedStreamsResponse) requests.execute("followedStreams/" + accessToken, () -> doGetFollowedStreams(accessToken));
+  }
+
+  private TwitchFollowedStreamsResponse doGetFollowedStreams(String accessToken) throws AuthenticationException {
     GetRequest request = Unirest.get(twitchApiRootUri + FOLLOWED_STREAMS_ENDPOINT).header("Authorization", "OAuth " + accessToken);
     
     try {
@@ -3,6 +3,9 @@ package com.derpgroup.livefinder.model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.SteamApiConfig;
+import com.derpgroup.livefinder.manager.SteamClient;
 import com.lukaspradel.steamapi.webapi.client.SteamWebApiClient;
 
 public class SteamClientWrapper {
@@ -10,7 +13,7 @@ public class SteamClientWrapper {
   
   private static SteamClientWrapper instance;
   private boolean initialized = false;
-  private SteamWebApiClient client;
+  private SteamClient client;
 
   private SteamClientWrapper(){}
   
@@ -21,18 +24,18 @@ public class SteamClientWrapper {
     return instance;
   }
   
-  public synchronized void init(String apiKey){
+  public synchronized void init(String apiKey, SteamApiConfig config, MetricRegistry metricRegistry){
     LOG.info("Initializing Steam Client.");
     if(initialized){
       throw new RuntimeException("SteamClient is already initialized");
     }
-    client = new SteamWebApiClient.SteamWebApiClientBuilder(apiKey).build();
+    client = new SteamClient(new SteamWebApiClient.SteamWebApiClientBuilder(apiKey).build(), config, metricRegistry);
     initialized = true;
   }
   
   public boolean isInitialized(){return initialized;}
 
-  public SteamWebApiClient getClient() {
+  public SteamClient getClient() {
     return client;
   }
 }
@@ -3,6 +3,7 @@ package com.derpgroup.livefinder.model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
 import com.derpgroup.livefinder.manager.TwitchClient;
 import com.lukaspradel.steamapi.webapi.client.SteamWebApiClient;
 
@@ -22,12 +23,12 @@ public class TwitchClientWrapper {
     return instance;
   }
   
-  public synchronized void init(String twitchApiRootUri, String clientId, String clientSecret, String redirectUri){
+  public synchronized void init(String twitchApiRootUri, String clientId, String clientSecret, String redirectUri, MetricRegistry metricRegistry){
     LOG.info("Initializing Steam Client.");
     if(initialized){
       throw new RuntimeException("TwitchClient is already initialized");
     }
-    client = new TwitchClient(twitchApiRootUri, clientId, clientSecret, redirectUri);
+    client = new TwitchClient(twitchApiRootUri, clientId, clientSecret, redirectUri, metricRegistry);
     initialized = true;
   }
   
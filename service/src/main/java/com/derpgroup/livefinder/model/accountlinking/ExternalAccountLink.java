@@ -8,6 +8,16 @@ public class ExternalAccountLink {
   private String authToken;
   private String refreshToken;
   
+  public ExternalAccountLink(){}
+  
+  public ExternalAccountLink(ExternalAccountLink other){
+    this.userId = other.userId;
+    this.externalUserId = other.externalUserId;
+    this.externalSystemName = other.externalSystemName;
+    this.authToken = other.authToken;
+    this.refreshToken = other.refreshToken;
+  }
+  
   public String getUserId() {
     return userId;
   }
@@ -1,6 +1,6 @@
 package com.derpgroup.livefinder.model.accountlinking;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
@@ -17,6 +17,26 @@ public class UserAccount {
   private long dateCreated;
   private Map<String,ExternalAccountLink> externalAccountLinks;
   
+  public UserAccount(){}
+  
+  /**
+   * Copies the account and each of its links; the TwitchUser is shared.
+   */
+  public UserAccount(UserAccount other){
+    this.userId = other.userId;
+    this.twitchUser = other.twitchUser;
+    this.steamId = other.steamId;
+    this.alexaId = other.alexaId;
+    this.firstName = other.firstName;
+    this.dateCreated = other.dateCreated;
+    if(other.externalAccountLinks != null){
+      this.externalAccountLinks = new HashMap<String,ExternalAccountLink>();
+      for(Map.Entry<String,ExternalAccountLink> entry : other.externalAccountLinks.entrySet()){
+        this.externalAccountLinks.put(entry.getKey(), new ExternalAccountLink(entry.getValue()));
+      }
+    }
+  }
+  
   public String getUserId() {
     return userId;
   }
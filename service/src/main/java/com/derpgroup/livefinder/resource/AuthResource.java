@@ -48,9 +48,11 @@ import org.slf4j.LoggerFactory;
 import com.derpgroup.derpwizard.voice.exception.DerpwizardException;
 import com.derpgroup.livefinder.configuration.MainConfig;
 import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.manager.SteamClient;
 import com.derpgroup.livefinder.manager.TwitchClient;
 import com.derpgroup.livefinder.manager.TwitchTokenResponse;
 import com.derpgroup.livefinder.manager.TwitchUserResponse;
+import com.derpgroup.livefinder.model.SteamClientWrapper;
 import com.derpgroup.livefinder.model.TwitchClientWrapper;
 import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
 import com.derpgroup.livefinder.model.accountlinking.InterfaceName;
@@ -77,6 +79,7 @@ public class AuthResource {
   private String steamErrorPagePath;
   private String alexaRedirectPath;*/
   private TwitchClient twitchClient;
+  private SteamClient steamClient;
   
   
   public AuthResource(MainConfig config, Environment env, AccountLinkingDAO accountLinkingDAO) {
@@ -89,6 +92,7 @@ public class AuthResource {
     alexaRedirectPath = config.getLiveFinderConfig().getAlexaAccountLinkingConfig().getAlexaRedirectPath();*/
     
     twitchClient = TwitchClientWrapper.getInstance().getClient();
+    steamClient = SteamClientWrapper.getInstance().getClient();
   }
   
   @GET
@@ -110,15 +114,13 @@ public class AuthResource {
     }
     
     LOG.debug("Retrieving user details for derpId '" + userId + "'.");
-    UserAccount user = accountLinkingDAO.getUserByUserId(userId);
+    UserAccount user = accountLinkingDAO.loadUserContextByUserId(userId);
     
     if(user == null){
       LOG.error("No valid user details were associated with the token provided.");
       throw new WebApplicationException("No valid user details were associated with the token provided.",Response.Status.FORBIDDEN);
     }
     
-    user.setExternalAccountLinks(accountLinksListToMap(accountLinkingDAO.getAccountLinksByUserId(userId)));
-    
     String accessToken = accountLinkingDAO.generateAuthToken(user.getUserId());
     
     return Response.ok(user).header("Access-Token", accessToken).build();
@@ -154,6 +156,7 @@ public class AuthResource {
     accountLink.setExternalSystemName(InterfaceName.STEAM.name());
 
     accountLinkingDAO.createAccountLink(accountLink);
+    steamClient.invalidateFriendIds(externalId);
     
     user.setExternalAccountLinks(accountLinksListToMap(accountLinkingDAO.getAccountLinksByUserId(user.getUserId())));
     return user;
@@ -201,8 +204,6 @@ public class AuthResource {
     }
     user.setUserId(tokenUser.getUserId());
     
-    UserAccount userAccountResponse = accountLinkingDAO.updateUser(user);
-    
     if(user.getExternalAccountLinks() != null){
       for(ExternalAccountLink link : user.getExternalAccountLinks().values()){
         if(!user.getUserId().equals(link.getUserId())){
@@ -210,11 +211,24 @@ public class AuthResource {
               user.getUserId(), link.getUserId());
           return Response.status(Response.Status.BAD_REQUEST).entity(new AuthenticationException(message)).build();
         }
-        
-        accountLinkingDAO.createAccountLink(link);
       }
     }
     
+    //The links are only written once the user is saved, so a failed user write never leaves links for it behind
+    UserAccount userAccountResponse = accountLinkingDAO.updateUser(user);
+    
+    if(userAccountResponse == null){
+      String message = "Could not save user '" + user.getUserId() + "'.";
+      LOG.error(message);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new AuthenticationException(message)).build();
+    }
+    
+    if(user.getExternalAccountLinks() != null && accountLinkingDAO.createAccountLinks(user.getExternalAccountLinks().values()) == null){
+      String message = "Could not save account links for user '" + user.getUserId() + "'.";
+      LOG.error(message);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new AuthenticationException(message)).build();
+    }
+    
     userAccountResponse.setExternalAccountLinks(user.getExternalAccountLinks());
     
     return userAccountResponse;
@@ -225,12 +239,9 @@ public class AuthResource {
   @Produces(MediaType.TEXT_PLAIN)
   public Response doTwitchAuth(@QueryParam("code") String code,@QueryParam("state") String state){
     
-    UserAccount user;
-    try {
-      user = validateAccessToken(state);
-    } catch (AuthenticationException e) {
+    if(state == null){
       LOG.error("Could not validate access token.");
-      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+      return Response.status(Response.Status.BAD_REQUEST).entity("Missing required parameter 'accessToken'").build();
     }
 
     if(StringUtils.isEmpty(code)){
@@ -239,7 +250,16 @@ public class AuthResource {
       return Response.status(Response.Status.BAD_REQUEST).entity(error).build();
     }
     
-    LOG.info("Requesting access token for user '" + user.getUserId() + "' with code '" + code + "'.");
+    //The token is checked before the code is redeemed, so a bad token never gets Twitch credentials issued for it
+    UserAccount user;
+    try {
+      user = validateAccessToken(state);
+    } catch (AuthenticationException e) {
+      LOG.error("Could not validate access token.");
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+    }
+    
+    LOG.info("Requesting access token with code '" + code + "'.");
     TwitchTokenResponse tokenResponse;
     try {
       tokenResponse = twitchClient.redeemCode(code);
@@ -248,7 +268,7 @@ public class AuthResource {
       return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
     }
     
-    LOG.info("Requesting twitch user info for user '" + user.getUserId() + "'.");
+    LOG.info("Requesting twitch user info.");
     TwitchUserResponse userResponse;
     try {
       userResponse = twitchClient.getUser(tokenResponse.getAccessToken());
@@ -256,6 +276,8 @@ public class AuthResource {
       return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
     }
     
+    LOG.info("Linking twitch user '" + userResponse.getDisplayName() + "' to user '" + user.getUserId() + "'.");
+    
     TwitchUser twitchUser = new TwitchUser();
     twitchUser.setAuthToken(tokenResponse.getAccessToken());
     twitchUser.setRefreshToken(tokenResponse.getRefreshToken());
@@ -290,28 +312,20 @@ public class AuthResource {
   
   public UserAccount validateAccessToken(String accessToken) throws AuthenticationException{
 
-    String userId = null;
     if(accessToken == null){
       String error = "Missing required parameter 'accessToken'";
       throw new AuthenticationException(error);
-    }else{
-      LOG.debug("Looking up userId for acessToken '" + accessToken + "'.");
-      userId = accountLinkingDAO.getUserIdByAuthToken(accessToken);
-    }
-    if(userId == null){
-      String error = "Token could not be resolved to a known user.";
-      throw new AuthenticationException(error);
     }
     
-    LOG.debug("Looking up user for userId '" + userId + "'.");
-    UserAccount user = accountLinkingDAO.getUserByUserId(userId);
+    LOG.debug("Looking up user context for acessToken '" + accessToken + "'.");
+    return requireUser(accountLinkingDAO.loadUserContextByAuthToken(accessToken));
+  }
+  
+  private UserAccount requireUser(UserAccount user) throws AuthenticationException{
     if(user == null){
-      String error = "Couldn't find user with userId '" + userId + "'.";
+      String error = "Token could not be resolved to a known user.";
       throw new AuthenticationException(error);
     }
-    
-    user.setExternalAccountLinks(accountLinksListToMap(accountLinkingDAO.getAccountLinksByUserId(userId)));
-    
     return user;
   }
   
@@ -64,6 +64,7 @@ import com.derpgroup.livefinder.LiveFinderMetadata;
 import com.derpgroup.livefinder.MixInModule;
 import com.derpgroup.livefinder.configuration.MainConfig;
 import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.dao.impl.AccountLinkWriteBehindQueue;
 import com.derpgroup.livefinder.manager.LiveFinderManager;
 import com.derpgroup.livefinder.model.accountlinking.AccountLinkingNotLinkedException;
 import com.derpgroup.livefinder.model.accountlinking.UserAccount;
@@ -89,14 +90,17 @@ public class LiveFinderAlexaResource {
   
   private AccountLinkingDAO accountLinkingDAO;
   
+  private AccountLinkWriteBehindQueue accountLinkWriter;
+  
   private ObjectMapper mapper;
   
   String linkingFlowHostname;
   String linkingFlowProtocol;
   String landingPagePath;
   
-  public LiveFinderAlexaResource(MainConfig config, Environment env, AccountLinkingDAO accountLinkingDAO) {
+  public LiveFinderAlexaResource(MainConfig config, Environment env, AccountLinkingDAO accountLinkingDAO, AccountLinkWriteBehindQueue accountLinkWriter) {
     this.accountLinkingDAO = accountLinkingDAO;
+    this.accountLinkWriter = accountLinkWriter;
     manager = new LiveFinderManager(accountLinkingDAO);
     mapper = new ObjectMapper().registerModule(new MixInModule());
     
@@ -126,6 +130,7 @@ public class LiveFinderAlexaResource {
       } 
       
       String userId;
+      UserAccount user;
       String accessToken = request.getSession().getUser().getAccessToken();
       String alexaUserId = request.getSession().getUser().getUserId();
       
@@ -135,21 +140,22 @@ public class LiveFinderAlexaResource {
         throw new DerpwizardException(message);
       }else if(StringUtils.isEmpty(accessToken)){
         return doAccountLinking(new LiveFinderMetadata(), "Unauthorized user - please complete account linking via the Alexa app on your mobile device or browser."); //Do account linking prompt here
-      }else if(StringUtils.isEmpty(accountLinkingDAO.getUserIdByAuthToken(accessToken))){
+      }
+      
+      user = accountLinkingDAO.loadUserContextByAuthToken(accessToken);
+      if(user == null || StringUtils.isEmpty(user.getUserId())){
         return doAccountLinking(new LiveFinderMetadata(), "Token was unrecognized or had no associated user - please complete account linking via the Alexa app on your mobile device or browser."); //Do account linking prompt here
-      }else{
-        userId = accountLinkingDAO.getUserIdByAuthToken(accessToken);
-        LOG.info("Found userId '" + userId + "' for access token '" + accessToken + "'.");
       }
+      userId = user.getUserId();
+      LOG.info("Found userId '" + userId + "' for access token '" + accessToken + "'.");
       sessionAttributes.put("userId", userId);
       
-      if(accountLinkingDAO.getAccountLinkByExternalUserIdAndExternalSystemName(alexaUserId, InterfaceName.ALEXA.name()) == null){
-        LOG.info("No Alexa account link found for this user, creating new link.");
+      if(!hasAlexaAccountLink(user, alexaUserId)){
         ExternalAccountLink accountLink = new ExternalAccountLink();
         accountLink.setUserId(userId);
         accountLink.setExternalUserId(alexaUserId);
         accountLink.setExternalSystemName(InterfaceName.ALEXA.name());
-        accountLinkingDAO.createAccountLink(accountLink);
+        accountLinkWriter.submit(accountLink); //Bookkeeping only, so it is written behind rather than awaited
       }
       
       CommonMetadata inputMetadata = mapper.convertValue(sessionAttributes, new TypeReference<LiveFinderMetadata>(){});
@@ -176,7 +182,7 @@ public class LiveFinderAlexaResource {
       ConversationHistoryUtils.registerRequestInConversationHistory(intent, messageAsMap, outputMetadata, outputMetadata.getConversationHistory());
       
       try{
-        manager.handleRequest(serviceInput, serviceOutput);
+        manager.handleRequest(serviceInput, serviceOutput, user);
       }catch(AccountLinkingNotLinkedException e){
         return doAccountUpdateSession(e.getInterfaceName(), outputMetadata, userId);
       }
@@ -227,6 +233,17 @@ public class LiveFinderAlexaResource {
     }
   }
 
+  /**
+   * Checks the already-loaded user context first, so the common case needs no extra DAO lookup.
+   */
+  private boolean hasAlexaAccountLink(UserAccount user, String alexaUserId){
+    if(user.getExternalAccountLinks() == null){
+      return false;
+    }
+    ExternalAccountLink alexaLink = user.getExternalAccountLinks().get(InterfaceName.ALEXA.name());
+    return alexaLink != null && alexaUserId.equals(alexaLink.getExternalUserId());
+  }
+
   private SpeechletResponseEnvelope doAccountLinking(LiveFinderMetadata outputMetadata, String message) throws DerpwizardException {
    
     String cardTitle = "Please complete account linking.";
@@ -0,0 +1,45 @@
+package com.derpgroup.livefinder.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Maps keys to nodes so that adding or removing a node only moves the keys that node gains or loses.
+ *
+ * Each node is placed on a 64-bit ring at several virtual points derived from its name, which evens out how much
+ * of the ring each node owns. A key belongs to the first point at or after its own hash. Immutable, so lookups
+ * need no locking.
+ */
+public class ConsistentHashRing<T> {
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final TreeMap<Long, T> ring = new TreeMap<Long, T>();
+
+  /**
+   * @param nodes Nodes keyed by a name that must stay stable for as long as the node holds data
+   */
+  public ConsistentHashRing(Map<String, T> nodes, int virtualNodesPerNode){
+    if(nodes == null || nodes.isEmpty()){
+      throw new IllegalArgumentException("A hash ring needs at least one node.");
+    }
+    for(Map.Entry<String, T> node : nodes.entrySet()){
+      for(int i = 0; i < virtualNodesPerNode; i++){
+        ring.put(hash(node.getKey() + "#" + i), node.getValue());
+      }
+    }
+  }
+
+  public T get(String key){
+    Map.Entry<Long, T> owner = ring.ceilingEntry(hash(key));
+    return owner == null ? ring.firstEntry().getValue() : owner.getValue();
+  }
+
+  private static long hash(String key){
+    return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+  }
+}
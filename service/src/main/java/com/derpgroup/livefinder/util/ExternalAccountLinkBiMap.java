@@ -1,49 +1,178 @@
 package com.derpgroup.livefinder.util;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
 
-public class ExternalAccountLinkBiMap<K,V extends ExternalAccountLink> extends HashMap<K, V>{
-
-  private static final long serialVersionUID = 8609550010568859945L;
-  
-  private Map<String,Set<V>> inverse = new HashMap<String, Set<V>>();
-  
-  @Override
-  public V put(K k, V v){
-    V output = super.put(k, v);
-    
-    String inverseKey = v.getUserId();
-    if(inverseKey != null){
-      if(inverse.containsKey(inverseKey)){
-        inverse.get(inverseKey).add(v);
-      }else{
-        Set<V> values = new HashSet<V>();
-        values.add(v);
-        inverse.put(inverseKey, values);
+/**
+ * Thread-safe map of links with two secondary indexes: by userId, and by (externalSystemName, externalUserId).
+ *
+ * Writers to the same key are serialized by a compute on the forward map, and each write updates the
+ * secondary indexes before it returns, so the indexes never disagree once writers are quiescent. A reader
+ * running alongside a writer may briefly see the new link in one index before another. Reads never lock or
+ * allocate. Links must not be mutated while they are in the map.
+ *
+ * Index entries are tracked per key, so removing one key never drops an entry another key still holds, even when
+ * both hold the same link. If two keys hold links for the same (externalSystemName, externalUserId), the secondary
+ * index points at the one put most recently.
+ */
+public class ExternalAccountLinkBiMap<K,V extends ExternalAccountLink> extends AbstractMap<K, V>{
+
+  private final ConcurrentMap<K,V> forward = new ConcurrentHashMap<K,V>();
+  private final ConcurrentMap<String,UserLinks<K,V>> byUserId = new ConcurrentHashMap<String,UserLinks<K,V>>();
+  private final ConcurrentMap<String,ConcurrentMap<String,Map.Entry<K,V>>> byExternalUserId = new ConcurrentHashMap<String,ConcurrentMap<String,Map.Entry<K,V>>>();
+
+  @Override
+  public V put(K k, final V v){
+    if(k == null || v == null){
+      throw new NullPointerException("ExternalAccountLinkBiMap does not permit null keys or values.");
+    }
+    final Object[] previous = new Object[1];
+    forward.compute(k, (key, existing) -> {
+      if(existing != null){
+        unindex(key, existing);
       }
+      index(key, v);
+      previous[0] = existing;
+      return v;
+    });
+    @SuppressWarnings("unchecked")
+    V output = (V) previous[0];
+    return output;
+  }
+
+  @Override
+  public V remove(Object k){
+    if(k == null){
+      return null;
     }
-    
+    final Object[] removed = new Object[1];
+    forward.computeIfPresent(castKey(k), (key, existing) -> {
+      unindex(key, existing);
+      removed[0] = existing;
+      return null;
+    });
+    @SuppressWarnings("unchecked")
+    V output = (V) removed[0];
     return output;
   }
-  
-  public Set<V> getKeysByUserId(String userId){
-    return inverse.get(userId);
+
+  @Override
+  public V get(Object k){
+    return k == null ? null : forward.get(k);
   }
-  
+
   @Override
-  public V remove(Object k){
-    V output = super.remove(k);
+  public boolean containsKey(Object k){
+    return k != null && forward.containsKey(k);
+  }
+
+  @Override
+  public int size(){
+    return forward.size();
+  }
 
-    String inverseKey = output.getUserId();
-    if(inverse.containsKey(inverseKey)){
-      inverse.get(inverseKey).remove(output);
+  @Override
+  public boolean isEmpty(){
+    return forward.isEmpty();
+  }
+
+  @Override
+  public void clear(){
+    for(K k : forward.keySet()){
+      remove(k);
     }
-    
-    return output;
+  }
+
+  /**
+   * Read-only view; changes must go through put and remove so the indexes stay in step.
+   */
+  @Override
+  public Set<Map.Entry<K, V>> entrySet(){
+    return Collections.unmodifiableMap(forward).entrySet();
+  }
+
+  /**
+   * @return a live, read-only view of the user's links, one per key holding them; empty if there are none
+   */
+  public Collection<V> getByUserId(String userId){
+    UserLinks<K,V> links = userId == null ? null : byUserId.get(userId);
+    return links == null ? Collections.<V>emptySet() : links.view;
+  }
+
+  /**
+   * @return a mutable copy of the user's links, or null if there are none; changing it no longer changes the map
+   * @deprecated Use getByUserId, which returns a live read-only view and never returns null
+   */
+  @Deprecated
+  public Set<V> getKeysByUserId(String userId){
+    Collection<V> links = getByUserId(userId);
+    return links.isEmpty() ? null : new HashSet<V>(links);
+  }
+
+  public V getByExternalUserIdAndExternalSystemName(String externalUserId, String externalSystemName){
+    if(externalUserId == null || externalSystemName == null){
+      return null;
+    }
+    ConcurrentMap<String,Map.Entry<K,V>> links = byExternalUserId.get(externalSystemName);
+    Map.Entry<K,V> entry = links == null ? null : links.get(externalUserId);
+    return entry == null ? null : entry.getValue();
+  }
+
+  private void index(K k, V v){
+    String userId = v.getUserId();
+    if(userId != null){
+      byUserId.compute(userId, (key, links) -> {
+        if(links == null){
+          links = new UserLinks<K,V>();
+        }
+        links.links.put(k, v);
+        return links;
+      });
+    }
+    String externalSystemName = v.getExternalSystemName();
+    String externalUserId = v.getExternalUserId();
+    if(externalSystemName != null && externalUserId != null){
+      byExternalUserId.computeIfAbsent(externalSystemName, key -> new ConcurrentHashMap<String,Map.Entry<K,V>>())
+          .put(externalUserId, new AbstractMap.SimpleImmutableEntry<K,V>(k, v));
+    }
+  }
+
+  private void unindex(K k, V v){
+    String userId = v.getUserId();
+    if(userId != null){
+      byUserId.computeIfPresent(userId, (key, links) -> {
+        links.links.remove(k, v);
+        return links.links.isEmpty() ? null : links;
+      });
+    }
+    String externalSystemName = v.getExternalSystemName();
+    String externalUserId = v.getExternalUserId();
+    if(externalSystemName != null && externalUserId != null){
+      ConcurrentMap<String,Map.Entry<K,V>> links = byExternalUserId.get(externalSystemName);
+      if(links != null){
+        links.remove(externalUserId, new AbstractMap.SimpleImmutableEntry<K,V>(k, v));
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private K castKey(Object k){
+    return (K) k;
+  }
+
+  /**
+   * One user's links by the key holding them, with a read-only view built once so reads don't allocate.
+   */
+  private static class UserLinks<K,V>{
+    private final ConcurrentMap<K,V> links = new ConcurrentHashMap<K,V>();
+    private final Collection<V> view = Collections.unmodifiableCollection(links.values());
   }
 }
@@ -0,0 +1,148 @@
+package com.derpgroup.livefinder.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Coalesces concurrent identical calls: while a call for a key is in flight, further callers with the same key
+ * wait for it and share its result or exception instead of making their own.
+ *
+ * Nothing is cached; a key is forgotten as soon as its call returns, so a caller arriving afterwards makes a new
+ * call. Every call made under one key must throw the same checked exception type, since waiting callers rethrow
+ * whatever the first caller's call threw. Shared results go to several threads and must not be modified.
+ *
+ * executeAll coalesces per key across batches: a caller asking for several keys waits on the flights already
+ * running for some of them and makes one call for the rest.
+ */
+public class SingleFlight<K, V> {
+
+  @FunctionalInterface
+  public interface Call<V, E extends Exception> {
+    V call() throws E;
+  }
+
+  @FunctionalInterface
+  public interface BatchCall<K, V, E extends Exception> {
+    /**
+     * @return The values found for the keys; keys without one may be left out
+     */
+    Map<K, ? extends V> call(List<K> keys) throws E;
+  }
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+  private final Meter coalesced;
+
+  /**
+   * @param coalesced Marked for every caller, or every key of a batch, served by another caller's call
+   */
+  public SingleFlight(Meter coalesced){
+    this.coalesced = coalesced;
+  }
+
+  public <E extends Exception> V execute(K key, Call<? extends V, E> call) throws E {
+    CompletableFuture<V> flight = new CompletableFuture<V>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+    if(existing != null){
+      coalesced.mark();
+      return await(existing);
+    }
+
+    V value;
+    try{
+      value = call.call();
+    }catch(Throwable t){
+      inFlight.remove(key, flight);
+      flight.completeExceptionally(t);
+      throw t;
+    }
+    inFlight.remove(key, flight);
+    flight.complete(value);
+    return value;
+  }
+
+  /**
+   * Makes one call for the keys nobody else is fetching, then waits for the rest. The caller's own call always
+   * finishes before it waits, so two batches waiting on each other's keys can't deadlock.
+   *
+   * @return The values found, by key; keys without a value are left out
+   */
+  public <E extends Exception> Map<K, V> executeAll(Collection<K> keys, BatchCall<K, ? extends V, E> call) throws E {
+    Map<K, CompletableFuture<V>> owned = new LinkedHashMap<K, CompletableFuture<V>>();
+    Map<K, CompletableFuture<V>> joined = new LinkedHashMap<K, CompletableFuture<V>>();
+    for(K key : keys){
+      if(owned.containsKey(key) || joined.containsKey(key)){
+        continue;
+      }
+      CompletableFuture<V> flight = new CompletableFuture<V>();
+      CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+      if(existing == null){
+        owned.put(key, flight);
+      }else{
+        coalesced.mark();
+        joined.put(key, existing);
+      }
+    }
+
+    Map<K, V> values = new HashMap<K, V>();
+    if(!owned.isEmpty()){
+      Map<K, ? extends V> found;
+      try{
+        found = call.call(new ArrayList<K>(owned.keySet()));
+      }catch(Throwable t){
+        for(Map.Entry<K, CompletableFuture<V>> flight : owned.entrySet()){
+          inFlight.remove(flight.getKey(), flight.getValue());
+          flight.getValue().completeExceptionally(t);
+        }
+        throw t;
+      }
+      for(Map.Entry<K, CompletableFuture<V>> flight : owned.entrySet()){
+        V value = found == null ? null : found.get(flight.getKey());
+        inFlight.remove(flight.getKey(), flight.getValue());
+        flight.getValue().complete(value);
+        if(value != null){
+          values.put(flight.getKey(), value);
+        }
+      }
+    }
+    for(Map.Entry<K, CompletableFuture<V>> flight : joined.entrySet()){
+      V value = SingleFlight.<V, E> await(flight.getValue());
+      if(value != null){
+        values.put(flight.getKey(), value);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * @return The number of keys with a call in flight
+   */
+  public int size(){
+    return inFlight.size();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V, E extends Exception> V await(CompletableFuture<V> flight) throws E {
+    try{
+      return flight.join();
+    }catch(CompletionException e){
+      Throwable cause = e.getCause();
+      if(cause instanceof RuntimeException){
+        throw (RuntimeException) cause;
+      }
+      if(cause instanceof Error){
+        throw (Error) cause;
+      }
+      throw (E) cause;
+    }
+  }
+}
@@ -0,0 +1,339 @@
+package com.derpgroup.livefinder.util;
+
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe hash map keyed by a UUID held as its two longs, so keys cost 16 bytes and hashing or comparing one
+ * never touches a String.
+ *
+ * Entries live in parallel arrays with open addressing and linear probing, split across independently locked
+ * segments. Writers lock their segment; readers take an optimistic stamp and only fall back to the read lock if
+ * a write raced them. Removed slots are marked with a tombstone and reclaimed on the next resize.
+ */
+public class UuidKeyedMap<V> {
+
+  private static final int SEGMENT_BITS = 4;
+  private static final int SEGMENTS = 1 << SEGMENT_BITS;
+  private static final int MINIMUM_SEGMENT_CAPACITY = 16;
+  private static final Object TOMBSTONE = new Object();
+
+  private final Segment<V>[] segments;
+
+  public UuidKeyedMap(){
+    this(0);
+  }
+
+  @SuppressWarnings("unchecked")
+  public UuidKeyedMap(int expectedSize){
+    segments = (Segment<V>[]) new Segment[SEGMENTS];
+    int segmentCapacity = MINIMUM_SEGMENT_CAPACITY;
+    while(segmentCapacity < (expectedSize / SEGMENTS) * 2){
+      segmentCapacity <<= 1;
+    }
+    for(int i = 0; i < SEGMENTS; i++){
+      segments[i] = new Segment<V>(segmentCapacity);
+    }
+  }
+
+  public V get(UUID key){
+    return get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+  }
+
+  public V get(long mostSigBits, long leastSigBits){
+    long hash = hash(mostSigBits, leastSigBits);
+    return segmentFor(hash).get(mostSigBits, leastSigBits, hash);
+  }
+
+  /**
+   * @return The previous value, or null if there was none
+   */
+  public V put(UUID key, V value){
+    return put(key.getMostSignificantBits(), key.getLeastSignificantBits(), value);
+  }
+
+  public V put(long mostSigBits, long leastSigBits, V value){
+    if(value == null){
+      throw new NullPointerException("UuidKeyedMap does not permit null values.");
+    }
+    long hash = hash(mostSigBits, leastSigBits);
+    return segmentFor(hash).put(mostSigBits, leastSigBits, hash, value);
+  }
+
+  /**
+   * @return The removed value, or null if there was none
+   */
+  public V remove(UUID key){
+    return remove(key.getMostSignificantBits(), key.getLeastSignificantBits());
+  }
+
+  public V remove(long mostSigBits, long leastSigBits){
+    long hash = hash(mostSigBits, leastSigBits);
+    return segmentFor(hash).remove(mostSigBits, leastSigBits, hash);
+  }
+
+  public int size(){
+    int size = 0;
+    for(Segment<V> segment : segments){
+      size += segment.size;
+    }
+    return size;
+  }
+
+  /**
+   * Visits every entry, one segment at a time. Entries written during the walk may or may not be seen, and
+   * writers to the segment being walked wait for it.
+   */
+  public void forEach(EntryConsumer<? super V> consumer){
+    for(Segment<V> segment : segments){
+      segment.forEach(consumer);
+    }
+  }
+
+  /**
+   * Removes entries matching the predicate, stopping once limit have been removed.
+   *
+   * @return The number of entries removed
+   */
+  public int removeIf(EntryPredicate<? super V> predicate, int limit){
+    int removed = 0;
+    for(int i = 0; i < SEGMENTS && removed < limit; i++){
+      removed += segments[i].removeIf(predicate, limit - removed);
+    }
+    return removed;
+  }
+
+  private Segment<V> segmentFor(long hash){
+    return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+  }
+
+  /**
+   * Murmur3 finalizer over both halves, so keys that aren't uniformly random still spread across slots.
+   */
+  private static long hash(long mostSigBits, long leastSigBits){
+    long h = mostSigBits * 31 + leastSigBits;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  @FunctionalInterface
+  public interface EntryConsumer<V>{
+    void accept(long mostSigBits, long leastSigBits, V value);
+  }
+
+  @FunctionalInterface
+  public interface EntryPredicate<V>{
+    boolean test(long mostSigBits, long leastSigBits, V value);
+  }
+
+  /**
+   * One independently locked open-addressing table. The three arrays are only ever replaced together, under the
+   * write lock, and are read through a single Table reference so an optimistic reader sees a matching set.
+   */
+  private static final class Segment<V>{
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table;
+    private volatile int size;
+    private int tombstones;
+
+    private Segment(int capacity){
+      table = new Table(capacity);
+    }
+
+    private V get(long mostSigBits, long leastSigBits, long hash){
+      long stamp = lock.tryOptimisticRead();
+      if(stamp != 0){
+        Object value = table.find(mostSigBits, leastSigBits, hash);
+        if(lock.validate(stamp)){
+          return unwrap(value);
+        }
+      }
+      stamp = lock.readLock();
+      try{
+        return unwrap(table.find(mostSigBits, leastSigBits, hash));
+      }finally{
+        lock.unlockRead(stamp);
+      }
+    }
+
+    private V put(long mostSigBits, long leastSigBits, long hash, V value){
+      long stamp = lock.writeLock();
+      try{
+        Table current = table;
+        int slot = current.slotFor(mostSigBits, leastSigBits, hash);
+        Object previous = current.values[slot];
+        if(previous != null && previous != TOMBSTONE){
+          current.values[slot] = value;
+          return unwrap(previous);
+        }
+        if(previous == TOMBSTONE){
+          tombstones--;
+        }
+        current.mostSigBits[slot] = mostSigBits;
+        current.leastSigBits[slot] = leastSigBits;
+        current.values[slot] = value;
+        size++;
+        if((size + tombstones) * 2 > current.values.length){
+          resize();
+        }
+        return null;
+      }finally{
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    private V remove(long mostSigBits, long leastSigBits, long hash){
+      long stamp = lock.writeLock();
+      try{
+        Table current = table;
+        int slot = current.indexOf(mostSigBits, leastSigBits, hash);
+        if(slot < 0){
+          return null;
+        }
+        Object previous = current.values[slot];
+        current.values[slot] = TOMBSTONE;
+        size--;
+        tombstones++;
+        return unwrap(previous);
+      }finally{
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    /**
+     * Writers fill slots in place, so the walk holds the read lock; consumers should be quick.
+     */
+    private void forEach(EntryConsumer<? super V> consumer){
+      long stamp = lock.readLock();
+      try{
+        Table current = table;
+        for(int i = 0; i < current.values.length; i++){
+          V value = unwrap(current.values[i]);
+          if(value != null){
+            consumer.accept(current.mostSigBits[i], current.leastSigBits[i], value);
+          }
+        }
+      }finally{
+        lock.unlockRead(stamp);
+      }
+    }
+
+    private int removeIf(EntryPredicate<? super V> predicate, int limit){
+      long stamp = lock.writeLock();
+      try{
+        Table current = table;
+        int removed = 0;
+        for(int i = 0; i < current.values.length && removed < limit; i++){
+          V value = unwrap(current.values[i]);
+          if(value != null && predicate.test(current.mostSigBits[i], current.leastSigBits[i], value)){
+            current.values[i] = TOMBSTONE;
+            size--;
+            tombstones++;
+            removed++;
+          }
+        }
+        return removed;
+      }finally{
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    /**
+     * Grows when live entries fill a quarter of the table, otherwise rehashes in place to clear tombstones.
+     */
+    private void resize(){
+      Table current = table;
+      int capacity = size * 4 > current.values.length ? current.values.length * 2 : current.values.length;
+      Table resized = new Table(capacity);
+      for(int i = 0; i < current.values.length; i++){
+        Object value = current.values[i];
+        if(value != null && value != TOMBSTONE){
+          long mostSigBits = current.mostSigBits[i];
+          long leastSigBits = current.leastSigBits[i];
+          int slot = resized.slotFor(mostSigBits, leastSigBits, hash(mostSigBits, leastSigBits));
+          resized.mostSigBits[slot] = mostSigBits;
+          resized.leastSigBits[slot] = leastSigBits;
+          resized.values[slot] = value;
+        }
+      }
+      tombstones = 0;
+      table = resized;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V unwrap(Object value){
+      return value == null || value == TOMBSTONE ? null : (V) value;
+    }
+  }
+
+  private static final class Table{
+
+    private final long[] mostSigBits;
+    private final long[] leastSigBits;
+    private final Object[] values;
+    private final int mask;
+
+    private Table(int capacity){
+      mostSigBits = new long[capacity];
+      leastSigBits = new long[capacity];
+      values = new Object[capacity];
+      mask = capacity - 1;
+    }
+
+    /**
+     * Probes for the key; may see a half-written slot when called optimistically, which the caller's stamp
+     * validation then discards. Terminates because writers always leave at least half the slots empty.
+     */
+    private Object find(long msb, long lsb, long hash){
+      for(int slot = (int) hash & mask, probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++){
+        Object value = values[slot];
+        if(value == null){
+          return null;
+        }
+        if(value != TOMBSTONE && mostSigBits[slot] == msb && leastSigBits[slot] == lsb){
+          return value;
+        }
+      }
+      return null;
+    }
+
+    private int indexOf(long msb, long lsb, long hash){
+      for(int slot = (int) hash & mask, probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++){
+        Object value = values[slot];
+        if(value == null){
+          return -1;
+        }
+        if(value != TOMBSTONE && mostSigBits[slot] == msb && leastSigBits[slot] == lsb){
+          return slot;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @return The key's slot if present, otherwise the first reusable slot on its probe path
+     */
+    private int slotFor(long msb, long lsb, long hash){
+      int firstTombstone = -1;
+      for(int slot = (int) hash & mask, probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++){
+        Object value = values[slot];
+        if(value == null){
+          return firstTombstone >= 0 ? firstTombstone : slot;
+        }
+        if(value == TOMBSTONE){
+          if(firstTombstone < 0){
+            firstTombstone = slot;
+          }
+        }else if(mostSigBits[slot] == msb && leastSigBits[slot] == lsb){
+          return slot;
+        }
+      }
+      return firstTombstone;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.derpgroup.livefinder.util;
+
+import java.util.UUID;
+
+public class Uuids {
+
+  private static final int CANONICAL_LENGTH = 36;
+
+  /**
+   * Parses a UUID in its canonical 36-character form. UUID.fromString also accepts shortened groups such as
+   * "1-1-1-1-1", which would let two different token strings resolve to the same key, so those are refused.
+   *
+   * @return The UUID, or null if the string is null or not canonical
+   */
+  public static UUID parse(String value){
+    if(value == null || value.length() != CANONICAL_LENGTH){
+      return null;
+    }
+    try{
+      return UUID.fromString(value);
+    }catch(IllegalArgumentException e){
+      return null;
+    }
+  }
+}
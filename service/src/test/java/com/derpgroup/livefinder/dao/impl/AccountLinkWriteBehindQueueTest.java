@@ -0,0 +1,135 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.WriteBehindConfig;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+
+public class AccountLinkWriteBehindQueueTest {
+
+  private InMemoryAccountLinkingDAO dao;
+  private WriteBehindConfig config;
+  private MetricRegistry metricRegistry;
+  private AccountLinkWriteBehindQueue queue;
+
+  @Before
+  public void setup(){
+    dao = spy(new InMemoryAccountLinkingDAO(new AccountLinkingDAOConfig()));
+    config = new WriteBehindConfig();
+    config.setBatchSize(2);
+    metricRegistry = new MetricRegistry();
+    queue = new AccountLinkWriteBehindQueue(dao, config, metricRegistry);
+  }
+
+  @Test
+  public void testFlush_writesInBatches(){
+    assertTrue(queue.submit(buildLink("asdf", "alexa1")));
+    assertTrue(queue.submit(buildLink("qwer", "alexa2")));
+    assertTrue(queue.submit(buildLink("zxcv", "alexa3")));
+    verify(dao, never()).createAccountLinks(anyCollectionOf(ExternalAccountLink.class));
+
+    assertEquals(3, queue.flush());
+
+    verify(dao, times(2)).createAccountLinks(anyCollectionOf(ExternalAccountLink.class));
+    assertEquals("qwer", dao.getAccountLinkByExternalUserIdAndExternalSystemName("alexa2", "ALEXA").getUserId());
+    assertEquals(3, metricRegistry.meter(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "written")).getCount());
+  }
+
+  @Test
+  public void testSubmit_skipsKnownLinks(){
+    queue.submit(buildLink("asdf", "alexa1"));
+    queue.submit(buildLink("asdf", "alexa1"));
+    queue.flush();
+    queue.submit(buildLink("asdf", "alexa1"));
+
+    assertEquals(0, queue.getQueueDepth());
+    assertEquals(2, metricRegistry.meter(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "skipped")).getCount());
+    verify(dao, times(1)).createAccountLinks(anyCollectionOf(ExternalAccountLink.class));
+  }
+
+  @Test
+  public void testFlush_keepsExistingLinkForExternalId(){
+    dao.createAccountLink(buildLink("asdf", "alexa1"));
+
+    queue.submit(buildLink("qwer", "alexa1"));
+    queue.flush();
+
+    assertEquals("asdf", dao.getAccountLinkByExternalUserIdAndExternalSystemName("alexa1", "ALEXA").getUserId());
+    assertNull(dao.getAccountLinksByUserId("qwer"));
+  }
+
+  @Test
+  public void testFlush_failedBatchIsSubmittedAgain(){
+    doReturn(null).when(dao).createAccountLinks(anyCollectionOf(ExternalAccountLink.class));
+    queue.submit(buildLink("asdf", "alexa1"));
+    queue.flush();
+    assertEquals(1, metricRegistry.meter(MetricRegistry.name(AccountLinkWriteBehindQueue.class, "failed")).getCount());
+
+    assertTrue(queue.submit(buildLink("asdf", "alexa1")));
+    assertEquals(1, queue.getQueueDepth());
+  }
+
+  @Test
+  public void testSubmit_dropsWhenFull(){
+    config.setQueueCapacity(1);
+    queue = new AccountLinkWriteBehindQueue(dao, config, new MetricRegistry());
+
+    assertTrue(queue.submit(buildLink("asdf", "alexa1")));
+    assertFalse(queue.submit(buildLink("qwer", "alexa2")));
+    queue.flush();
+
+    assertTrue(queue.submit(buildLink("qwer", "alexa2")));
+    queue.flush();
+    assertEquals("qwer", dao.getAccountLinkByExternalUserIdAndExternalSystemName("alexa2", "ALEXA").getUserId());
+  }
+
+  @Test
+  public void testStart_flushesInBackgroundAndOnStop() throws Exception{
+    config.setFlushIntervalMillis(10);
+    queue = new AccountLinkWriteBehindQueue(dao, config, new MetricRegistry());
+    queue.start();
+    try{
+      queue.submit(buildLink("asdf", "alexa1"));
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while(dao.getAccountLinkByExternalUserIdAndExternalSystemName("alexa1", "ALEXA") == null && System.nanoTime() < deadline){
+        Thread.sleep(5);
+      }
+      assertEquals("asdf", dao.getAccountLinkByExternalUserIdAndExternalSystemName("alexa1", "ALEXA").getUserId());
+
+      for(int i = 0; i < 50; i++){
+        queue.submit(buildLink("user" + i, "alexa-" + i));
+      }
+    }finally{
+      queue.stop();
+    }
+
+    assertEquals(0, queue.getQueueDepth());
+    for(int i = 0; i < 50; i++){
+      assertEquals("user" + i, dao.getAccountLinkByExternalUserIdAndExternalSystemName("alexa-" + i, "ALEXA").getUserId());
+    }
+  }
+
+  private static ExternalAccountLink buildLink(String userId, String alexaUserId){
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId(userId);
+    link.setExternalSystemName("ALEXA");
+    link.setExternalUserId(alexaUserId);
+    return link;
+  }
+}
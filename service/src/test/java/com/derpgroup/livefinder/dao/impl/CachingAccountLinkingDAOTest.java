@@ -0,0 +1,251 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+import com.derpgroup.livefinder.configuration.CacheConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+
+public class CachingAccountLinkingDAOTest {
+
+  private AccountLinkingDAO delegate;
+  private CachingAccountLinkingDAO dao;
+  
+  @Before
+  public void setup(){
+    delegate = mock(AccountLinkingDAO.class);
+    CacheConfig config = new CacheConfig();
+    config.setEnabled(true);
+    dao = new CachingAccountLinkingDAO(delegate, config);
+  }
+  
+  @Test
+  public void testGetUserIdByAuthToken_cachesHits(){
+    when(delegate.getUserIdByAuthToken("token")).thenReturn("userId1");
+    
+    assertEquals("userId1", dao.getUserIdByAuthToken("token"));
+    assertEquals("userId1", dao.getUserIdByAuthToken("token"));
+    verify(delegate, times(1)).getUserIdByAuthToken("token");
+  }
+  
+  @Test
+  public void testGetUserIdByAuthToken_doesNotCacheMisses(){
+    assertNull(dao.getUserIdByAuthToken("token"));
+    assertNull(dao.getUserIdByAuthToken("token"));
+    verify(delegate, times(2)).getUserIdByAuthToken("token");
+  }
+  
+  @Test
+  public void testExpireGrantedToken_invalidates(){
+    when(delegate.getUserIdByAuthToken("token")).thenReturn("userId1");
+    dao.getUserIdByAuthToken("token");
+    
+    dao.expireGrantedToken("token");
+    when(delegate.getUserIdByAuthToken("token")).thenReturn(null);
+    
+    assertNull(dao.getUserIdByAuthToken("token"));
+    verify(delegate).expireGrantedToken("token");
+  }
+  
+  @Test(timeout = 10000)
+  public void testExpireGrantedToken_duringLoad_isNotRecached() throws Exception{
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch expired = new CountDownLatch(1);
+    when(delegate.getUserIdByAuthToken("token")).thenAnswer(blockingAnswer("userId1", reading, expired));
+    
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try{
+      Future<String> load = executor.submit(() -> dao.getUserIdByAuthToken("token"));
+      reading.await();
+      dao.expireGrantedToken("token");
+      expired.countDown();
+      assertEquals("userId1", load.get());
+    }finally{
+      executor.shutdownNow();
+    }
+    
+    when(delegate.getUserIdByAuthToken("token")).thenReturn(null);
+    assertNull(dao.getUserIdByAuthToken("token"));
+  }
+  
+  @Test(timeout = 10000)
+  public void testExpireGrantedToken_duringContextLoad_isNotRecached() throws Exception{
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch expired = new CountDownLatch(1);
+    when(delegate.loadUserContextByAuthToken("token")).thenAnswer(blockingAnswer(buildContext(), reading, expired));
+    
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try{
+      Future<UserAccount> load = executor.submit(() -> dao.loadUserContextByAuthToken("token"));
+      reading.await();
+      dao.expireGrantedToken("token");
+      expired.countDown();
+      assertNotNull(load.get());
+    }finally{
+      executor.shutdownNow();
+    }
+    
+    when(delegate.loadUserContextByAuthToken("token")).thenReturn(null);
+    assertNull(dao.loadUserContextByAuthToken("token"));
+    verify(delegate, times(2)).loadUserContextByAuthToken("token");
+  }
+  
+  @Test(timeout = 10000)
+  public void testCreateAccountLink_duringContextLoad_doesNotRecacheLinks() throws Exception{
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch linked = new CountDownLatch(1);
+    when(delegate.loadUserContextByUserId("userId1")).thenAnswer(blockingAnswer(buildContext(), reading, linked));
+    
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try{
+      Future<UserAccount> load = executor.submit(() -> dao.loadUserContextByUserId("userId1"));
+      reading.await();
+      dao.createAccountLink(buildLink("userId1", "steamId2", "STEAM"));
+      linked.countDown();
+      load.get();
+    }finally{
+      executor.shutdownNow();
+    }
+    
+    when(delegate.getAccountLinksByUserId("userId1")).thenReturn(Arrays.asList(buildLink("userId1", "steamId2", "STEAM")));
+    assertEquals("steamId2", dao.getAccountLinkByUserIdAndExternalSystemName("userId1", "STEAM").getExternalUserId());
+  }
+  
+  @Test
+  public void testLoadUserContextByAuthToken_servedFromCache(){
+    when(delegate.loadUserContextByAuthToken("token")).thenReturn(buildContext());
+    
+    dao.loadUserContextByAuthToken("token");
+    UserAccount context = dao.loadUserContextByAuthToken("token");
+    assertNotNull(context);
+    assertEquals("userId1", context.getUserId());
+    assertEquals("steamId1", context.getExternalAccountLinks().get("STEAM").getExternalUserId());
+    verify(delegate, times(1)).loadUserContextByAuthToken("token");
+  }
+  
+  @Test
+  public void testLoadUserContextByAuthToken_returnsCopies(){
+    when(delegate.loadUserContextByAuthToken("token")).thenReturn(buildContext());
+    
+    dao.loadUserContextByAuthToken("token").getExternalAccountLinks().clear();
+    UserAccount context = dao.loadUserContextByAuthToken("token");
+    assertEquals(1, context.getExternalAccountLinks().size());
+  }
+  
+  @Test
+  public void testLoadUserContextByUserId_sharesCacheWithAuthTokenLookup(){
+    when(delegate.loadUserContextByAuthToken("token")).thenReturn(buildContext());
+    dao.loadUserContextByAuthToken("token");
+    
+    UserAccount context = dao.loadUserContextByUserId("userId1");
+    assertEquals("steamId1", context.getExternalAccountLinks().get("STEAM").getExternalUserId());
+    verify(delegate, never()).loadUserContextByUserId("userId1");
+  }
+  
+  @Test
+  public void testCreateAccountLink_invalidatesLinks(){
+    UserAccount context = buildContext();
+    when(delegate.loadUserContextByAuthToken("token")).thenReturn(context);
+    when(delegate.getAccountLinkByExternalUserIdAndExternalSystemName("steamId1", "STEAM"))
+        .thenReturn(context.getExternalAccountLinks().get("STEAM"));
+    dao.loadUserContextByAuthToken("token");
+    dao.getAccountLinkByExternalUserIdAndExternalSystemName("steamId1", "STEAM");
+    
+    ExternalAccountLink relink = buildLink("userId1", "steamId2", "STEAM");
+    dao.createAccountLink(relink);
+    when(delegate.getAccountLinksByUserId("userId1")).thenReturn(Arrays.asList(relink));
+    when(delegate.getAccountLinkByExternalUserIdAndExternalSystemName("steamId1", "STEAM")).thenReturn(null);
+    
+    assertEquals("steamId2", dao.getAccountLinkByUserIdAndExternalSystemName("userId1", "STEAM").getExternalUserId());
+    assertNull(dao.getAccountLinkByExternalUserIdAndExternalSystemName("steamId1", "STEAM"));
+  }
+  
+  @Test
+  public void testGetAccountLinksByUserId_doesNotCacheMisses(){
+    when(delegate.getAccountLinksByUserId("userId1")).thenReturn(null);
+    assertNull(dao.getAccountLinksByUserId("userId1"));
+    when(delegate.getAccountLinksByUserId("userId1")).thenReturn(Arrays.asList(buildLink("userId1", "steamId1", "STEAM")));
+    
+    assertEquals("steamId1", dao.getAccountLinksByUserId("userId1").get(0).getExternalUserId());
+    verify(delegate, times(2)).getAccountLinksByUserId("userId1");
+  }
+  
+  @Test
+  public void testCreateAccountLink_invalidatesPreviousLinkWithoutUserContext(){
+    when(delegate.getAccountLinkByExternalUserIdAndExternalSystemName("steamId1", "STEAM"))
+        .thenReturn(buildLink("userId1", "steamId1", "STEAM"));
+    dao.getAccountLinkByExternalUserIdAndExternalSystemName("steamId1", "STEAM");
+    
+    dao.createAccountLink(buildLink("userId1", "steamId2", "STEAM"));
+    when(delegate.getAccountLinkByExternalUserIdAndExternalSystemName("steamId1", "STEAM")).thenReturn(null);
+    
+    assertNull(dao.getAccountLinkByExternalUserIdAndExternalSystemName("steamId1", "STEAM"));
+  }
+  
+  @Test
+  public void testUpdateUser_invalidates(){
+    UserAccount user = new UserAccount();
+    user.setUserId("userId1");
+    user.setFirstName("before");
+    when(delegate.getUserByUserId("userId1")).thenReturn(user);
+    dao.getUserByUserId("userId1");
+    
+    UserAccount updatedUser = new UserAccount();
+    updatedUser.setUserId("userId1");
+    updatedUser.setFirstName("after");
+    dao.updateUser(updatedUser);
+    when(delegate.getUserByUserId("userId1")).thenReturn(updatedUser);
+    
+    assertEquals("after", dao.getUserByUserId("userId1").getFirstName());
+  }
+  
+  /**
+   * Answers with the given result, but only after signalling that the read has started and waiting for the test
+   * to finish its concurrent write.
+   */
+  private static <T> Answer<T> blockingAnswer(T result, CountDownLatch reading, CountDownLatch written){
+    return invocation -> {
+      reading.countDown();
+      written.await(5, TimeUnit.SECONDS);
+      return result;
+    };
+  }
+  
+  private UserAccount buildContext(){
+    UserAccount user = new UserAccount();
+    user.setUserId("userId1");
+    Map<String, ExternalAccountLink> links = new HashMap<String, ExternalAccountLink>();
+    links.put("STEAM", buildLink("userId1", "steamId1", "STEAM"));
+    user.setExternalAccountLinks(links);
+    return user;
+  }
+  
+  private ExternalAccountLink buildLink(String userId, String externalUserId, String externalSystemName){
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId(userId);
+    link.setExternalUserId(externalUserId);
+    link.setExternalSystemName(externalSystemName);
+    return link;
+  }
+}
@@ -0,0 +1,113 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+
+public class H2EmbeddedAccountLinkingDAOConcurrencyTest {
+
+  private static final int THREADS = 16;
+  private static final int TOKENS_PER_THREAD = 50;
+  private static final String USER_ID = "asdf";
+
+  private H2EmbeddedAccountLinkingDAO dao;
+  private ExecutorService executor;
+
+  @Before
+  public void setup(){
+    HashMap<String,Object> properties = new HashMap<String,Object>();
+    properties.put("url", "jdbc:h2:mem:");
+    properties.put("user", "sa");
+    properties.put("password", "sa");
+    AccountLinkingDAOConfig accountLinkingDAOConfig = new AccountLinkingDAOConfig();
+    accountLinkingDAOConfig.setProperties(properties);
+    accountLinkingDAOConfig.getPool().setMaxSize(THREADS / 2);
+    dao = new H2EmbeddedAccountLinkingDAO(accountLinkingDAOConfig);
+    executor = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @Test
+  public void testGenerateAuthToken_concurrentSameUser() throws Exception{
+    Set<String> tokens = issueConcurrently(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return dao.generateAuthToken(USER_ID);
+      }
+    });
+    for(String token : tokens){
+      assertEquals(USER_ID, dao.getUserIdByAuthToken(token));
+    }
+  }
+
+  @Test
+  public void testGenerateMappingToken_concurrentSameUser() throws Exception{
+    Set<String> tokens = issueConcurrently(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return dao.generateMappingTokenForUserId(USER_ID);
+      }
+    });
+    for(String token : tokens){
+      assertEquals(USER_ID, dao.getUserIdByMappingToken(token));
+    }
+  }
+
+  /**
+   * Runs THREADS * TOKENS_PER_THREAD issuances released from a common start gate,
+   * and checks that every call got its own token back.
+   */
+  private Set<String> issueConcurrently(final Callable<String> issuer) throws Exception{
+    final CountDownLatch startGate = new CountDownLatch(1);
+    List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+    for(int i = 0; i < THREADS; i++){
+      futures.add(executor.submit(new Callable<List<String>>() {
+        @Override
+        public List<String> call() throws Exception {
+          startGate.await();
+          List<String> issued = new ArrayList<String>();
+          for(int j = 0; j < TOKENS_PER_THREAD; j++){
+            issued.add(issuer.call());
+          }
+          return issued;
+        }
+      }));
+    }
+    startGate.countDown();
+
+    Set<String> tokens = new HashSet<String>();
+    for(Future<List<String>> future : futures){
+      for(String token : future.get(30, TimeUnit.SECONDS)){
+        assertNotNull(token);
+        assertTrue("Token '" + token + "' was issued twice.", tokens.add(token));
+      }
+    }
+    assertEquals(THREADS * TOKENS_PER_THREAD, tokens.size());
+    return tokens;
+  }
+
+  @After
+  public void shutdown() throws SQLException, InterruptedException{
+    executor.shutdownNow();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+    dao.shutdown();
+  }
+}
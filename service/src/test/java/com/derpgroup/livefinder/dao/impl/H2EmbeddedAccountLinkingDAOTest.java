@@ -1,19 +1,31 @@
 package com.derpgroup.livefinder.dao.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.sql.Connection;
-import java.sql.ResultSet;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.After;
+import org.junit.rules.TemporaryFolder;
 
 import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
 import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
@@ -25,6 +37,9 @@ public class H2EmbeddedAccountLinkingDAOTest {
   private H2EmbeddedAccountLinkingDAO dao;
   private AccountLinkingDAOConfig accountLinkingDAOConfig;
   
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  
   @Before
   public void setup() throws SQLException{
     HashMap<String,Object> properties = new HashMap<String,Object>();
@@ -33,6 +48,7 @@ public class H2EmbeddedAccountLinkingDAOTest {
     properties.put("password", "sa");
     accountLinkingDAOConfig = new AccountLinkingDAOConfig();
     accountLinkingDAOConfig.setProperties(properties);
+    accountLinkingDAOConfig.getTokenExpiry().setAuthTokenTtlSeconds(TimeUnit.DAYS.toSeconds(90));
     dao = new H2EmbeddedAccountLinkingDAO(accountLinkingDAOConfig);
     dao.init();
   }
@@ -46,13 +62,90 @@ public class H2EmbeddedAccountLinkingDAOTest {
   
   @Test
   public void testFixtureDataSetup() throws SQLException{
-    dao.executeStatement("SELECT * FROM AccountLink"); //Confirms that table exists
+    assertTrue(dao.executeStatement("SELECT * FROM AccountLink")); //Confirms that table exists
   }
   
   @Test
   public void testFixtureDataSetup_badTableName() throws SQLException{
-    ResultSet rs = dao.executeStatement("SELECT * FROM badTable");
-    assertNull(rs);
+    assertFalse(dao.executeStatement("SELECT * FROM badTable"));
+  }
+  
+  @Test
+  public void testMigrateSchema() throws SQLException{
+    assertEquals(H2EmbeddedAccountLinkingDAO.MIGRATIONS.size(), dao.getSchemaVersion());
+    dao.migrateSchema(); //Re-running against a current schema is a no-op
+    assertEquals(H2EmbeddedAccountLinkingDAO.MIGRATIONS.size(), dao.getSchemaVersion());
+  }
+  
+  @Test
+  public void testMigrateSchema_rerunsPartiallyAppliedMigration() throws Exception{
+    String url = "jdbc:h2:mem:partial" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+    HashMap<String,Object> properties = new HashMap<String,Object>();
+    properties.put("url", url);
+    properties.put("user", "sa");
+    properties.put("password", "sa");
+    AccountLinkingDAOConfig sharedConfig = new AccountLinkingDAOConfig();
+    sharedConfig.setProperties(properties);
+    new H2EmbeddedAccountLinkingDAO(sharedConfig).stop();
+    
+    //Leave v2 half applied: its AccountLink key and indexes exist, but the LinkingToken key failed on duplicates
+    try(Connection conn = DriverManager.getConnection(url, "sa", "sa");
+        Statement statement = conn.createStatement()){
+      statement.execute("DELETE FROM SchemaVersion WHERE version >= 2");
+      statement.execute("ALTER TABLE LinkingToken DROP CONSTRAINT PK_LinkingToken");
+      statement.execute("INSERT INTO LinkingToken(token, userId) VALUES('11111111-1111-1111-1111-111111111111', 'a')");
+      statement.execute("INSERT INTO LinkingToken(token, userId) VALUES('11111111-1111-1111-1111-111111111111', 'b')");
+    }
+    
+    try{
+      new H2EmbeddedAccountLinkingDAO(sharedConfig);
+      fail("A failed migration should fail startup.");
+    }catch(RuntimeException e){
+    }
+    
+    try(Connection conn = DriverManager.getConnection(url, "sa", "sa");
+        Statement statement = conn.createStatement()){
+      statement.execute("DELETE FROM LinkingToken WHERE userId = 'b'");
+    }
+    H2EmbeddedAccountLinkingDAO migrated = new H2EmbeddedAccountLinkingDAO(sharedConfig);
+    try{
+      assertEquals(H2EmbeddedAccountLinkingDAO.MIGRATIONS.size(), migrated.getSchemaVersion());
+    }finally{
+      migrated.stop();
+      try(Connection conn = DriverManager.getConnection(url, "sa", "sa");
+          Statement statement = conn.createStatement()){
+        statement.execute("SHUTDOWN");
+      }
+    }
+  }
+  
+  @Test
+  public void testFileDatabase_survivesRestart() throws Exception{
+    HashMap<String,Object> properties = new HashMap<String,Object>();
+    properties.put("url", "jdbc:h2:" + temporaryFolder.getRoot().getAbsolutePath() + "/accountlinking");
+    properties.put("user", "sa");
+    properties.put("password", "sa");
+    AccountLinkingDAOConfig fileConfig = new AccountLinkingDAOConfig();
+    fileConfig.setProperties(properties);
+    fileConfig.setCacheSizeKb(4096);
+    
+    H2EmbeddedAccountLinkingDAO fileDAO = new H2EmbeddedAccountLinkingDAO(fileConfig);
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId("asdf");
+    link.setExternalSystemName("STEAM");
+    link.setExternalUserId("1234");
+    fileDAO.createAccountLink(link);
+    String token = fileDAO.generateAuthToken("asdf");
+    fileDAO.stop();
+    
+    fileDAO = new H2EmbeddedAccountLinkingDAO(fileConfig);
+    try{
+      assertEquals(H2EmbeddedAccountLinkingDAO.MIGRATIONS.size(), fileDAO.getSchemaVersion());
+      assertEquals("asdf", fileDAO.getUserIdByAuthToken(token));
+      assertEquals("1234", fileDAO.getAccountLinkByUserIdAndExternalSystemName("asdf", "STEAM").getExternalUserId());
+    }finally{
+      fileDAO.stop();
+    }
   }
   
   @Test
@@ -169,6 +262,152 @@ public class H2EmbeddedAccountLinkingDAOTest {
     assertNull(userIdRetrieved);
   }
   
+  @Test
+  public void testRetrieveAccessToken_malformed(){
+    assertNull(dao.getUserIdByAuthToken("notAToken"));
+    assertNull(dao.loadUserContextByAuthToken("notAToken"));
+    assertNull(dao.getUserIdByMappingToken("notAToken"));
+    dao.expireGrantedToken("notAToken");
+  }
+  
+  @Test
+  public void testRetrieveAccessToken_expired(){
+    String expiredToken = insertExpiredToken("Authorization", "asdf");
+    assertNull(dao.getUserIdByAuthToken(expiredToken));
+    assertNull(dao.loadUserContextByAuthToken(expiredToken));
+  }
+  
+  @Test
+  public void testAuthTokenExpiryDisabled() throws SQLException{
+    dao.shutdown();
+    accountLinkingDAOConfig.getTokenExpiry().setAuthTokenTtlSeconds(0);
+    dao = new H2EmbeddedAccountLinkingDAO(accountLinkingDAOConfig);
+    dao.init();
+    
+    String oldToken = insertToken("Authorization", "asdf", TimeUnit.DAYS.toMillis(3650));
+    assertEquals("asdf", dao.getUserIdByAuthToken(oldToken));
+    assertEquals(0, dao.purgeExpiredAuthTokens(10));
+    assertEquals(1, dao.countAuthTokens());
+  }
+  
+  @Test
+  public void testRetrieveLinkingToken_expired(){
+    String expiredToken = insertExpiredToken("LinkingToken", "asdf");
+    assertNull(dao.getUserIdByMappingToken(expiredToken));
+  }
+  
+  @Test
+  public void testPurgeExpiredTokens(){
+    for(int i = 0; i < 5; i++){
+      insertExpiredToken("Authorization", "asdf");
+    }
+    insertExpiredToken("LinkingToken", "asdf");
+    String liveToken = dao.generateAuthToken("asdf");
+    assertEquals(6, dao.countAuthTokens());
+    
+    assertEquals(3, dao.purgeExpiredAuthTokens(3)); //Bounded by the batch limit
+    assertEquals(2, dao.purgeExpiredAuthTokens(3));
+    assertEquals(0, dao.purgeExpiredAuthTokens(3));
+    assertEquals(1, dao.countAuthTokens());
+    assertEquals("asdf", dao.getUserIdByAuthToken(liveToken));
+    
+    assertEquals(1, dao.purgeExpiredMappingTokens(10));
+    assertEquals(0, dao.countMappingTokens());
+  }
+  
+  @Test
+  public void testForEachLiveAuthToken(){
+    String liveToken = dao.generateAuthToken("asdf");
+    insertExpiredToken("Authorization", "asdf");
+    final List<String> scanned = new ArrayList<String>();
+    
+    assertTrue(dao.forEachLiveAuthToken(scanned::add));
+    assertEquals(Arrays.asList(liveToken), scanned);
+  }
+  
+  @Test
+  public void testRevokeAuthToken(){
+    assertTrue(dao.revokeAuthToken("live", System.currentTimeMillis() + 60000));
+    assertTrue(dao.revokeAuthToken("expired", System.currentTimeMillis() - 60000));
+    
+    assertEquals(new HashSet<String>(Arrays.asList("live")), dao.getRevokedAuthTokenIds());
+    assertEquals(1, dao.purgeExpiredRevocations(10));
+    assertEquals(0, dao.purgeExpiredRevocations(10));
+  }
+  
+  @Test
+  public void testLoadUserContextByUserId(){
+    UserAccount user = new UserAccount();
+    user.setUserId("asdf");
+    dao.updateUser(user);
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId("asdf");
+    link.setExternalSystemName("STEAM");
+    link.setExternalUserId("1234");
+    dao.createAccountLink(link);
+    
+    UserAccount context = dao.loadUserContextByUserId("asdf");
+    assertEquals("asdf", context.getUserId());
+    assertEquals("1234", context.getExternalAccountLinks().get("STEAM").getExternalUserId());
+    assertNull(dao.loadUserContextByUserId("qwer"));
+  }
+  
+  private String insertExpiredToken(String table, String userId){
+    long ttlSeconds = table.equals("Authorization") ? accountLinkingDAOConfig.getTokenExpiry().getAuthTokenTtlSeconds()
+        : accountLinkingDAOConfig.getTokenExpiry().getMappingTokenTtlSeconds();
+    return insertToken(table, userId, TimeUnit.SECONDS.toMillis(ttlSeconds + 60));
+  }
+  
+  private String insertToken(String table, String userId, long ageMillis){
+    UUID token = UUID.randomUUID();
+    Timestamp dateCreated = new Timestamp(System.currentTimeMillis() - ageMillis);
+    assertTrue(dao.executeStatement("INSERT INTO " + table + "(token, userId, dateCreated) VALUES(?,?,?);",
+        Arrays.asList(token, userId, dateCreated)));
+    return token.toString();
+  }
+  
+  @Test
+  public void testLoadUserContextByAuthToken(){
+    UserAccount user = new UserAccount();
+    user.setUserId("userId1");
+    user.setFirstName("1234");
+    dao.updateUser(user);
+    
+    ExternalAccountLink accountLink = new ExternalAccountLink();
+    accountLink.setUserId("userId1");
+    accountLink.setExternalUserId("externalUserId1");
+    accountLink.setExternalSystemName("STEAM");
+    accountLink.setAuthToken("qwerty");
+    accountLink.setRefreshToken("asdf");
+    dao.createAccountLink(accountLink);
+    
+    String token = dao.generateAuthToken("userId1");
+    UserAccount context = dao.loadUserContextByAuthToken(token);
+    assertNotNull(context);
+    assertEquals("userId1", context.getUserId());
+    assertEquals("1234", context.getFirstName());
+    assertNotNull(context.getExternalAccountLinks());
+    assertEquals(1, context.getExternalAccountLinks().size());
+    validateAccountLinksEqual(accountLink, context.getExternalAccountLinks().get("STEAM"));
+  }
+  
+  @Test
+  public void testLoadUserContextByAuthToken_noLinks(){
+    UserAccount user = new UserAccount();
+    user.setUserId("userId1");
+    dao.updateUser(user);
+    
+    UserAccount context = dao.loadUserContextByAuthToken(dao.generateAuthToken("userId1"));
+    assertNotNull(context);
+    assertNotNull(context.getExternalAccountLinks());
+    assertTrue(context.getExternalAccountLinks().isEmpty());
+  }
+  
+  @Test
+  public void testLoadUserContextByAuthToken_unknownToken(){
+    assertNull(dao.loadUserContextByAuthToken("00000000-0000-0000-0000-000000000000"));
+  }
+  
   @Test
   public void testCreateAccountLink(){
     ExternalAccountLink accountLink = new ExternalAccountLink();
@@ -252,6 +491,48 @@ public class H2EmbeddedAccountLinkingDAOTest {
     }
   }
   
+  @Test
+  public void testCreateAccountLink_replacesExistingLinkForSystem(){
+    ExternalAccountLink accountLink = new ExternalAccountLink();
+    accountLink.setUserId("asdf");
+    accountLink.setExternalUserId("1234");
+    accountLink.setExternalSystemName("STEAM");
+    dao.createAccountLink(accountLink);
+    
+    accountLink.setExternalUserId("5678");
+    dao.createAccountLink(accountLink);
+    
+    List<ExternalAccountLink> links = dao.getAccountLinksByUserId("asdf");
+    assertNotNull(links);
+    assertEquals(1, links.size());
+    assertEquals("5678", links.get(0).getExternalUserId());
+    assertNull(dao.getAccountLinkByExternalUserIdAndExternalSystemName("1234", "STEAM"));
+  }
+  
+  @Test
+  public void testCreateAccountLinks(){
+    ExternalAccountLink accountLink1 = new ExternalAccountLink();
+    accountLink1.setUserId("userId1");
+    accountLink1.setExternalUserId("externalUserId1");
+    accountLink1.setExternalSystemName("ALEXA");
+    accountLink1.setAuthToken("qwerty");
+    accountLink1.setRefreshToken("asdf");
+    
+    ExternalAccountLink accountLink2 = new ExternalAccountLink();
+    accountLink2.setUserId("userId1");
+    accountLink2.setExternalUserId("externalUserId2");
+    accountLink2.setExternalSystemName("STEAM");
+    accountLink2.setAuthToken("qwerty");
+    accountLink2.setRefreshToken("asdf");
+    
+    List<ExternalAccountLink> createdLinks = dao.createAccountLinks(Arrays.asList(accountLink1, accountLink2));
+    assertNotNull(createdLinks);
+    assertEquals(2, createdLinks.size());
+    
+    validateAccountLinksEqual(accountLink1, dao.getAccountLinkByUserIdAndExternalSystemName("userId1", "ALEXA"));
+    validateAccountLinksEqual(accountLink2, dao.getAccountLinkByUserIdAndExternalSystemName("userId1", "STEAM"));
+  }
+  
   @Test
   public void testCreateAccountLink_noAuthToken(){
     ExternalAccountLink accountLink = new ExternalAccountLink();
@@ -288,9 +569,6 @@ public class H2EmbeddedAccountLinkingDAOTest {
   
   @After
   public void shutdown() throws SQLException{
-    Connection conn = dao.getConn();
-    if(!conn.isClosed()){
-      conn.close();
-    }
+    dao.shutdown();
   }
 }
@@ -0,0 +1,166 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.H2ServerConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+
+/**
+ * Several nodes on localhost sharing one account store through an H2TcpServer.
+ */
+public class H2TcpServerTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private H2TcpServer server;
+  private List<H2EmbeddedAccountLinkingDAO> nodes = new ArrayList<H2EmbeddedAccountLinkingDAO>();
+
+  @Before
+  public void setup() throws Exception{
+    server = new H2TcpServer(serverConfig());
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws Exception{
+    for(H2EmbeddedAccountLinkingDAO node : nodes){
+      node.stop();
+    }
+    server.stop();
+  }
+
+  private H2ServerConfig serverConfig() throws IOException{
+    H2ServerConfig config = new H2ServerConfig();
+    config.setEnabled(true);
+    try(ServerSocket socket = new ServerSocket(0)){
+      config.setPort(socket.getLocalPort());
+    }
+    config.setBaseDir(temporaryFolder.getRoot().getAbsolutePath());
+    return config;
+  }
+
+  private AccountLinkingDAOConfig nodeConfig(String url){
+    HashMap<String,Object> properties = new HashMap<String,Object>();
+    properties.put("url", url);
+    properties.put("user", "sa");
+    properties.put("password", "sa");
+    AccountLinkingDAOConfig config = new AccountLinkingDAOConfig();
+    config.setType("H2");
+    config.setProperties(properties);
+    return config;
+  }
+
+  private H2EmbeddedAccountLinkingDAO startNode(){
+    H2EmbeddedAccountLinkingDAO node = new H2EmbeddedAccountLinkingDAO(nodeConfig(server.getLocalUrl("accountlinking")));
+    synchronized(nodes){
+      nodes.add(node);
+    }
+    return node;
+  }
+
+  @Test
+  public void testLinkCreatedOnOneNodeIsVisibleOnAnother(){
+    H2EmbeddedAccountLinkingDAO nodeA = startNode();
+    H2EmbeddedAccountLinkingDAO nodeB = startNode();
+
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId("user1");
+    link.setExternalSystemName("STEAM");
+    link.setExternalUserId("76561198");
+    assertNotNull(nodeA.createAccountLink(link));
+
+    ExternalAccountLink found = nodeB.getAccountLinkByExternalUserIdAndExternalSystemName("76561198", "STEAM");
+    assertNotNull(found);
+    assertEquals("user1", found.getUserId());
+  }
+
+  @Test
+  public void testTokenIssuedOnOneNodeIsHonoredAndExpiredAcrossNodes(){
+    H2EmbeddedAccountLinkingDAO nodeA = startNode();
+    H2EmbeddedAccountLinkingDAO nodeB = startNode();
+
+    String token = nodeA.generateAuthToken("user1");
+    assertEquals("user1", nodeB.getUserIdByAuthToken(token));
+
+    nodeB.expireGrantedToken(token);
+    assertNull(nodeA.getUserIdByAuthToken(token));
+  }
+
+  @Test
+  public void testNodesStartingTogetherMigrateOnce() throws Exception{
+    int nodeCount = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(nodeCount);
+    try{
+      List<Future<H2EmbeddedAccountLinkingDAO>> starts = new ArrayList<Future<H2EmbeddedAccountLinkingDAO>>();
+      for(int i = 0; i < nodeCount; i++){
+        starts.add(executor.submit((Callable<H2EmbeddedAccountLinkingDAO>) this::startNode));
+      }
+      for(Future<H2EmbeddedAccountLinkingDAO> start : starts){
+        assertEquals(H2EmbeddedAccountLinkingDAO.MIGRATIONS.size(), start.get().getSchemaVersion());
+      }
+    }finally{
+      executor.shutdown();
+    }
+    assertEquals(nodeCount, nodes.size());
+    assertNotNull(nodes.get(0).generateAuthToken("user1"));
+  }
+
+  @Test
+  public void testFactoryStartsConfiguredServer() throws Exception{
+    H2ServerConfig serverConfig = serverConfig();
+    AccountLinkingDAOConfig config = nodeConfig("jdbc:h2:tcp://localhost:" + serverConfig.getPort() + "/factory");
+    config.setServer(serverConfig);
+    LifecycleEnvironment lifecycle = new LifecycleEnvironment();
+
+    AccountLinkingDAO hostingNode = AccountLinkingDAOFactory.getDAO(config, new MetricRegistry(), lifecycle);
+    List<LifeCycle> managed = lifecycle.getManagedObjects();
+    for(LifeCycle object : managed){
+      object.start();
+    }
+    try{
+      H2EmbeddedAccountLinkingDAO clientNode = new H2EmbeddedAccountLinkingDAO(nodeConfig(config.getProperties().get("url").toString()));
+      nodes.add(clientNode);
+      assertEquals("user1", clientNode.getUserIdByAuthToken(hostingNode.generateAuthToken("user1")));
+    }finally{
+      for(int i = managed.size() - 1; i >= 0; i--){
+        managed.get(i).stop();
+      }
+    }
+  }
+
+  @Test
+  public void testFactoryRejectsTokenFilterOnSharedStore(){
+    AccountLinkingDAOConfig config = nodeConfig(server.getLocalUrl("accountlinking"));
+    config.getTokenFilter().setEnabled(true);
+    try{
+      AccountLinkingDAOFactory.getDAO(config);
+      fail("A token filter in front of a shared store should be rejected.");
+    }catch(RuntimeException e){
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+
+public class InMemoryAccountLinkingDAOTest {
+
+  private InMemoryAccountLinkingDAO dao;
+
+  @Before
+  public void setup(){
+    dao = new InMemoryAccountLinkingDAO(new AccountLinkingDAOConfig());
+  }
+
+  @Test
+  public void testUpdateUser_keepsDateCreated(){
+    UserAccount user = new UserAccount();
+    user.setUserId("asdf");
+    user.setFirstName("Rusty");
+    UserAccount created = dao.updateUser(user);
+    assertTrue(created.getDateCreated() > 0);
+
+    user.setFirstName("Eric");
+    UserAccount updated = dao.updateUser(user);
+    assertEquals("Eric", updated.getFirstName());
+    assertEquals(created.getDateCreated(), updated.getDateCreated());
+    assertEquals("Eric", dao.getUserByUserId("asdf").getFirstName());
+  }
+
+  @Test
+  public void testGetUserByUserId_returnsCopy(){
+    UserAccount user = new UserAccount();
+    user.setUserId("asdf");
+    user.setFirstName("Rusty");
+    dao.updateUser(user);
+
+    dao.getUserByUserId("asdf").setFirstName("Mutated");
+    assertEquals("Rusty", dao.getUserByUserId("asdf").getFirstName());
+  }
+
+  @Test
+  public void testTokens(){
+    String mappingToken = dao.generateMappingTokenForUserId("asdf");
+    assertEquals("asdf", dao.getUserIdByMappingToken(mappingToken));
+    dao.expireMappingToken(mappingToken);
+    assertNull(dao.getUserIdByMappingToken(mappingToken));
+
+    String authToken = dao.generateAuthToken("asdf");
+    assertEquals("asdf", dao.getUserIdByAuthToken(authToken));
+    dao.expireGrantedToken(authToken);
+    assertNull(dao.getUserIdByAuthToken(authToken));
+  }
+
+  @Test
+  public void testTokens_nonCanonical(){
+    String token = dao.generateAuthToken("asdf");
+    assertNull(dao.getUserIdByAuthToken(token.toUpperCase().replace("-", "")));
+    assertNull(dao.getUserIdByAuthToken("1-1-1-1-1"));
+    assertNull(dao.getUserIdByAuthToken(null));
+    assertNull(dao.getUserIdByMappingToken("notAToken"));
+    dao.expireGrantedToken("notAToken");
+    assertEquals("asdf", dao.getUserIdByAuthToken(token));
+  }
+
+  @Test
+  public void testCreateAccountLink(){
+    dao.createAccountLink(buildLink("asdf", "STEAM", "1234"));
+
+    assertEquals("1234", dao.getAccountLinkByUserIdAndExternalSystemName("asdf", "STEAM").getExternalUserId());
+    assertEquals("asdf", dao.getAccountLinkByExternalUserIdAndExternalSystemName("1234", "STEAM").getUserId());
+    assertEquals(1, dao.getAccountLinksByUserId("asdf").size());
+    assertNull(dao.getAccountLinkByUserIdAndExternalSystemName("asdf", "TWITCH"));
+    assertNull(dao.getAccountLinksByUserId("qwer"));
+  }
+
+  @Test
+  public void testCreateAccountLink_replacesExistingLinkForSystem(){
+    dao.createAccountLink(buildLink("asdf", "STEAM", "1234"));
+    dao.createAccountLink(buildLink("asdf", "STEAM", "5678"));
+
+    List<ExternalAccountLink> links = dao.getAccountLinksByUserId("asdf");
+    assertEquals(1, links.size());
+    assertEquals("5678", links.get(0).getExternalUserId());
+    assertNull(dao.getAccountLinkByExternalUserIdAndExternalSystemName("1234", "STEAM"));
+    assertEquals("asdf", dao.getAccountLinkByExternalUserIdAndExternalSystemName("5678", "STEAM").getUserId());
+  }
+
+  @Test
+  public void testCreateAccountLinks(){
+    List<ExternalAccountLink> created = dao.createAccountLinks(Arrays.asList(
+        buildLink("asdf", "STEAM", "1234"), buildLink("asdf", "TWITCH", "twitchy")));
+
+    assertEquals(2, created.size());
+    assertEquals(2, dao.getAccountLinksByUserId("asdf").size());
+  }
+
+  @Test
+  public void testLoadUserContextByAuthToken(){
+    UserAccount user = new UserAccount();
+    user.setUserId("asdf");
+    dao.updateUser(user);
+    dao.createAccountLink(buildLink("asdf", "STEAM", "1234"));
+    String token = dao.generateAuthToken("asdf");
+
+    UserAccount context = dao.loadUserContextByAuthToken(token);
+    assertEquals("asdf", context.getUserId());
+    assertEquals("1234", context.getExternalAccountLinks().get("STEAM").getExternalUserId());
+    assertNull(dao.loadUserContextByAuthToken("notAToken"));
+  }
+
+  @Test
+  public void testCreateAccountLink_concurrentSystemsForSameUser() throws Exception{
+    final int threads = 16;
+    final CountDownLatch startGate = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try{
+      List<Future<ExternalAccountLink>> futures = new ArrayList<Future<ExternalAccountLink>>();
+      for(int i = 0; i < threads; i++){
+        final String system = "SYSTEM" + i;
+        futures.add(executor.submit(new Callable<ExternalAccountLink>() {
+          @Override
+          public ExternalAccountLink call() throws Exception {
+            startGate.await();
+            return dao.createAccountLink(buildLink("asdf", system, system + "-id"));
+          }
+        }));
+      }
+      startGate.countDown();
+      for(Future<ExternalAccountLink> future : futures){
+        assertNotNull(future.get(30, TimeUnit.SECONDS));
+      }
+    }finally{
+      executor.shutdownNow();
+    }
+
+    assertEquals(threads, dao.getAccountLinksByUserId("asdf").size());
+    for(int i = 0; i < threads; i++){
+      assertEquals("asdf", dao.getAccountLinkByExternalUserIdAndExternalSystemName("SYSTEM" + i + "-id", "SYSTEM" + i).getUserId());
+    }
+  }
+
+  private static ExternalAccountLink buildLink(String userId, String externalSystemName, String externalUserId){
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId(userId);
+    link.setExternalSystemName(externalSystemName);
+    link.setExternalUserId(externalUserId);
+    return link;
+  }
+}
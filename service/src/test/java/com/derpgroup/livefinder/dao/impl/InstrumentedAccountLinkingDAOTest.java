@@ -0,0 +1,110 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.InstrumentationConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+
+public class InstrumentedAccountLinkingDAOTest {
+
+  private AccountLinkingDAO delegate;
+  private MetricRegistry metricRegistry;
+  private InstrumentedAccountLinkingDAO dao;
+
+  @Before
+  public void setup(){
+    delegate = mock(AccountLinkingDAO.class);
+    metricRegistry = new MetricRegistry();
+    dao = new InstrumentedAccountLinkingDAO(delegate, "store", new InstrumentationConfig(), metricRegistry);
+  }
+
+  private String name(String... parts){
+    return MetricRegistry.name(InstrumentedAccountLinkingDAO.class, parts);
+  }
+
+  @Test
+  public void testTimesEachMethodSeparately(){
+    when(delegate.getUserIdByAuthToken("token")).thenReturn("userId1");
+
+    assertEquals("userId1", dao.getUserIdByAuthToken("token"));
+    dao.getUserIdByAuthToken("token");
+    dao.getUserByUserId("userId1");
+
+    assertEquals(2, metricRegistry.timer(name("store", "getUserIdByAuthToken")).getCount());
+    assertEquals(1, metricRegistry.timer(name("store", "getUserByUserId")).getCount());
+    assertEquals(0, metricRegistry.meter(name("store", "getUserByUserId", "errors")).getCount());
+  }
+
+  @Test
+  public void testRecordsResultSizes(){
+    when(delegate.getAccountLinksByUserId("userId1")).thenReturn(Arrays.asList(new ExternalAccountLink(), new ExternalAccountLink()));
+    when(delegate.purgeExpiredAuthTokens(100)).thenReturn(7);
+
+    dao.getAccountLinksByUserId("userId1");
+    dao.purgeExpiredAuthTokens(100);
+
+    assertEquals(2, metricRegistry.histogram(name("store", "getAccountLinksByUserId", "resultSize")).getSnapshot().getMax());
+    assertEquals(7, metricRegistry.histogram(name("store", "purgeExpiredAuthTokens", "resultSize")).getSnapshot().getMax());
+  }
+
+  @Test
+  public void testCountsExceptionsAsErrors(){
+    when(delegate.getUserByUserId("userId1")).thenThrow(new IllegalStateException("pool exhausted"));
+
+    try{
+      dao.getUserByUserId("userId1");
+      fail("Expected the delegate's exception.");
+    }catch(IllegalStateException e){
+    }
+    assertEquals(1, metricRegistry.timer(name("store", "getUserByUserId")).getCount());
+    assertEquals(1, metricRegistry.meter(name("store", "getUserByUserId", "errors")).getCount());
+  }
+
+  @Test
+  public void testCountsFailureResultsAsErrors(){
+    when(delegate.purgeExpiredMappingTokens(100)).thenReturn(-1);
+
+    assertNull(dao.createAccountLink(new ExternalAccountLink()));
+    assertEquals(-1, dao.purgeExpiredMappingTokens(100));
+    assertNull(dao.getUserIdByMappingToken("missing"));
+
+    assertEquals(1, metricRegistry.meter(name("store", "createAccountLink", "errors")).getCount());
+    assertEquals(1, metricRegistry.meter(name("store", "purgeExpiredMappingTokens", "errors")).getCount());
+    assertEquals(0, metricRegistry.histogram(name("store", "purgeExpiredMappingTokens", "resultSize")).getCount());
+    assertEquals(0, metricRegistry.meter(name("store", "getUserIdByMappingToken", "errors")).getCount());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testCountsScannedTokens(){
+    when(delegate.forEachLiveAuthToken(any(Consumer.class))).thenAnswer(invocation -> {
+      Consumer<String> consumer = (Consumer<String>) invocation.getArguments()[0];
+      consumer.accept("token1");
+      consumer.accept("token2");
+      consumer.accept("token3");
+      return true;
+    });
+    StringBuilder seen = new StringBuilder();
+
+    dao.forEachLiveAuthToken(seen::append);
+    assertFalse(dao.forEachLiveMappingToken(seen::append));
+
+    assertEquals("token1token2token3", seen.toString());
+    assertEquals(3, metricRegistry.histogram(name("store", "forEachLiveAuthToken", "resultSize")).getSnapshot().getMax());
+    assertEquals(1, metricRegistry.meter(name("store", "forEachLiveMappingToken", "errors")).getCount());
+  }
+}
@@ -0,0 +1,127 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.ShardingConfig;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+
+public class ShardRebalancerTest {
+
+  private static final int USERS = 200;
+
+  private Map<String, H2EmbeddedAccountLinkingDAO> shards;
+
+  @Before
+  public void setup(){
+    shards = new LinkedHashMap<String, H2EmbeddedAccountLinkingDAO>();
+  }
+
+  @After
+  public void teardown() throws Exception{
+    for(H2EmbeddedAccountLinkingDAO shard : shards.values()){
+      shard.stop();
+    }
+  }
+
+  @Test
+  public void testRebalance_afterAddingShard() throws Exception{
+    addShard("shard0");
+    addShard("shard1");
+    ShardedAccountLinkingDAO before = new ShardedAccountLinkingDAO(shards, new ShardingConfig());
+    List<String> tokens = new ArrayList<String>();
+    for(int i = 0; i < USERS; i++){
+      UserAccount user = new UserAccount();
+      user.setUserId("user" + i);
+      user.setFirstName("name" + i);
+      before.updateUser(user);
+      before.createAccountLink(buildLink("user" + i, "ALEXA", "alexa" + i));
+      tokens.add(before.generateAuthToken("user" + i));
+    }
+
+    addShard("shard2");
+    ShardedAccountLinkingDAO after = new ShardedAccountLinkingDAO(shards, new ShardingConfig());
+    int expectedMoves = 0;
+    for(int i = 0; i < USERS; i++){
+      if(after.getShardNameForUserId("user" + i).equals("shard2")){
+        expectedMoves++;
+      }
+    }
+
+    ShardRebalancer rebalancer = new ShardRebalancer(shards, new ShardingConfig().getVirtualNodesPerShard(), 16);
+    Map<String, Integer> planned = rebalancer.rebalance(true);
+    assertEquals(expectedMoves, planned.get("shard0") + planned.get("shard1"));
+    assertEquals(0, (int) planned.get("shard2"));
+
+    //A link written before the index existed is picked up by the rebuild
+    shards.get(after.getShardNameForUserId("user0")).createAccountLink(buildLink("user0", "STEAM", "steam0"));
+    shards.get(after.getShardNameForUserId(ShardedAccountLinkingDAO.externalLinkKey("stale0", "STEAM")))
+        .indexExternalUserId("stale0", "STEAM", "user1");
+    assertNull(after.getAccountLinkByExternalUserIdAndExternalSystemName("steam0", "STEAM"));
+
+    rebalancer.rebalance(false);
+    for(int i = 0; i < USERS; i++){
+      String userId = "user" + i;
+      String owner = after.getShardNameForUserId(userId);
+      for(Map.Entry<String, H2EmbeddedAccountLinkingDAO> shard : shards.entrySet()){
+        if(shard.getKey().equals(owner)){
+          assertEquals("name" + i, shard.getValue().getUserByUserId(userId).getFirstName());
+          assertNotNull(shard.getValue().getAccountLinkByUserIdAndExternalSystemName(userId, "ALEXA"));
+        }else{
+          assertNull(shard.getValue().getUserByUserId(userId));
+        }
+      }
+      //Tokens stay on the shard that issued them and still resolve to the user's moved context
+      assertEquals(userId, after.getUserIdByAuthToken(tokens.get(i)));
+      assertEquals(userId, after.loadUserContextByAuthToken(tokens.get(i)).getUserId());
+      assertEquals(userId, after.getAccountLinkByExternalUserIdAndExternalSystemName("alexa" + i, "ALEXA").getUserId());
+    }
+    assertEquals("user0", after.getAccountLinkByExternalUserIdAndExternalSystemName("steam0", "STEAM").getUserId());
+    //An entry no link backs any more, left behind by a relink, is dropped by the rebuild
+    assertNull(shards.get(after.getShardNameForUserId(ShardedAccountLinkingDAO.externalLinkKey("stale0", "STEAM")))
+        .getIndexedUserId("stale0", "STEAM"));
+    for(Map.Entry<String, H2EmbeddedAccountLinkingDAO> shard : shards.entrySet()){
+      for(int i = 0; i < USERS; i++){
+        String indexShard = after.getShardNameForUserId(ShardedAccountLinkingDAO.externalLinkKey("alexa" + i, "ALEXA"));
+        assertEquals(shard.getKey().equals(indexShard), shard.getValue().getIndexedUserId("alexa" + i, "ALEXA") != null);
+      }
+    }
+
+    Map<String, Integer> second = rebalancer.rebalance(false);
+    for(int moved : second.values()){
+      assertEquals(0, moved);
+    }
+  }
+
+  private void addShard(String name){
+    HashMap<String,Object> properties = new HashMap<String,Object>();
+    properties.put("url", "jdbc:h2:mem:");
+    properties.put("user", "sa");
+    properties.put("password", "sa");
+    AccountLinkingDAOConfig config = new AccountLinkingDAOConfig();
+    config.setProperties(properties);
+    shards.put(name, new H2EmbeddedAccountLinkingDAO(config, new MetricRegistry(), name));
+  }
+
+  private static ExternalAccountLink buildLink(String userId, String externalSystemName, String externalUserId){
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId(userId);
+    link.setExternalSystemName(externalSystemName);
+    link.setExternalUserId(externalUserId);
+    return link;
+  }
+}
@@ -0,0 +1,238 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.ShardingConfig;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+
+public class ShardedAccountLinkingDAOTest {
+
+  private Map<String, InMemoryAccountLinkingDAO> shards;
+  private MetricRegistry metricRegistry;
+  private ShardedAccountLinkingDAO dao;
+
+  @Before
+  public void setup(){
+    shards = new LinkedHashMap<String, InMemoryAccountLinkingDAO>();
+    for(int i = 0; i < 4; i++){
+      shards.put("shard" + i, spy(new InMemoryAccountLinkingDAO(new AccountLinkingDAOConfig())));
+    }
+    metricRegistry = new MetricRegistry();
+    dao = new ShardedAccountLinkingDAO(shards, new ShardingConfig(), metricRegistry);
+  }
+
+  @Test
+  public void testUserDataStaysOnOwningShard(){
+    UserAccount user = new UserAccount();
+    user.setUserId("asdf");
+    dao.updateUser(user);
+    dao.createAccountLink(buildLink("asdf", "STEAM", "1234"));
+    String token = dao.generateAuthToken("asdf");
+
+    InMemoryAccountLinkingDAO owner = shards.get(dao.getShardNameForUserId("asdf"));
+    assertNotNull(owner.getUserByUserId("asdf"));
+    assertEquals("asdf", owner.getUserIdByAuthToken(shardToken(token)));
+    assertEquals(1, owner.getAccountLinksByUserId("asdf").size());
+    for(InMemoryAccountLinkingDAO shard : shards.values()){
+      if(shard != owner){
+        assertNull(shard.getUserByUserId("asdf"));
+      }
+    }
+
+    UserAccount context = dao.loadUserContextByAuthToken(token);
+    assertEquals("1234", context.getExternalAccountLinks().get("STEAM").getExternalUserId());
+  }
+
+  @Test
+  public void testTokenLookups_goOnlyToTheIssuingShard(){
+    String ownerName = dao.getShardNameForUserId("asdf");
+    String token = dao.generateAuthToken("asdf");
+    assertTrue(token.startsWith(ownerName + ShardedAccountLinkingDAO.TOKEN_SEPARATOR));
+
+    //A fresh router, as after a restart or on another node, needs no state to find the shard
+    ShardedAccountLinkingDAO restarted = new ShardedAccountLinkingDAO(shards, new ShardingConfig(), new MetricRegistry());
+    assertEquals("asdf", restarted.getUserIdByAuthToken(token));
+    assertNull(restarted.getUserIdByAuthToken(ownerName + "~00000000-0000-0000-0000-000000000000"));
+    for(Map.Entry<String, InMemoryAccountLinkingDAO> shard : shards.entrySet()){
+      if(!shard.getKey().equals(ownerName)){
+        verify(shard.getValue(), never()).getUserIdByAuthToken(anyString());
+      }
+    }
+
+    assertNull(restarted.getUserIdByAuthToken("unknown~00000000-0000-0000-0000-000000000000"));
+    assertNull(restarted.getUserIdByAuthToken(shardToken(token)));
+    assertNull(restarted.getUserIdByAuthToken("notAToken"));
+    assertNull(restarted.getUserIdByAuthToken(null));
+
+    restarted.expireGrantedToken(token);
+    assertNull(dao.getUserIdByAuthToken(token));
+  }
+
+  @Test
+  public void testMappingTokens(){
+    String token = dao.generateMappingTokenForUserId("asdf");
+    assertEquals("asdf", dao.getUserIdByMappingToken(token));
+    dao.expireMappingToken(token);
+    assertNull(dao.getUserIdByMappingToken(token));
+  }
+
+  @Test
+  public void testExternalLinkLookup_acrossShards(){
+    List<ExternalAccountLink> links = new ArrayList<ExternalAccountLink>();
+    for(int i = 0; i < 20; i++){
+      links.add(buildLink("user" + i, "ALEXA", "alexa" + i));
+    }
+    assertEquals(20, dao.createAccountLinks(links).size());
+
+    ShardedAccountLinkingDAO restarted = new ShardedAccountLinkingDAO(shards, new ShardingConfig(), new MetricRegistry());
+    for(int i = 0; i < 20; i++){
+      assertEquals("user" + i, dao.getAccountLinkByExternalUserIdAndExternalSystemName("alexa" + i, "ALEXA").getUserId());
+      assertEquals("user" + i, restarted.getAccountLinkByExternalUserIdAndExternalSystemName("alexa" + i, "ALEXA").getUserId());
+    }
+    assertNull(dao.getAccountLinkByExternalUserIdAndExternalSystemName("missing", "ALEXA"));
+    assertEquals(21, metricRegistry.meter(MetricRegistry.name(ShardedAccountLinkingDAO.class, "index", "reads")).getCount());
+
+    assertEquals("user0", dao.getAccountLinkByExternalUserIdAndExternalSystemName("alexa0", "ALEXA").getUserId());
+    assertEquals(1, metricRegistry.meter(MetricRegistry.name(ShardedAccountLinkingDAO.class, "index", "hits")).getCount());
+    for(InMemoryAccountLinkingDAO shard : shards.values()){
+      verify(shard, never()).getAccountLinkByExternalUserIdAndExternalSystemName(anyString(), anyString());
+    }
+  }
+
+  @Test
+  public void testExternalLinkLookup_followsRelink(){
+    dao.createAccountLink(buildLink("asdf", "STEAM", "1234"));
+    assertEquals("asdf", dao.getAccountLinkByExternalUserIdAndExternalSystemName("1234", "STEAM").getUserId());
+
+    //The user moves to another external id; the old entry is stale, so lookups miss, but they leave it in place
+    dao.createAccountLink(buildLink("asdf", "STEAM", "5678"));
+    assertNull(dao.getAccountLinkByExternalUserIdAndExternalSystemName("1234", "STEAM"));
+    assertEquals("asdf", dao.getAccountLinkByExternalUserIdAndExternalSystemName("5678", "STEAM").getUserId());
+    assertEquals("asdf", shards.get(dao.getShardNameForUserId(ShardedAccountLinkingDAO.externalLinkKey("1234", "STEAM")))
+        .getIndexedUserId("1234", "STEAM"));
+
+    //Another user takes over the external id
+    dao.createAccountLink(buildLink("qwer", "STEAM", "1234"));
+    assertEquals("qwer", dao.getAccountLinkByExternalUserIdAndExternalSystemName("1234", "STEAM").getUserId());
+  }
+
+  @Test(timeout = 10000)
+  public void testExternalLinkLookup_duringCreate_keepsFreshIndexEntry() throws Exception{
+    CountDownLatch indexed = new CountDownLatch(1);
+    CountDownLatch looked = new CountDownLatch(1);
+    InMemoryAccountLinkingDAO owner = shards.get(dao.getShardNameForUserId("asdf"));
+    doAnswer(invocation -> {
+      indexed.countDown();
+      looked.await(5, TimeUnit.SECONDS);
+      return invocation.callRealMethod();
+    }).when(owner).createAccountLink(any(ExternalAccountLink.class));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try{
+      Future<ExternalAccountLink> create = executor.submit(() -> dao.createAccountLink(buildLink("asdf", "STEAM", "1234")));
+      indexed.await();
+      //The entry is written but its link isn't yet, so the lookup misses without touching the entry
+      assertNull(dao.getAccountLinkByExternalUserIdAndExternalSystemName("1234", "STEAM"));
+      looked.countDown();
+      assertNotNull(create.get());
+    }finally{
+      executor.shutdownNow();
+    }
+
+    assertEquals("asdf", dao.getAccountLinkByExternalUserIdAndExternalSystemName("1234", "STEAM").getUserId());
+  }
+
+  @Test(timeout = 30000)
+  public void testExternalLinkLookup_concurrentWithCreates_everyLinkStaysIndexed() throws Exception{
+    final int users = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try{
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for(int i = 0; i < users; i++){
+        final int user = i;
+        futures.add(executor.submit(() -> dao.createAccountLink(buildLink("user" + user, "STEAM", "steam" + user))));
+        futures.add(executor.submit(() -> dao.getAccountLinkByExternalUserIdAndExternalSystemName("steam" + user, "STEAM")));
+      }
+      for(Future<?> future : futures){
+        future.get(10, TimeUnit.SECONDS);
+      }
+    }finally{
+      executor.shutdownNow();
+    }
+
+    for(int i = 0; i < users; i++){
+      assertEquals("user" + i, dao.getAccountLinkByExternalUserIdAndExternalSystemName("steam" + i, "STEAM").getUserId());
+    }
+  }
+
+  @Test
+  public void testScansCountsAndPurges_coverEveryShard(){
+    for(int i = 0; i < 40; i++){
+      dao.generateAuthToken("user" + i);
+    }
+    assertEquals(40, dao.countAuthTokens());
+    List<String> tokens = new ArrayList<String>();
+    assertTrue(dao.forEachLiveAuthToken(tokens::add));
+    assertEquals(40, tokens.size());
+    assertEquals(0, dao.purgeExpiredAuthTokens(100));
+  }
+
+  @Test
+  public void testRevocations_unionAcrossShards(){
+    long expiresAt = System.currentTimeMillis() + 60000;
+    for(int i = 0; i < 10; i++){
+      assertTrue(dao.revokeAuthToken("token" + i, expiresAt));
+    }
+    assertEquals(10, dao.getRevokedAuthTokenIds().size());
+    assertFalse(dao.getRevokedAuthTokenIds().contains("token10"));
+  }
+
+  @Test
+  public void testCreateAccountLinks_groupsByShard(){
+    List<ExternalAccountLink> created = dao.createAccountLinks(Arrays.asList(
+        buildLink("asdf", "STEAM", "1234"), buildLink("asdf", "TWITCH", "twitchy"), buildLink("qwer", "STEAM", "5678")));
+
+    assertEquals(3, created.size());
+    assertEquals(2, dao.getAccountLinksByUserId("asdf").size());
+    assertEquals(1, dao.getAccountLinksByUserId("qwer").size());
+  }
+
+  private static String shardToken(String token){
+    return token.substring(token.indexOf(ShardedAccountLinkingDAO.TOKEN_SEPARATOR) + 1);
+  }
+
+  private static ExternalAccountLink buildLink(String userId, String externalSystemName, String externalUserId){
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId(userId);
+    link.setExternalSystemName(externalSystemName);
+    link.setExternalUserId(externalUserId);
+    return link;
+  }
+}
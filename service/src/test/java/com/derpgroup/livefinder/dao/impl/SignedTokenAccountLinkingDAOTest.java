@@ -0,0 +1,207 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.SignedTokenConfig;
+import com.derpgroup.livefinder.configuration.TokenExpiryConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
+import com.derpgroup.livefinder.model.accountlinking.UserAccount;
+
+public class SignedTokenAccountLinkingDAOTest {
+
+  private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+  private AccountLinkingDAO delegate;
+  private SignedTokenConfig config;
+  private TokenExpiryConfig tokenExpiryConfig;
+  private MutableClock clock;
+  private SignedTokenAccountLinkingDAO dao;
+
+  @Before
+  public void setup(){
+    delegate = spy(new InMemoryAccountLinkingDAO(new AccountLinkingDAOConfig()));
+    config = new SignedTokenConfig();
+    config.setEnabled(true);
+    config.setSecret(SECRET);
+    tokenExpiryConfig = new TokenExpiryConfig();
+    clock = new MutableClock(System.currentTimeMillis());
+    dao = new SignedTokenAccountLinkingDAO(delegate, config, tokenExpiryConfig, new MetricRegistry(), clock);
+  }
+
+  @Test
+  public void testGenerateAuthToken_validatesWithoutDelegate(){
+    String token = dao.generateAuthToken("asdf");
+
+    assertTrue(token.contains("."));
+    assertEquals("asdf", dao.getUserIdByAuthToken(token));
+    verify(delegate, never()).getUserIdByAuthToken(anyString());
+    verify(delegate, never()).generateAuthToken(anyString());
+  }
+
+  @Test
+  public void testGetUserIdByAuthToken_tampered(){
+    String token = dao.generateAuthToken("asdf");
+    char first = token.charAt(0);
+    String tampered = (first == 'A' ? 'B' : 'A') + token.substring(1);
+
+    assertNull(dao.getUserIdByAuthToken(tampered));
+    assertNull(dao.getUserIdByAuthToken("not.base64!"));
+    assertNull(dao.getUserIdByAuthToken("."));
+  }
+
+  @Test
+  public void testGetUserIdByAuthToken_wrongSecret(){
+    String token = dao.generateAuthToken("asdf");
+    config.setSecret("fedcba9876543210fedcba9876543210");
+    SignedTokenAccountLinkingDAO otherDao = new SignedTokenAccountLinkingDAO(delegate, config, tokenExpiryConfig, new MetricRegistry(), clock);
+
+    assertNull(otherDao.getUserIdByAuthToken(token));
+  }
+
+  @Test
+  public void testGetUserIdByAuthToken_expired(){
+    tokenExpiryConfig.setAuthTokenTtlSeconds(TimeUnit.DAYS.toSeconds(90));
+    dao = new SignedTokenAccountLinkingDAO(delegate, config, tokenExpiryConfig, new MetricRegistry(), clock);
+    String token = dao.generateAuthToken("asdf");
+    clock.advance(TimeUnit.SECONDS.toMillis(tokenExpiryConfig.getAuthTokenTtlSeconds()));
+
+    assertNull(dao.getUserIdByAuthToken(token));
+  }
+
+  @Test
+  public void testGetUserIdByAuthToken_expiryDisabledByDefault(){
+    String token = dao.generateAuthToken("asdf");
+    clock.advance(TimeUnit.DAYS.toMillis(3650));
+
+    assertEquals("asdf", dao.getUserIdByAuthToken(token));
+  }
+
+  @Test
+  public void testExpireGrantedToken_revokes(){
+    String token = dao.generateAuthToken("asdf");
+    String otherToken = dao.generateAuthToken("asdf");
+    dao.expireGrantedToken(token);
+
+    assertNull(dao.getUserIdByAuthToken(token));
+    assertEquals("asdf", dao.getUserIdByAuthToken(otherToken));
+  }
+
+  @Test
+  public void testExpireGrantedToken_revocationSeenByOtherNodeAfterRefresh(){
+    SignedTokenAccountLinkingDAO otherNode = new SignedTokenAccountLinkingDAO(delegate, config, tokenExpiryConfig, new MetricRegistry(), clock);
+    String token = dao.generateAuthToken("asdf");
+    assertEquals("asdf", otherNode.getUserIdByAuthToken(token));
+
+    dao.expireGrantedToken(token);
+    assertEquals("asdf", otherNode.getUserIdByAuthToken(token));
+    otherNode.refreshRevocations();
+
+    assertNull(otherNode.getUserIdByAuthToken(token));
+  }
+
+  @Test
+  public void testRefreshRevocations_keepsLocalRevocationsTheDelegateHasNotReported(){
+    String token = dao.generateAuthToken("asdf");
+    dao.expireGrantedToken(token);
+    doReturn(Collections.<String>emptySet()).when(delegate).getRevokedAuthTokenIds();
+
+    dao.refreshRevocations();
+    assertNull(dao.getUserIdByAuthToken(token));
+  }
+
+  @Test
+  public void testGetUserIdByAuthToken_doesNotRefreshOnRequestThread(){
+    String token = dao.generateAuthToken("asdf");
+    clock.advance(TimeUnit.SECONDS.toMillis(config.getRevocationRefreshSeconds()));
+
+    assertEquals("asdf", dao.getUserIdByAuthToken(token));
+    verify(delegate, times(1)).getRevokedAuthTokenIds();
+  }
+
+  @Test
+  public void testGetUserIdByAuthToken_opaqueTokenPassesThrough(){
+    String opaqueToken = delegate.generateAuthToken("asdf");
+
+    assertEquals("asdf", dao.getUserIdByAuthToken(opaqueToken));
+    dao.expireGrantedToken(opaqueToken);
+    assertNull(dao.getUserIdByAuthToken(opaqueToken));
+  }
+
+  @Test
+  public void testLoadUserContextByAuthToken(){
+    UserAccount user = new UserAccount();
+    user.setUserId("asdf");
+    delegate.updateUser(user);
+    ExternalAccountLink link = new ExternalAccountLink();
+    link.setUserId("asdf");
+    link.setExternalSystemName("STEAM");
+    link.setExternalUserId("1234");
+    delegate.createAccountLink(link);
+    String token = dao.generateAuthToken("asdf");
+
+    UserAccount context = dao.loadUserContextByAuthToken(token);
+    assertEquals("asdf", context.getUserId());
+    assertEquals("1234", context.getExternalAccountLinks().get("STEAM").getExternalUserId());
+    verify(delegate, never()).loadUserContextByAuthToken(anyString());
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testConstructor_shortSecret(){
+    config.setSecret("tooShort");
+    new SignedTokenAccountLinkingDAO(delegate, config, tokenExpiryConfig);
+  }
+
+  @Test
+  public void testGenerateAuthToken_unique(){
+    assertFalse(dao.generateAuthToken("asdf").equals(dao.generateAuthToken("asdf")));
+  }
+
+  private static class MutableClock extends Clock{
+    private long millis;
+
+    private MutableClock(long millis){
+      this.millis = millis;
+    }
+
+    private void advance(long deltaMillis){
+      millis += deltaMillis;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+  }
+}
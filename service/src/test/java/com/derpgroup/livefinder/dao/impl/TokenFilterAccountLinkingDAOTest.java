@@ -0,0 +1,135 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.AccountLinkingDAOConfig;
+import com.derpgroup.livefinder.configuration.TokenFilterConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+
+public class TokenFilterAccountLinkingDAOTest {
+
+  private AccountLinkingDAO delegate;
+  private TokenFilterConfig config;
+  private MetricRegistry metricRegistry;
+
+  @Before
+  public void setup(){
+    delegate = spy(new InMemoryAccountLinkingDAO(new AccountLinkingDAOConfig()));
+    config = new TokenFilterConfig();
+    config.setEnabled(true);
+    config.setExpectedInsertions(1000);
+    metricRegistry = new MetricRegistry();
+  }
+
+  @Test
+  public void testUnknownTokenRejectedWithoutDelegate(){
+    TokenFilterAccountLinkingDAO dao = new TokenFilterAccountLinkingDAO(delegate, config, metricRegistry);
+    dao.rebuild();
+    String token = UUID.randomUUID().toString();
+
+    assertNull(dao.getUserIdByAuthToken(token));
+    assertNull(dao.loadUserContextByAuthToken(token));
+    assertNull(dao.getUserIdByMappingToken(token));
+    verify(delegate, never()).getUserIdByAuthToken(token);
+    verify(delegate, never()).loadUserContextByAuthToken(token);
+    verify(delegate, never()).getUserIdByMappingToken(token);
+    assertEquals(2, metricRegistry.meter(MetricRegistry.name(TokenFilterAccountLinkingDAO.class, "authTokens", "rejected")).getCount());
+  }
+
+  @Test
+  public void testIssuedTokenPassesThrough(){
+    TokenFilterAccountLinkingDAO dao = new TokenFilterAccountLinkingDAO(delegate, config, metricRegistry);
+    dao.rebuild();
+
+    assertEquals("asdf", dao.getUserIdByAuthToken(dao.generateAuthToken("asdf")));
+    assertEquals("asdf", dao.getUserIdByMappingToken(dao.generateMappingTokenForUserId("asdf")));
+  }
+
+  @Test
+  public void testStartupBuildIncludesExistingTokens(){
+    String authToken = delegate.generateAuthToken("asdf");
+    String mappingToken = delegate.generateMappingTokenForUserId("asdf");
+    TokenFilterAccountLinkingDAO dao = new TokenFilterAccountLinkingDAO(delegate, config, metricRegistry);
+    dao.rebuild();
+
+    assertEquals("asdf", dao.getUserIdByAuthToken(authToken));
+    assertEquals("asdf", dao.getUserIdByMappingToken(mappingToken));
+  }
+
+  @Test
+  public void testRebuildDropsExpiredTokens(){
+    TokenFilterAccountLinkingDAO dao = new TokenFilterAccountLinkingDAO(delegate, config, metricRegistry);
+    dao.rebuild();
+    String token = dao.generateAuthToken("asdf");
+    dao.expireGrantedToken(token);
+
+    assertNull(dao.getUserIdByAuthToken(token)); //Still in the filter, so the delegate is asked
+    verify(delegate, times(1)).getUserIdByAuthToken(token);
+    assertEquals(1.0, metricRegistry.getGauges().get(
+        MetricRegistry.name(TokenFilterAccountLinkingDAO.class, "authTokens", "falsePositiveRate")).getValue());
+
+    dao.rebuild();
+    assertNull(dao.getUserIdByAuthToken(token));
+    verify(delegate, times(1)).getUserIdByAuthToken(token);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFailedBuildLetsEverythingThrough(){
+    doReturn(false).when(delegate).forEachLiveAuthToken(any(Consumer.class));
+    TokenFilterAccountLinkingDAO dao = new TokenFilterAccountLinkingDAO(delegate, config, metricRegistry);
+    dao.rebuild();
+    String token = delegate.generateAuthToken("asdf");
+
+    assertEquals("asdf", dao.getUserIdByAuthToken(token));
+  }
+
+  @Test
+  public void testLetsEverythingThroughUntilFirstBuild(){
+    String token = delegate.generateAuthToken("asdf");
+    TokenFilterAccountLinkingDAO dao = new TokenFilterAccountLinkingDAO(delegate, config, metricRegistry);
+
+    assertEquals("asdf", dao.getUserIdByAuthToken(token));
+    assertNull(dao.getUserIdByAuthToken(UUID.randomUUID().toString()));
+    verify(delegate, times(2)).getUserIdByAuthToken(any(String.class));
+  }
+
+  @Test
+  public void testConcurrentIssuanceDuringRebuild() throws Exception{
+    final TokenFilterAccountLinkingDAO dao = new TokenFilterAccountLinkingDAO(delegate, config, metricRegistry);
+    dao.rebuild();
+    final String[] tokens = new String[2000];
+    Thread issuer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for(int i = 0; i < tokens.length; i++){
+          tokens[i] = dao.generateAuthToken("user" + i);
+        }
+      }
+    });
+    issuer.start();
+    while(issuer.isAlive()){
+      dao.rebuild();
+    }
+    issuer.join();
+
+    for(int i = 0; i < tokens.length; i++){
+      assertTrue(("user" + i).equals(dao.getUserIdByAuthToken(tokens[i])));
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.derpgroup.livefinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.TokenExpiryConfig;
+import com.derpgroup.livefinder.dao.AccountLinkingDAO;
+
+public class TokenSweeperTest {
+
+  private AccountLinkingDAO dao;
+  private MetricRegistry metricRegistry;
+  private TokenSweeper sweeper;
+
+  @Before
+  public void setup(){
+    dao = mock(AccountLinkingDAO.class);
+    metricRegistry = new MetricRegistry();
+    TokenExpiryConfig config = new TokenExpiryConfig();
+    config.setSweepBatchSize(100);
+    sweeper = new TokenSweeper(dao, config, metricRegistry);
+  }
+
+  @Test
+  public void testSweep_drainsInBatchesUntilShort(){
+    when(dao.purgeExpiredMappingTokens(100)).thenReturn(100, 100, 7);
+    when(dao.purgeExpiredAuthTokens(100)).thenReturn(0);
+    when(dao.countMappingTokens()).thenReturn(12L);
+    when(dao.countAuthTokens()).thenReturn(34L);
+
+    sweeper.sweep();
+
+    verify(dao, times(3)).purgeExpiredMappingTokens(100);
+    verify(dao, times(1)).purgeExpiredAuthTokens(100);
+    assertEquals(207, metricRegistry.meter(MetricRegistry.name(TokenSweeper.class, "mappingTokens", "swept")).getCount());
+    assertEquals(0, metricRegistry.meter(MetricRegistry.name(TokenSweeper.class, "authTokens", "swept")).getCount());
+    assertEquals(12L, sweeper.getMappingTokenCount());
+    assertEquals(34L, sweeper.getAuthTokenCount());
+  }
+
+  @Test
+  public void testSweep_stopsOnFailure(){
+    when(dao.purgeExpiredMappingTokens(100)).thenReturn(-1);
+    when(dao.purgeExpiredAuthTokens(100)).thenReturn(-1);
+
+    sweeper.sweep();
+
+    verify(dao, times(1)).purgeExpiredMappingTokens(100);
+    verify(dao, times(1)).purgeExpiredAuthTokens(100);
+  }
+}
@@ -0,0 +1,315 @@
+package com.derpgroup.livefinder.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.SteamApiConfig;
+import com.derpgroup.livefinder.manager.SteamRateLimiter.Priority;
+import com.lukaspradel.steamapi.core.exception.SteamApiException;
+import com.lukaspradel.steamapi.data.json.friendslist.Friend;
+import com.lukaspradel.steamapi.data.json.friendslist.Friendslist;
+import com.lukaspradel.steamapi.data.json.friendslist.GetFriendList;
+import com.lukaspradel.steamapi.data.json.playersummaries.GetPlayerSummaries;
+import com.lukaspradel.steamapi.data.json.playersummaries.Player;
+import com.lukaspradel.steamapi.data.json.playersummaries.Response;
+import com.lukaspradel.steamapi.webapi.client.SteamWebApiClient;
+import com.lukaspradel.steamapi.webapi.request.SteamWebApiRequest;
+
+public class SteamClientTest {
+
+  private SteamWebApiClient webApiClient;
+  private MetricRegistry metricRegistry;
+  private SteamClient client;
+  private List<List<String>> requestedIds;
+  private List<String> friendListRequests;
+  private volatile CyclicBarrier barrier;
+  private volatile CountDownLatch gate;
+  private volatile CountDownLatch summaryGate;
+
+  @Before
+  public void setup() throws Exception{
+    requestedIds = Collections.synchronizedList(new ArrayList<List<String>>());
+    friendListRequests = Collections.synchronizedList(new ArrayList<String>());
+    webApiClient = mock(SteamWebApiClient.class);
+    when(webApiClient.processRequest(any(SteamWebApiRequest.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        SteamWebApiRequest request = (SteamWebApiRequest) invocation.getArguments()[0];
+        if(request.getParameters().containsKey("steamid")){
+          String steamId = request.getParameters().get("steamid");
+          friendListRequests.add(steamId);
+          if(gate != null){
+            gate.await(5, TimeUnit.SECONDS);
+          }
+          List<Friend> friends = new ArrayList<Friend>();
+          for(int i = 0; i < 3; i++){
+            friends.add(new Friend().withSteamid(steamId + "friend" + i));
+          }
+          return new GetFriendList().withFriendslist(new Friendslist().withFriends(friends));
+        }
+        List<String> steamIds = Arrays.asList(request.getParameters().get("steamids").split(","));
+        requestedIds.add(steamIds);
+        if(summaryGate != null){
+          summaryGate.await(5, TimeUnit.SECONDS);
+        }
+        if(barrier != null){
+          barrier.await(5, TimeUnit.SECONDS);
+        }
+        if(steamIds.contains("throttled")){
+          throw new SteamApiException(SteamApiException.Cause.HTTP_ERROR, 429, "Too Many Requests");
+        }
+        if(steamIds.contains("fail")){
+          throw new SteamApiException("Steam is down.");
+        }
+        List<Player> players = new ArrayList<Player>();
+        for(String steamId : steamIds){
+          if(!steamId.startsWith("unknown")){
+            players.add(new Player().withSteamid(steamId).withPersonaname("name" + steamId).withPersonastate(1));
+          }
+        }
+        return new GetPlayerSummaries().withResponse(new Response().withPlayers(players));
+      }
+    });
+
+    SteamApiConfig config = new SteamApiConfig();
+    config.setPresenceTtlSeconds(1);
+    config.getRateLimit().setInteractiveMaxWaitMillis(0);
+    metricRegistry = new MetricRegistry();
+    client = new SteamClient(webApiClient, config, metricRegistry);
+  }
+
+  @After
+  public void tearDown() throws Exception{
+    client.stop();
+  }
+
+  private static List<String> numberedIds(int count){
+    List<String> steamIds = new ArrayList<String>();
+    for(int i = 0; i < count; i++){
+      steamIds.add(Integer.toString(i));
+    }
+    return steamIds;
+  }
+
+  private static List<String> steamIds(List<Player> players){
+    List<String> steamIds = new ArrayList<String>();
+    for(Player player : players){
+      steamIds.add(player.getSteamid());
+    }
+    return steamIds;
+  }
+
+  @Test
+  public void testOnlyMissingIdsAreFetched() throws Exception{
+    assertEquals(Arrays.asList("1", "2"), steamIds(client.getPlayerSummaries(Arrays.asList("1", "2"))));
+    assertEquals(Arrays.asList("2", "3", "1"), steamIds(client.getPlayerSummaries(Arrays.asList("2", "3", "1"))));
+
+    assertEquals(2, requestedIds.size());
+    assertEquals(Arrays.asList("1", "2"), requestedIds.get(0));
+    assertEquals(Arrays.asList("3"), requestedIds.get(1));
+  }
+
+  @Test
+  public void testFullyCachedRequestAvoidsSteam() throws Exception{
+    client.getPlayerSummaries(Arrays.asList("1", "2"));
+    client.getPlayerSummaries(Arrays.asList("2", "1"));
+
+    assertEquals(1, requestedIds.size());
+    assertEquals(1, metricRegistry.meter(MetricRegistry.name(SteamClient.class, "presence", "calls")).getCount());
+    assertEquals(1, metricRegistry.meter(MetricRegistry.name(SteamClient.class, "presence", "callsAvoided")).getCount());
+    Gauge<?> hitRatio = metricRegistry.getGauges().get(MetricRegistry.name(SteamClient.class, "presence", "hitRatio"));
+    assertEquals(0.5, (Double) hitRatio.getValue(), 0.0001);
+  }
+
+  @Test
+  public void testStaleIdsAreFetchedAgain() throws Exception{
+    client.getPlayerSummaries(Arrays.asList("1"));
+    Thread.sleep(1100);
+    client.getPlayerSummaries(Arrays.asList("1"));
+
+    assertEquals(2, requestedIds.size());
+  }
+
+  @Test
+  public void testUnknownIdsAreNotCached() throws Exception{
+    assertEquals(Arrays.asList("1"), steamIds(client.getPlayerSummaries(Arrays.asList("unknown1", "1"))));
+    client.getPlayerSummaries(Arrays.asList("unknown1", "1"));
+
+    assertEquals(Arrays.asList("unknown1"), requestedIds.get(1));
+  }
+
+  @Test
+  public void testEmptyRequestNeverReachesSteam() throws Exception{
+    assertEquals(0, client.getPlayerSummaries(new ArrayList<String>()).size());
+    verify(webApiClient, never()).processRequest(any(SteamWebApiRequest.class));
+  }
+
+  @Test
+  public void testLargeListsAreFetchedInChunksOfAHundred() throws Exception{
+    List<String> steamIds = numberedIds(250);
+    Collections.shuffle(steamIds);
+
+    assertEquals(steamIds, steamIds(client.getPlayerSummaries(steamIds)));
+    List<Integer> chunkSizes = new ArrayList<Integer>();
+    for(List<String> request : requestedIds){
+      chunkSizes.add(request.size());
+    }
+    Collections.sort(chunkSizes);
+    assertEquals(Arrays.asList(50, 100, 100), chunkSizes);
+  }
+
+  @Test
+  public void testChunksAreFetchedConcurrently() throws Exception{
+    barrier = new CyclicBarrier(3);
+
+    assertEquals(300, client.getPlayerSummaries(numberedIds(300)).size());
+  }
+
+  @Test
+  public void testFailedChunkFailsTheLookup() throws Exception{
+    List<String> steamIds = numberedIds(150);
+    steamIds.set(120, "fail");
+    try{
+      client.getPlayerSummaries(steamIds);
+      fail("A failed chunk should fail the whole lookup.");
+    }catch(SteamApiException e){
+      assertEquals("Steam is down.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testFriendListsAreCachedPerSteamId() throws Exception{
+    List<String> friendIds = client.getFriendIds("1");
+    assertEquals(Arrays.asList("1friend0", "1friend1", "1friend2"), friendIds);
+    assertEquals(friendIds, client.getFriendIds("1"));
+    client.getFriendIds("2");
+
+    assertEquals(Arrays.asList("1", "2"), friendListRequests);
+  }
+
+  @Test
+  public void testInvalidatedFriendListIsFetchedAgain() throws Exception{
+    client.getFriendIds("1");
+    client.invalidateFriendIds("1");
+    client.getFriendIds("1");
+
+    assertEquals(Arrays.asList("1", "1"), friendListRequests);
+  }
+
+  @Test
+  public void testFriendListsOutliveThePresenceTtl() throws Exception{
+    client.getPlayerSummaries(client.getFriendIds("1"));
+    Thread.sleep(1100);
+    client.getPlayerSummaries(client.getFriendIds("1"));
+
+    assertEquals(Arrays.asList("1"), friendListRequests);
+    assertEquals(2, requestedIds.size());
+  }
+
+  @Test
+  public void testConcurrentIdenticalRequestsShareOneCall() throws Exception{
+    gate = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try{
+      Future<List<String>> first = executor.submit(() -> client.getFriendIds("1"));
+      Future<List<String>> second = executor.submit(() -> client.getFriendIds("1"));
+      Meter coalesced = metricRegistry.meter(MetricRegistry.name(SteamClient.class, "coalesced"));
+      long deadline = System.currentTimeMillis() + 5000;
+      while(coalesced.getCount() < 1 && System.currentTimeMillis() < deadline){
+        Thread.sleep(10);
+      }
+      gate.countDown();
+
+      assertEquals(first.get(), second.get());
+      assertEquals(1, coalesced.getCount());
+      assertEquals(Arrays.asList("1"), friendListRequests);
+    }finally{
+      executor.shutdown();
+    }
+  }
+
+  private void awaitRequests(int count) throws InterruptedException{
+    long deadline = System.currentTimeMillis() + 5000;
+    while(requestedIds.size() < count && System.currentTimeMillis() < deadline){
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testOverlappingLookupsShareInFlightIds() throws Exception{
+    summaryGate = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try{
+      Future<List<Player>> first = executor.submit(() -> client.getPlayerSummaries(Arrays.asList("1", "2", "3")));
+      awaitRequests(1);
+      Future<List<Player>> second = executor.submit(() -> client.getPlayerSummaries(Arrays.asList("2", "3", "4")));
+      awaitRequests(2);
+      summaryGate.countDown();
+
+      assertEquals(Arrays.asList("1", "2", "3"), steamIds(first.get()));
+      assertEquals(Arrays.asList("2", "3", "4"), steamIds(second.get()));
+      assertEquals(Arrays.asList(Arrays.asList("1", "2", "3"), Arrays.asList("4")), requestedIds);
+    }finally{
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testInteractiveLookupsDoNotJoinBackgroundFetches() throws Exception{
+    summaryGate = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try{
+      Future<List<Player>> background = executor.submit(() -> client.getPlayerSummaries(Arrays.asList("1"), Priority.BACKGROUND));
+      awaitRequests(1);
+      Future<List<Player>> interactive = executor.submit(() -> client.getPlayerSummaries(Arrays.asList("1"), Priority.INTERACTIVE));
+      awaitRequests(2);
+      summaryGate.countDown();
+
+      assertEquals(Arrays.asList("1"), steamIds(background.get()));
+      assertEquals(Arrays.asList("1"), steamIds(interactive.get()));
+      assertEquals(2, requestedIds.size());
+    }finally{
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testThrottledAnswerHoldsBackFurtherCalls() throws Exception{
+    try{
+      client.getPlayerSummaries(Arrays.asList("throttled"));
+      fail("Steam's 429 should reach the caller.");
+    }catch(SteamApiException e){
+    }
+    try{
+      client.getPlayerSummaries(Arrays.asList("1"));
+      fail("Calls during the backoff should be refused without reaching Steam.");
+    }catch(SteamRateLimitedException e){
+    }
+    assertEquals(1, requestedIds.size());
+  }
+}
@@ -0,0 +1,210 @@
+package com.derpgroup.livefinder.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.derpgroup.livefinder.configuration.SteamRateLimitConfig;
+import com.derpgroup.livefinder.health.SteamRateLimitHealthCheck;
+import com.derpgroup.livefinder.manager.SteamRateLimiter.Priority;
+import com.google.common.base.Ticker;
+import com.lukaspradel.steamapi.core.exception.SteamApiException;
+import com.lukaspradel.steamapi.core.exception.SteamApiException.Cause;
+
+public class SteamRateLimiterTest {
+
+  private long nanos;
+  private long wallMillis;
+  private SteamRateLimitConfig config;
+  private MetricRegistry metricRegistry;
+  private SteamRateLimiter rateLimiter;
+
+  @Before
+  public void setup(){
+    config = new SteamRateLimitConfig();
+    config.setRequestsPerMinute(60);
+    config.setBurstCapacity(5);
+    config.setInteractiveReserve(2);
+    config.setInteractiveMaxWaitMillis(0);
+    config.setBackgroundMaxWaitMillis(0);
+    config.setInitialBackoffMillis(1000);
+    config.setMaxBackoffMillis(3000);
+    metricRegistry = new MetricRegistry();
+    wallMillis = Instant.parse("2026-01-01T23:00:00Z").toEpochMilli();
+    rateLimiter = new SteamRateLimiter(config, metricRegistry, new Ticker() {
+      @Override
+      public long read() {
+        return nanos;
+      }
+    }, new Clock() {
+      @Override
+      public ZoneId getZone() {
+        return ZoneOffset.UTC;
+      }
+
+      @Override
+      public Clock withZone(ZoneId zone) {
+        return this;
+      }
+
+      @Override
+      public Instant instant() {
+        return Instant.ofEpochMilli(wallMillis);
+      }
+    });
+  }
+
+  private void advanceMillis(long millis){
+    nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    wallMillis += millis;
+  }
+
+  private boolean tryAcquire(Priority priority) throws SteamApiException{
+    try{
+      rateLimiter.acquire(priority);
+      return true;
+    }catch(SteamRateLimitedException e){
+      return false;
+    }
+  }
+
+  private static SteamApiException httpError(int statusCode){
+    return new SteamApiException(Cause.HTTP_ERROR, statusCode, "Error");
+  }
+
+  @Test
+  public void testBurstThenRefill() throws Exception{
+    for(int i = 0; i < 5; i++){
+      assertTrue(tryAcquire(Priority.INTERACTIVE));
+    }
+    assertFalse(tryAcquire(Priority.INTERACTIVE));
+    assertEquals(1, metricRegistry.meter(MetricRegistry.name(SteamRateLimiter.class, "rejected")).getCount());
+
+    advanceMillis(1000);
+    assertTrue(tryAcquire(Priority.INTERACTIVE));
+    assertFalse(tryAcquire(Priority.INTERACTIVE));
+  }
+
+  @Test
+  public void testBackgroundLeavesTheReserveToInteractive() throws Exception{
+    assertTrue(tryAcquire(Priority.BACKGROUND));
+    assertTrue(tryAcquire(Priority.BACKGROUND));
+    assertTrue(tryAcquire(Priority.BACKGROUND));
+    assertFalse(tryAcquire(Priority.BACKGROUND));
+
+    assertTrue(tryAcquire(Priority.INTERACTIVE));
+    assertTrue(tryAcquire(Priority.INTERACTIVE));
+    assertEquals(0, rateLimiter.getRemaining(), 0.0001);
+  }
+
+  @Test
+  public void testThrottledAnswersBackOffExponentially() throws Exception{
+    rateLimiter.onFailure(httpError(429));
+    assertEquals(1000, rateLimiter.getBackoffRemainingMillis());
+    assertFalse(tryAcquire(Priority.INTERACTIVE));
+
+    rateLimiter.onFailure(httpError(503));
+    assertEquals(2000, rateLimiter.getBackoffRemainingMillis());
+    rateLimiter.onFailure(httpError(503));
+    assertEquals(3000, rateLimiter.getBackoffRemainingMillis());
+
+    advanceMillis(3000);
+    assertTrue(tryAcquire(Priority.INTERACTIVE));
+    rateLimiter.onSuccess();
+    rateLimiter.onFailure(httpError(429));
+    assertEquals(1000, rateLimiter.getBackoffRemainingMillis());
+  }
+
+  @Test
+  public void testOtherFailuresDoNotBackOff() throws Exception{
+    rateLimiter.onFailure(httpError(404));
+    rateLimiter.onFailure(new SteamApiException(Cause.FORBIDDEN, 401, null));
+    rateLimiter.onFailure(new SteamApiException("Connection refused"));
+
+    assertEquals(0, rateLimiter.getBackoffRemainingMillis());
+    assertEquals(0, metricRegistry.meter(MetricRegistry.name(SteamRateLimiter.class, "backoffs")).getCount());
+  }
+
+  @Test
+  public void testStatusCodeIsReadFromTheMessage(){
+    assertEquals(Integer.valueOf(429), SteamRateLimiter.getStatusCode(httpError(429)));
+    assertNull(SteamRateLimiter.getStatusCode(new SteamApiException("Connection refused")));
+  }
+
+  @Test
+  public void testWaitsForATokenWithinTheMaxWait() throws Exception{
+    config.setRequestsPerMinute(60000);
+    config.setInteractiveMaxWaitMillis(1000);
+    SteamRateLimiter realTimeLimiter = new SteamRateLimiter(config, new MetricRegistry());
+    for(int i = 0; i < 20; i++){
+      realTimeLimiter.acquire(Priority.INTERACTIVE);
+    }
+  }
+
+  @Test
+  public void testDisabledLimiterNeverRejects() throws Exception{
+    config.setEnabled(false);
+    rateLimiter.onFailure(httpError(429));
+    for(int i = 0; i < 20; i++){
+      assertTrue(tryAcquire(Priority.BACKGROUND));
+    }
+  }
+
+  @Test
+  public void testHealthCheckStaysHealthyWhileBackingOff() throws Exception{
+    SteamRateLimitHealthCheck healthCheck = new SteamRateLimitHealthCheck(rateLimiter);
+    assertTrue(healthCheck.execute().isHealthy());
+
+    rateLimiter.onFailure(httpError(429));
+    assertTrue(healthCheck.execute().isHealthy());
+    assertTrue(healthCheck.execute().getMessage().contains("backing off"));
+
+    advanceMillis(1000);
+    assertTrue(healthCheck.execute().isHealthy());
+    assertFalse(healthCheck.execute().getMessage().contains("backing off"));
+  }
+
+  @Test
+  public void testCallsAreCountedPerUtcDay() throws Exception{
+    for(int i = 0; i < 5; i++){
+      assertTrue(tryAcquire(Priority.INTERACTIVE));
+    }
+    assertFalse(tryAcquire(Priority.INTERACTIVE)); //Rejected calls never reach Steam, so they aren't counted
+    assertEquals(5, rateLimiter.getCallsToday());
+    assertEquals(5L, metricRegistry.getGauges().get(MetricRegistry.name(SteamRateLimiter.class, "callsToday")).getValue());
+
+    advanceMillis(TimeUnit.MINUTES.toMillis(59));
+    assertEquals(5, rateLimiter.getCallsToday());
+    advanceMillis(TimeUnit.MINUTES.toMillis(1));
+    assertEquals(0, rateLimiter.getCallsToday());
+  }
+
+  @Test
+  public void testHealthCheckFailsWhenTheDailyQuotaIsNearlySpent() throws Exception{
+    config.setDailyQuota(10);
+    config.setDailyQuotaUnhealthyPercent(50);
+    SteamRateLimitHealthCheck healthCheck = new SteamRateLimitHealthCheck(rateLimiter);
+
+    for(int i = 0; i < 4; i++){
+      assertTrue(tryAcquire(Priority.INTERACTIVE));
+    }
+    assertTrue(healthCheck.execute().isHealthy());
+    assertTrue(tryAcquire(Priority.INTERACTIVE));
+    assertFalse(healthCheck.execute().isHealthy());
+    assertTrue(healthCheck.execute().getMessage().contains("5 of 10 daily Steam calls used"));
+
+    advanceMillis(TimeUnit.HOURS.toMillis(1)); //Midnight UTC
+    assertTrue(healthCheck.execute().isHealthy());
+  }
+}
@@ -0,0 +1,63 @@
+package com.derpgroup.livefinder.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+
+  @Test
+  public void testGet_isStable(){
+    ConsistentHashRing<String> ring = buildRing(4);
+    ConsistentHashRing<String> sameRing = buildRing(4);
+    for(int i = 0; i < 1000; i++){
+      assertEquals(ring.get("user" + i), sameRing.get("user" + i));
+    }
+  }
+
+  @Test
+  public void testGet_spreadsKeysEvenly(){
+    ConsistentHashRing<String> ring = buildRing(4);
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    for(int i = 0; i < 100000; i++){
+      counts.merge(ring.get("user" + i), 1, Integer::sum);
+    }
+    assertEquals(4, counts.size());
+    for(int count : counts.values()){
+      assertTrue("Uneven share: " + counts, count > 20000 && count < 30000);
+    }
+  }
+
+  @Test
+  public void testAddingNode_onlyMovesKeysToIt(){
+    ConsistentHashRing<String> before = buildRing(4);
+    ConsistentHashRing<String> after = buildRing(5);
+    int moved = 0;
+    for(int i = 0; i < 100000; i++){
+      String owner = after.get("user" + i);
+      if(!owner.equals(before.get("user" + i))){
+        assertEquals("shard4", owner);
+        moved++;
+      }
+    }
+    assertTrue("Moved " + moved, moved > 15000 && moved < 25000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyRing(){
+    new ConsistentHashRing<String>(new HashMap<String, String>(), 160);
+  }
+
+  private static ConsistentHashRing<String> buildRing(int nodes){
+    Map<String, String> shards = new LinkedHashMap<String, String>();
+    for(int i = 0; i < nodes; i++){
+      shards.put("shard" + i, "shard" + i);
+    }
+    return new ConsistentHashRing<String>(shards, 160);
+  }
+}
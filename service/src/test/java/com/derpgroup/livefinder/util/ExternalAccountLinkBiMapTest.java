@@ -1,22 +1,193 @@
 package com.derpgroup.livefinder.util;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
+import org.junit.Test;
 
 import com.derpgroup.livefinder.model.accountlinking.ExternalAccountLink;
 
 public class ExternalAccountLinkBiMapTest {
 
-  public Map<String,ExternalAccountLink> accountLinks;
-  
+  public ExternalAccountLinkBiMap<String,ExternalAccountLink> accountLinks;
+
   @Before
   public void setup(){
     accountLinks = new ExternalAccountLinkBiMap<String,ExternalAccountLink>();
   }
-  
+
+  @Test
   public void testPut(){
+    ExternalAccountLink link = buildLink("asdf", "STEAM", "1234");
+    assertNull(accountLinks.put("key", link));
+
+    assertSame(link, accountLinks.get("key"));
+    assertTrue(accountLinks.getByUserId("asdf").contains(link));
+    assertSame(link, accountLinks.getByExternalUserIdAndExternalSystemName("1234", "STEAM"));
+  }
+
+  @Test
+  public void testPut_replaceReindexes(){
+    ExternalAccountLink first = buildLink("asdf", "STEAM", "1234");
+    ExternalAccountLink second = buildLink("qwer", "STEAM", "5678");
+    accountLinks.put("key", first);
+    assertSame(first, accountLinks.put("key", second));
+
+    assertTrue(accountLinks.getByUserId("asdf").isEmpty());
+    assertNull(accountLinks.getByExternalUserIdAndExternalSystemName("1234", "STEAM"));
+    assertTrue(accountLinks.getByUserId("qwer").contains(second));
+    assertSame(second, accountLinks.getByExternalUserIdAndExternalSystemName("5678", "STEAM"));
+  }
+
+  @Test
+  public void testRemove(){
+    ExternalAccountLink link = buildLink("asdf", "STEAM", "1234");
+    accountLinks.put("key", link);
+
+    assertSame(link, accountLinks.remove("key"));
+    assertNull(accountLinks.get("key"));
+    assertTrue(accountLinks.getByUserId("asdf").isEmpty());
+    assertNull(accountLinks.getByExternalUserIdAndExternalSystemName("1234", "STEAM"));
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testGetKeysByUserId_returnsDetachedCopy(){
+    ExternalAccountLink link = buildLink("asdf", "STEAM", "1234");
+    assertNull(accountLinks.getKeysByUserId("asdf"));
+    accountLinks.put("key", link);
+
+    Set<ExternalAccountLink> links = accountLinks.getKeysByUserId("asdf");
+    assertTrue(links.contains(link));
+    links.clear();
+    assertTrue(accountLinks.getByUserId("asdf").contains(link));
+  }
+
+  @Test
+  public void testRemove_keepsSameLinkUnderAnotherKey(){
+    ExternalAccountLink link = buildLink("asdf", "STEAM", "1234");
+    accountLinks.put("first", link);
+    accountLinks.put("second", link);
+
+    accountLinks.remove("first");
+    assertEquals(1, accountLinks.getByUserId("asdf").size());
+    assertTrue(accountLinks.getByUserId("asdf").contains(link));
+    assertSame(link, accountLinks.getByExternalUserIdAndExternalSystemName("1234", "STEAM"));
+  }
+
+  @Test
+  public void testRemove_keepsUsersOtherLinks(){
+    ExternalAccountLink steam = buildLink("asdf", "STEAM", "1234");
+    ExternalAccountLink twitch = buildLink("asdf", "TWITCH", "5678");
+    accountLinks.put("steam", steam);
+    accountLinks.put("twitch", twitch);
+
+    accountLinks.remove("steam");
+    assertEquals(1, accountLinks.getByUserId("asdf").size());
+    assertTrue(accountLinks.getByUserId("asdf").contains(twitch));
+  }
+
+  @Test
+  public void testRemove_missingKey(){
+    assertNull(accountLinks.remove("missing"));
+    assertNull(accountLinks.remove(null));
+  }
+
+  @Test
+  public void testRemove_keepsNewerExternalIndexEntry(){
+    ExternalAccountLink first = buildLink("asdf", "STEAM", "1234");
+    ExternalAccountLink second = buildLink("qwer", "STEAM", "1234");
+    accountLinks.put("first", first);
+    accountLinks.put("second", second);
+
+    accountLinks.remove("first");
+    assertSame(second, accountLinks.getByExternalUserIdAndExternalSystemName("1234", "STEAM"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testEntrySet_readOnly(){
+    accountLinks.put("key", buildLink("asdf", "STEAM", "1234"));
+    accountLinks.entrySet().clear();
+  }
+
+  /**
+   * Hammers a small key space from many threads, then checks that every index agrees with the forward map.
+   */
+  @Test
+  public void testConcurrentPutAndRemove() throws Exception{
+    final int threads = 16;
+    final int operationsPerThread = 20000;
+    final int keys = 64;
+    final int users = 8;
+    final CountDownLatch startGate = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try{
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for(int i = 0; i < threads; i++){
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            startGate.await();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for(int j = 0; j < operationsPerThread; j++){
+              int key = random.nextInt(keys);
+              if(random.nextInt(4) == 0){
+                accountLinks.remove("key" + key);
+              }else{
+                accountLinks.put("key" + key, buildLink("user" + random.nextInt(users), "STEAM", "ext" + key));
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      startGate.countDown();
+      for(Future<Void> future : futures){
+        future.get(60, TimeUnit.SECONDS);
+      }
+    }finally{
+      executor.shutdownNow();
+    }
+
+    int indexedByUser = 0;
+    for(int i = 0; i < users; i++){
+      Collection<ExternalAccountLink> links = accountLinks.getByUserId("user" + i);
+      for(ExternalAccountLink link : links){
+        assertSame(link, accountLinks.get("key" + link.getExternalUserId().substring(3)));
+      }
+      indexedByUser += links.size();
+    }
+    assertEquals(accountLinks.size(), indexedByUser);
+
+    for(int i = 0; i < keys; i++){
+      assertSame(accountLinks.get("key" + i), accountLinks.getByExternalUserIdAndExternalSystemName("ext" + i, "STEAM"));
+    }
+    for(Map.Entry<String,ExternalAccountLink> entry : accountLinks.entrySet()){
+      assertTrue(accountLinks.getByUserId(entry.getValue().getUserId()).contains(entry.getValue()));
+    }
+  }
+
+  private static ExternalAccountLink buildLink(String userId, String externalSystemName, String externalUserId){
     ExternalAccountLink link = new ExternalAccountLink();
-    link.setUserId("asdf");
+    link.setUserId(userId);
+    link.setExternalSystemName(externalSystemName);
+    link.setExternalUserId(externalUserId);
+    return link;
   }
 }
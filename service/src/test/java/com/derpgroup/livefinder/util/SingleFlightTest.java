@@ -0,0 +1,188 @@
+package com.derpgroup.livefinder.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+
+public class SingleFlightTest {
+
+  private static final int CALLERS = 8;
+
+  private Meter coalesced;
+  private SingleFlight<String, Object> singleFlight;
+  private ExecutorService executor;
+  private AtomicInteger calls;
+
+  @Before
+  public void setup(){
+    coalesced = new Meter();
+    singleFlight = new SingleFlight<String, Object>(coalesced);
+    executor = Executors.newFixedThreadPool(CALLERS);
+    calls = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown(){
+    executor.shutdownNow();
+  }
+
+  /**
+   * Starts the callers, waits until all but the first are waiting on its call, then lets the call finish.
+   */
+  private List<Future<Object>> callConcurrently(String key, SingleFlight.Call<Object, IOException> call) throws Exception{
+    CountDownLatch release = new CountDownLatch(1);
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    for(int i = 0; i < CALLERS; i++){
+      results.add(executor.submit(() -> singleFlight.execute(key, () -> {
+        calls.incrementAndGet();
+        release.await(5, TimeUnit.SECONDS);
+        return call.call();
+      })));
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while(coalesced.getCount() < CALLERS - 1 && System.currentTimeMillis() < deadline){
+      Thread.sleep(10);
+    }
+    release.countDown();
+    return results;
+  }
+
+  @Test
+  public void testConcurrentCallsShareOneResult() throws Exception{
+    Object result = new Object();
+    for(Future<Object> future : callConcurrently("key", () -> result)){
+      assertSame(result, future.get());
+    }
+
+    assertEquals(1, calls.get());
+    assertEquals(CALLERS - 1, coalesced.getCount());
+    assertEquals(0, singleFlight.size());
+  }
+
+  @Test
+  public void testConcurrentCallsShareOneException() throws Exception{
+    IOException failure = new IOException("Upstream is down.");
+    for(Future<Object> future : callConcurrently("key", () -> {throw failure;})){
+      try{
+        future.get();
+        fail("Every caller should see the failure.");
+      }catch(ExecutionException e){
+        assertSame(failure, e.getCause());
+      }
+    }
+
+    assertEquals(1, calls.get());
+    assertEquals(0, singleFlight.size());
+  }
+
+  @Test
+  public void testExecuteAll_joinsInFlightKeysAndFetchesTheRest() throws Exception{
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Object shared = new Object();
+    Future<Object> single = executor.submit(() -> singleFlight.execute("a", () -> {
+      started.countDown();
+      release.await(5, TimeUnit.SECONDS);
+      return shared;
+    }));
+    started.await();
+
+    List<List<String>> batches = new ArrayList<List<String>>();
+    Future<Map<String, Object>> batch = executor.submit(() -> singleFlight.executeAll(Arrays.asList("a", "b", "c"), keys -> {
+      batches.add(keys);
+      Map<String, Object> found = new HashMap<String, Object>();
+      found.put("b", "valueB"); //c has no value
+      return found;
+    }));
+    long deadline = System.currentTimeMillis() + 5000;
+    while(coalesced.getCount() < 1 && System.currentTimeMillis() < deadline){
+      Thread.sleep(10);
+    }
+    release.countDown();
+
+    assertSame(shared, single.get());
+    Map<String, Object> values = batch.get();
+    assertSame(shared, values.get("a"));
+    assertEquals("valueB", values.get("b"));
+    assertFalse(values.containsKey("c"));
+    assertEquals(Arrays.asList(Arrays.asList("b", "c")), batches);
+    assertEquals(0, singleFlight.size());
+  }
+
+  @Test
+  public void testExecuteAll_failureReachesCallersWaitingOnItsKeys() throws Exception{
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    IOException failure = new IOException("Upstream is down.");
+    Future<Map<String, Object>> batch = executor.submit(() -> singleFlight.executeAll(Arrays.asList("a", "b"), keys -> {
+      started.countDown();
+      release.await(5, TimeUnit.SECONDS);
+      throw failure;
+    }));
+    started.await();
+    Future<Object> single = executor.submit(() -> singleFlight.execute("b", () -> calls.incrementAndGet()));
+    long deadline = System.currentTimeMillis() + 5000;
+    while(coalesced.getCount() < 1 && System.currentTimeMillis() < deadline){
+      Thread.sleep(10);
+    }
+    release.countDown();
+
+    for(Future<?> future : Arrays.asList(batch, single)){
+      try{
+        future.get();
+        fail("Every caller should see the failure.");
+      }catch(ExecutionException e){
+        assertSame(failure, e.getCause());
+      }
+    }
+    assertEquals(0, calls.get());
+    assertEquals(0, singleFlight.size());
+  }
+
+  @Test
+  public void testSequentialCallsAreNotCoalesced() throws Exception{
+    singleFlight.execute("key", () -> calls.incrementAndGet());
+    singleFlight.execute("key", () -> calls.incrementAndGet());
+
+    assertEquals(2, calls.get());
+    assertEquals(0, coalesced.getCount());
+  }
+
+  @Test
+  public void testDifferentKeysAreNotCoalesced() throws Exception{
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    Future<Object> first = executor.submit(() -> singleFlight.execute("first", () -> {
+      bothStarted.countDown();
+      return bothStarted.await(5, TimeUnit.SECONDS);
+    }));
+    Future<Object> second = executor.submit(() -> singleFlight.execute("second", () -> {
+      bothStarted.countDown();
+      return bothStarted.await(5, TimeUnit.SECONDS);
+    }));
+
+    assertEquals(true, first.get());
+    assertEquals(true, second.get());
+    assertEquals(0, coalesced.getCount());
+  }
+}
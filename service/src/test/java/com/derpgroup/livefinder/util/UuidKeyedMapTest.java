@@ -0,0 +1,141 @@
+package com.derpgroup.livefinder.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class UuidKeyedMapTest {
+
+  private UuidKeyedMap<String> map;
+
+  @Before
+  public void setup(){
+    map = new UuidKeyedMap<String>();
+  }
+
+  @Test
+  public void testPutGetRemove(){
+    UUID key = UUID.randomUUID();
+    assertNull(map.put(key, "first"));
+    assertEquals("first", map.put(key, "second"));
+    assertEquals("second", map.get(key));
+    assertEquals(1, map.size());
+
+    assertEquals("second", map.remove(key));
+    assertNull(map.get(key));
+    assertNull(map.remove(key));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testGrowthAndTombstoneReuse(){
+    List<UUID> keys = new ArrayList<UUID>();
+    for(int i = 0; i < 100000; i++){
+      UUID key = UUID.randomUUID();
+      keys.add(key);
+      map.put(key, key.toString());
+    }
+    for(int i = 0; i < keys.size(); i += 2){
+      map.remove(keys.get(i));
+    }
+    for(int i = 0; i < keys.size(); i++){
+      UUID key = keys.get(i);
+      assertEquals(i % 2 == 0 ? null : key.toString(), map.get(key));
+    }
+    for(int i = 0; i < keys.size(); i += 2){
+      map.put(keys.get(i), "back");
+    }
+    assertEquals(keys.size(), map.size());
+    assertEquals("back", map.get(keys.get(0)));
+  }
+
+  @Test
+  public void testCollidingLowBits(){
+    for(long i = 0; i < 1000; i++){
+      map.put(i << 32, 0L, "value" + i);
+    }
+    for(long i = 0; i < 1000; i++){
+      assertEquals("value" + i, map.get(i << 32, 0L));
+    }
+  }
+
+  @Test
+  public void testForEachAndRemoveIf(){
+    for(int i = 0; i < 100; i++){
+      map.put(0L, i, i % 2 == 0 ? "even" : "odd");
+    }
+    assertEquals(10, map.removeIf((mostSigBits, leastSigBits, value) -> value.equals("even"), 10));
+    assertEquals(40, map.removeIf((mostSigBits, leastSigBits, value) -> value.equals("even"), 100));
+
+    final Set<Long> seen = new HashSet<Long>();
+    map.forEach((mostSigBits, leastSigBits, value) -> {
+      assertEquals("odd", value);
+      seen.add(leastSigBits);
+    });
+    assertEquals(50, seen.size());
+  }
+
+  /**
+   * Each thread owns its own keys and checks every one it has written is still readable while the others grow
+   * and shrink the same segments.
+   */
+  @Test
+  public void testConcurrentReadsAndWrites() throws Exception{
+    final int threads = 8;
+    final int keysPerThread = 20000;
+    final CountDownLatch startGate = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try{
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for(int t = 0; t < threads; t++){
+        final long owner = t;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            startGate.await();
+            for(long i = 0; i < keysPerThread; i++){
+              map.put(owner, i, "v" + i);
+              assertEquals("v" + i, map.get(owner, i));
+              if(i % 3 == 0){
+                assertEquals("v" + i, map.remove(owner, i));
+              }
+              long earlier = i / 2;
+              assertEquals(earlier % 3 == 0 ? null : "v" + earlier, map.get(owner, earlier));
+            }
+            return null;
+          }
+        }));
+      }
+      startGate.countDown();
+      for(Future<Void> future : futures){
+        future.get(60, TimeUnit.SECONDS);
+      }
+    }finally{
+      executor.shutdownNow();
+    }
+
+    int expected = 0;
+    for(int i = 0; i < keysPerThread; i++){
+      if(i % 3 != 0){
+        expected++;
+      }
+    }
+    assertEquals(expected * threads, map.size());
+    assertTrue(map.get(0L, 1L) != null);
+  }
+}